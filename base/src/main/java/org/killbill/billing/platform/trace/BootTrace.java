@@ -0,0 +1,140 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.platform.trace;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+//
+// Records the spans of the boot sequence (config, Guice, embedded DBs, lifecycle, OSGI bundles...), across modules.
+// Recording is off until reset() is called at the beginning of the boot, and stops once the server is started (or failed
+// to start), so that spans opened at runtime (e.g. plugin restarts) or in processes which never boot are dropped.
+//
+public final class BootTrace {
+
+    public static final String CATEGORY_PHASE = "phase";
+    public static final String CATEGORY_GUICE = "guice";
+    public static final String CATEGORY_EMBEDDED_DB = "embeddeddb";
+    public static final String CATEGORY_LIFECYCLE = "lifecycle";
+    public static final String CATEGORY_OSGI = "osgi";
+
+    private static final Queue<Span> spans = new ConcurrentLinkedQueue<Span>();
+
+    private static volatile boolean recording = false;
+    private static volatile long originNanos = System.nanoTime();
+
+    private BootTrace() {}
+
+    public static Span start(final String category, final String name) {
+        return new Span(category, name);
+    }
+
+    public static boolean isRecording() {
+        return recording;
+    }
+
+    // Clears the spans and starts recording
+    public static void reset() {
+        spans.clear();
+        originNanos = System.nanoTime();
+        recording = true;
+    }
+
+    public static void stop() {
+        recording = false;
+    }
+
+    public static List<Span> getSpans() {
+        return new ArrayList<Span>(spans);
+    }
+
+    // Chrome trace event format (chrome://tracing, Perfetto), as complete events
+    public static Map<String, Object> toChromeTrace() {
+        final List<Map<String, Object>> events = new ArrayList<Map<String, Object>>();
+        for (final Span span : spans) {
+            final Map<String, Object> event = new LinkedHashMap<String, Object>();
+            event.put("name", span.getName());
+            event.put("cat", span.getCategory());
+            event.put("ph", "X");
+            event.put("ts", TimeUnit.NANOSECONDS.toMicros(span.startNanos - originNanos));
+            event.put("dur", TimeUnit.NANOSECONDS.toMicros(span.getDurationNanos()));
+            event.put("pid", 1);
+            event.put("tid", span.threadId);
+            event.put("args", Map.of("thread", span.threadName));
+            events.add(event);
+        }
+
+        final Map<String, Object> trace = new HashMap<String, Object>();
+        trace.put("traceEvents", events);
+        trace.put("displayTimeUnit", "ms");
+        return trace;
+    }
+
+    public static final class Span implements AutoCloseable {
+
+        private final String category;
+        private final String name;
+        private final long threadId;
+        private final String threadName;
+        private final long startNanos;
+
+        private volatile long durationNanos = -1;
+
+        private Span(final String category, final String name) {
+            this.category = category;
+            this.name = name;
+            this.threadId = Thread.currentThread().getId();
+            this.threadName = Thread.currentThread().getName();
+            this.startNanos = System.nanoTime();
+        }
+
+        public String getCategory() {
+            return category;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        @Override
+        public void close() {
+            if (durationNanos >= 0) {
+                return;
+            }
+            durationNanos = System.nanoTime() - startNanos;
+            if (recording) {
+                spans.add(this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return category + ":" + name + " (" + TimeUnit.NANOSECONDS.toMillis(durationNanos) + " ms)";
+        }
+    }
+}
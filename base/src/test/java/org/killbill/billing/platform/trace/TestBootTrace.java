@@ -0,0 +1,60 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.platform.trace;
+
+import java.util.List;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestBootTrace {
+
+    @Test(groups = "fast")
+    public void testRecording() {
+        BootTrace.stop();
+        // Dropped, the boot hasn't started
+        final BootTrace.Span beforeBoot = BootTrace.start(BootTrace.CATEGORY_GUICE, "KillbillPlatformModule.configure");
+        beforeBoot.close();
+        Assert.assertFalse(BootTrace.getSpans().contains(beforeBoot));
+
+        BootTrace.reset();
+        Assert.assertTrue(BootTrace.isRecording());
+        try (final BootTrace.Span ignored = BootTrace.start(BootTrace.CATEGORY_PHASE, "startLifecycle")) {
+            try (final BootTrace.Span ignored2 = BootTrace.start(BootTrace.CATEGORY_LIFECYCLE, "INIT_BUS")) {
+                Assert.assertTrue(BootTrace.getSpans().isEmpty());
+            }
+        }
+        BootTrace.stop();
+        Assert.assertFalse(BootTrace.isRecording());
+
+        // Dropped, the server is started
+        BootTrace.start(BootTrace.CATEGORY_OSGI, "start:file:/var/tmp/foo.jar").close();
+
+        final List<BootTrace.Span> spans = BootTrace.getSpans();
+        Assert.assertEquals(spans.size(), 2);
+        Assert.assertEquals(spans.get(0).getName(), "INIT_BUS");
+        Assert.assertEquals(spans.get(1).getName(), "startLifecycle");
+        Assert.assertTrue(spans.get(1).getDurationNanos() >= spans.get(0).getDurationNanos());
+
+        final List<?> events = (List<?>) BootTrace.toChromeTrace().get("traceEvents");
+        Assert.assertEquals(events.size(), 2);
+        Assert.assertEquals(((Map<?, ?>) events.get(1)).get("cat"), BootTrace.CATEGORY_PHASE);
+        Assert.assertEquals(((Map<?, ?>) events.get(1)).get("ph"), "X");
+    }
+}
@@ -20,8 +20,10 @@
 package org.killbill.billing.lifecycle;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -30,6 +32,12 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 import jakarta.inject.Inject;
@@ -39,11 +47,14 @@ import org.killbill.billing.lifecycle.config.LifecycleConfig;
 import org.killbill.billing.platform.api.KillbillService;
 import org.killbill.billing.platform.api.LifecycleHandlerType;
 import org.killbill.billing.platform.api.LifecycleHandlerType.LifecycleLevel;
+import org.killbill.billing.platform.trace.BootTrace;
+import org.killbill.commons.metrics.api.MetricRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.inject.ConfigurationException;
 import com.google.inject.Injector;
+import com.google.inject.Key;
 import com.google.inject.ProvisionException;
 
 public class DefaultLifecycle implements Lifecycle {
@@ -54,11 +65,22 @@ public class DefaultLifecycle implements Lifecycle {
     private final Map<LifecycleLevel, SortedSet<LifecycleHandler<? extends KillbillService>>> handlersByLevel;
 
     private final LifecycleConfig config;
+    private final int parallelism;
+    // Handlers on the critical path of the stages fired in the current sequence
+    private final List<HandlerTiming> criticalPath;
+
+    private MetricRegistry metricRegistry;
 
     @Inject
     public DefaultLifecycle(final Injector injector, final LifecycleConfig config) {
         this(config);
-        final ServiceFinder<KillbillService> serviceFinder = new ServiceFinder<>(DefaultLifecycle.class.getClassLoader(), KillbillService.class.getName());
+        // Optional, e.g. not bound in tests
+        if (injector.getExistingBinding(Key.get(MetricRegistry.class)) != null) {
+            this.metricRegistry = injector.getInstance(MetricRegistry.class);
+        }
+        final ServiceFinder<KillbillService> serviceFinder = new ServiceFinder<>(DefaultLifecycle.class.getClassLoader(),
+                                                                                   KillbillService.class.getName(),
+                                                                                   config != null && config.isServiceIndexEnabled());
         init(serviceFinder, injector);
     }
 
@@ -68,10 +90,19 @@ public class DefaultLifecycle implements Lifecycle {
         init(services);
     }
 
+    // For testing
+    DefaultLifecycle(final Iterable<? extends KillbillService> services, final LifecycleConfig config, @Nullable final MetricRegistry metricRegistry) {
+        this(config);
+        this.metricRegistry = metricRegistry;
+        init(services);
+    }
+
 
     private DefaultLifecycle(final LifecycleConfig config) {
         this.handlersByLevel = new ConcurrentHashMap<>();
         this.config = config;
+        this.parallelism = config == null ? 1 : Math.max(1, config.getLifecycleParallelism());
+        this.criticalPath = new LinkedList<>();
     }
 
     @Override
@@ -140,31 +171,107 @@ public class DefaultLifecycle implements Lifecycle {
     }
 
     private void fireSequence(final LifecycleHandlerType.LifecycleLevel.Sequence seq) {
+        final long startTime = System.nanoTime();
+        criticalPath.clear();
+
         final List<LifecycleHandlerType.LifecycleLevel> levels = LifecycleHandlerType.LifecycleLevel.getLevelsForSequence(seq);
         for (final LifecycleHandlerType.LifecycleLevel cur : levels) {
             doFireStage(cur);
         }
+
+        log.info("Killbill lifecycle sequence {} took {} ms, critical path: {}", seq, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), criticalPath);
     }
 
+    //
+    // Handlers are invoked by increasing registration ordering. When parallelism is configured, the handlers of services
+    // sharing the same registration ordering are invoked concurrently (the next ordering only starts once they are all done).
+    //
     private void doFireStage(final LifecycleHandlerType.LifecycleLevel level) {
         log.info("Killbill lifecycle firing stage {}", level);
         final Set<LifecycleHandler<? extends KillbillService>> handlers = handlersByLevel.getOrDefault(level, new TreeSet<>());
+
+        ExecutorService executor = null;
+        try (final BootTrace.Span ignored = BootTrace.start(BootTrace.CATEGORY_LIFECYCLE, level.toString())) {
+            List<LifecycleHandler<? extends KillbillService>> group = new ArrayList<>();
+            for (final LifecycleHandler<? extends KillbillService> cur : handlers) {
+                if (!group.isEmpty() && group.get(0).getTarget().getRegistrationOrdering() != cur.getTarget().getRegistrationOrdering()) {
+                    executor = invokeHandlers(level, group, executor);
+                    group = new ArrayList<>();
+                }
+                group.add(cur);
+            }
+            if (!group.isEmpty()) {
+                executor = invokeHandlers(level, group, executor);
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    // Returns the executor, created if needed
+    private ExecutorService invokeHandlers(final LifecycleLevel level, final List<LifecycleHandler<? extends KillbillService>> handlers, @Nullable final ExecutorService executor) {
+        if (parallelism <= 1 || handlers.size() <= 1) {
+            HandlerTiming slowest = null;
+            for (final LifecycleHandler<? extends KillbillService> cur : handlers) {
+                final HandlerTiming timing = invokeHandler(level, cur);
+                slowest = slowest == null || timing.durationNanos > slowest.durationNanos ? timing : slowest;
+            }
+            criticalPath.add(slowest);
+            return executor;
+        }
+
+        final ExecutorService currentExecutor = executor != null ? executor : createExecutor();
+        final List<Future<HandlerTiming>> futures = new ArrayList<>(handlers.size());
         for (final LifecycleHandler<? extends KillbillService> cur : handlers) {
+            futures.add(currentExecutor.submit(() -> invokeHandler(level, cur)));
+        }
 
+        HandlerTiming slowest = null;
+        for (final Future<HandlerTiming> future : futures) {
             try {
-                final Method method = cur.getMethod();
-                final KillbillService target = cur.getTarget();
-                log.info("Killbill lifecycle calling handler {} for service {}", cur.getMethod().getName(), target.getName());
-                method.invoke(target);
-            } catch (final Exception e) {
-                logWarn("Killbill lifecycle failed to invoke lifecycle handler", e);
-                if (config.isServerExitOnLifecycleError()) {
-                    log.warn("Exiting as system was configured to exit on lifecycle error ");
-                    System.exit(1);
-                }
+                final HandlerTiming timing = future.get();
+                slowest = slowest == null || timing.durationNanos > slowest.durationNanos ? timing : slowest;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while firing lifecycle stage " + level, e);
+            } catch (final ExecutionException e) {
+                // invokeHandler doesn't throw
+                throw new IllegalStateException(e.getCause());
             }
         }
+        criticalPath.add(slowest);
+        return currentExecutor;
+    }
 
+    private HandlerTiming invokeHandler(final LifecycleLevel level, final LifecycleHandler<? extends KillbillService> cur) {
+        final Method method = cur.getMethod();
+        final KillbillService target = cur.getTarget();
+        final String serviceName = target.getName() != null ? target.getName() : target.getClass().getSimpleName();
+
+        final long startTime = System.nanoTime();
+        try (final BootTrace.Span ignored = BootTrace.start(BootTrace.CATEGORY_LIFECYCLE, level + ":" + serviceName + "." + method.getName())) {
+            log.info("Killbill lifecycle calling handler {} for service {}", cur.getMethod().getName(), target.getName());
+            method.invoke(target);
+        } catch (final Exception e) {
+            logWarn("Killbill lifecycle failed to invoke lifecycle handler", e);
+            if (config.isServerExitOnLifecycleError()) {
+                log.warn("Exiting as system was configured to exit on lifecycle error ");
+                System.exit(1);
+            }
+        }
+        final long durationNanos = System.nanoTime() - startTime;
+
+        if (metricRegistry != null) {
+            metricRegistry.timer(String.format("killbill-lifecycle.%s.%s.%s", level, serviceName, method.getName())).update(durationNanos, TimeUnit.NANOSECONDS);
+        }
+        return new HandlerTiming(level, serviceName + "." + method.getName(), durationNanos);
+    }
+
+    private ExecutorService createExecutor() {
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+        return Executors.newFixedThreadPool(parallelism, runnable -> new Thread(runnable, "killbill-lifecycle-" + threadNumber.getAndIncrement()));
     }
 
     // Used to disable valid injection failure from unit tests
@@ -248,4 +355,39 @@ public class DefaultLifecycle implements Lifecycle {
     Map<LifecycleLevel, SortedSet<LifecycleHandler<? extends KillbillService>>> getHandlersByLevel() {
         return handlersByLevel;
     }
+
+    // For the last sequence fired: the slowest handler of each registration ordering, for each stage
+    List<HandlerTiming> getCriticalPath() {
+        return List.copyOf(criticalPath);
+    }
+
+    static final class HandlerTiming {
+
+        private final LifecycleLevel level;
+        private final String handlerName;
+        private final long durationNanos;
+
+        HandlerTiming(final LifecycleLevel level, final String handlerName, final long durationNanos) {
+            this.level = level;
+            this.handlerName = handlerName;
+            this.durationNanos = durationNanos;
+        }
+
+        public LifecycleLevel getLevel() {
+            return level;
+        }
+
+        public String getHandlerName() {
+            return handlerName;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        @Override
+        public String toString() {
+            return level + ":" + handlerName + " (" + TimeUnit.NANOSECONDS.toMillis(durationNanos) + " ms)";
+        }
+    }
 }
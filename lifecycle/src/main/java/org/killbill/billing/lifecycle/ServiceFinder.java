@@ -19,33 +19,70 @@
 
 package org.killbill.billing.lifecycle;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.JarFile;
 
+import javax.annotation.Nullable;
+
+import org.killbill.billing.platform.index.ServiceIndexProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class ServiceFinder<T> {
 
+    // Generated at build time by ServiceIndexProcessor (killbill-platform-service-index), one per jar
+    public static final String SERVICES_INDEX = ServiceIndexProcessor.SERVICES_INDEX;
+
     private static final Logger log = LoggerFactory.getLogger(ServiceFinder.class);
 
     private final ClassLoader loader;
     private final String interfaceFilter;
     private final Set<Class<? extends T>> servicesTypes;
+    // Jars and directories read from their services index, and scanned
+    private final Set<File> indexedClassPaths = new HashSet<>();
+    private final Set<File> scannedClassPaths = new HashSet<>();
 
     public ServiceFinder(final ClassLoader loader, final String interfaceFilter) {
+        this(loader, interfaceFilter, false);
+    }
+
+    //
+    // When useIndex is set, the services are read from the SERVICES_INDEX files on the classpath, if any, instead of
+    // scanning the classpath. The jars and directories without an index are still scanned, so that an indexed jar
+    // doesn't hide the services of the other ones.
+    //
+    public ServiceFinder(final ClassLoader loader, final String interfaceFilter, final boolean useIndex) {
         this.loader = loader;
         this.interfaceFilter = interfaceFilter;
-        this.servicesTypes = initialize();
+
+        final long startTime = System.nanoTime();
+        final Set<Class<? extends T>> indexedServicesTypes = useIndex ? findIndexedClasses(indexedClassPaths) : null;
+        if (indexedServicesTypes != null) {
+            indexedServicesTypes.addAll(initialize(indexedClassPaths));
+            this.servicesTypes = indexedServicesTypes;
+        } else {
+            indexedClassPaths.clear();
+            this.servicesTypes = initialize(Collections.emptySet());
+        }
+        log.info("Found {} services in {} ms using {} services index(es) and {} scanned classpath entries",
+                 servicesTypes.size(),
+                 TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime),
+                 indexedClassPaths.size(),
+                 scannedClassPaths.size());
         for (final Class<? extends T> svc : servicesTypes) {
             log.debug("Found service class {}", svc.getName());
         }
@@ -55,18 +92,111 @@ public class ServiceFinder<T> {
         return Set.copyOf(servicesTypes);
     }
 
-    private Set<Class<? extends T>> initialize() {
+    Set<File> getIndexedClassPaths() {
+        return Set.copyOf(indexedClassPaths);
+    }
+
+    Set<File> getScannedClassPaths() {
+        return Set.copyOf(scannedClassPaths);
+    }
+
+    private Set<Class<? extends T>> initialize(final Set<File> skippedClassPaths) {
         try {
 
             final Set<String> packageFilter = new HashSet<>();
             packageFilter.add("org.killbill.billing");
             final String jarFilter = "killbill";
-            return findClasses(loader, interfaceFilter, jarFilter, packageFilter);
+            return findClasses(loader, interfaceFilter, jarFilter, packageFilter, skippedClassPaths);
         } catch (final ClassNotFoundException nfe) {
             throw new RuntimeException("Failed to initialize ClassFinder", nfe);
         }
     }
 
+    // Returns null if there is no index on the classpath, indexedClassPaths is filled with the jars and directories indexed
+    @SuppressWarnings("unchecked")
+    @Nullable
+    private Set<Class<? extends T>> findIndexedClasses(final Set<File> indexedClassPaths) {
+        final Class<?> interfaceClass;
+        final Enumeration<URL> indexes;
+        try {
+            interfaceClass = Class.forName(interfaceFilter, false, loader);
+            indexes = loader.getResources(SERVICES_INDEX);
+        } catch (final ClassNotFoundException | IOException e) {
+            log.warn("Unable to read the services index, falling back to classpath scanning", e);
+            return null;
+        }
+        if (!indexes.hasMoreElements()) {
+            return null;
+        }
+
+        final Set<Class<? extends T>> result = new HashSet<>();
+        while (indexes.hasMoreElements()) {
+            final URL index = indexes.nextElement();
+            log.debug("INDEX : " + index);
+
+            final File indexedClassPath = getIndexedClassPath(index);
+            if (indexedClassPath == null) {
+                log.warn("Unable to locate the services index {}, falling back to classpath scanning", index);
+                return null;
+            }
+            indexedClassPaths.add(indexedClassPath);
+
+            try (final BufferedReader reader = new BufferedReader(new InputStreamReader(index.openStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final String className = line.trim();
+                    if (className.isEmpty() || className.startsWith("#")) {
+                        continue;
+                    }
+
+                    final Class<?> theClass;
+                    try {
+                        theClass = Class.forName(className, false, loader);
+                    } catch (final ClassNotFoundException | NoClassDefFoundError e) {
+                        log.warn("Ignoring service {} from {}: class not found", className, index);
+                        continue;
+                    }
+                    // The index may have been generated for a different interface
+                    if (theClass.isInterface() && theClass != interfaceClass && interfaceClass.isAssignableFrom(theClass)) {
+                        result.add((Class<? extends T>) theClass);
+                    }
+                }
+            } catch (final IOException e) {
+                log.warn("Unable to read the services index {}, falling back to classpath scanning", index, e);
+                return null;
+            }
+        }
+        return result;
+    }
+
+    // The jar (jar:file:/foo.jar!/META-INF/...) or the directory (file:/foo/META-INF/...) containing the index, as
+    // found by findClasses
+    @Nullable
+    private static File getIndexedClassPath(final URL index) {
+        try {
+            if ("jar".equals(index.getProtocol())) {
+                final String file = index.getFile();
+                final int separator = file.indexOf("!/");
+                return separator < 0 ? null : toFile(new URL(file.substring(0, separator)));
+            } else if ("file".equals(index.getProtocol()) && index.toString().endsWith(SERVICES_INDEX)) {
+                final String url = index.toString();
+                return toFile(new URL(url.substring(0, url.length() - SERVICES_INDEX.length())));
+            } else {
+                return null;
+            }
+        } catch (final MalformedURLException e) {
+            return null;
+        }
+    }
+
+    private static File toFile(final URL url) {
+        try {
+            return new File(url.toURI()).getAbsoluteFile();
+        } catch (final URISyntaxException | IllegalArgumentException e) {
+            return new File(url.getFile()).getAbsoluteFile();
+        }
+    }
+
     /*
      *  Code originally from Kris Dover <krisdover@hotmail.com> and adapted for my purpose.
      *
@@ -75,7 +205,8 @@ public class ServiceFinder<T> {
     private Set<Class<? extends T>> findClasses(final ClassLoader classLoader,
                                              final String interfaceFilter,
                                              final String jarFilter,
-                                             final Set<String> packageFilter)
+                                             final Set<String> packageFilter,
+                                             final Set<File> skippedClassPaths)
     throws ClassNotFoundException {
 
         final Set<Class<? extends T>> result = new HashSet<>();
@@ -95,17 +226,24 @@ public class ServiceFinder<T> {
             final File classPath;
             if ((URL.class).isInstance(classPath1)) {
                 final URL urlClassPath = (URL) classPath1;
-                classPath = new File(urlClassPath.getFile());
                 protocol = urlClassPath.getProtocol();
+                classPath = "file".equals(protocol) ? toFile(urlClassPath) : new File(urlClassPath.getFile());
             } else {
-                classPath = new File(classPath1.toString());
+                classPath = new File(classPath1.toString()).getAbsoluteFile();
                 protocol = "file";
             }
 
+            // Already read from its services index
+            if (skippedClassPaths.contains(classPath)) {
+                log.debug("SKIP : " + classPath);
+                continue;
+            }
+
             // Check if the protocol is "file". For example, if classPath is http://felix.extensions:9/,
             // the file will be "/" and we don't want to scan the full filesystem
             if ("file".equals(protocol) && classPath.isDirectory()) {
                 log.debug("DIR : " + classPath);
+                scannedClassPaths.add(classPath);
 
                 final List<String> dirListing = new ArrayList<String>();
                 recursivelyListDir(dirListing, classPath, new StringBuffer());
@@ -119,6 +257,7 @@ public class ServiceFinder<T> {
                 if (jarFilter != null && jarName != null && !jarName.startsWith(jarFilter)) {
                     continue;
                 }
+                scannedClassPaths.add(classPath);
                 boolean failed = true;
                 try {
                     module = new JarFile(classPath);
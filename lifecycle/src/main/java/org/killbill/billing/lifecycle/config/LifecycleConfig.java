@@ -29,4 +29,16 @@ public interface LifecycleConfig extends KillbillPlatformConfig {
     @Description("Exit on lifecycle error")
     public boolean isServerExitOnLifecycleError();
 
+    @Config(KILL_BILL_NAMESPACE + "server.lifecycle.parallelism")
+    @Default("1")
+    @Description("Maximum number of lifecycle handlers invoked concurrently, for services sharing the same registration ordering. " +
+                 "The known services (KillbillService.KILLBILL_SERVICES) all have distinct orderings: this only applies to other services (e.g. plugins or extensions) sharing an ordering")
+    public int getLifecycleParallelism();
+
+    @Config(KILL_BILL_NAMESPACE + "server.lifecycle.serviceIndex")
+    @Default("false")
+    @Description("Whether to find services from the build-time generated services index instead of scanning the classpath " +
+                 "(the jars and directories without an index are still scanned)")
+    public boolean isServiceIndexEnabled();
+
 }
@@ -20,15 +20,24 @@
 package org.killbill.billing.lifecycle;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import jakarta.inject.Inject;
 
+import org.killbill.billing.lifecycle.DefaultLifecycle.HandlerTiming;
 import org.killbill.billing.lifecycle.DefaultLifecycle.LifecycleHandler;
+import org.killbill.billing.lifecycle.config.LifecycleConfig;
 import org.killbill.billing.platform.api.KillbillService;
 import org.killbill.billing.platform.api.LifecycleHandlerType;
 import org.killbill.billing.platform.api.LifecycleHandlerType.LifecycleLevel;
+import org.killbill.commons.metrics.api.MetricRegistry;
+import org.killbill.commons.metrics.api.Timer;
+import org.mockito.Mockito;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.testng.Assert;
@@ -147,6 +156,34 @@ public class TestLifecycle {
     }
 
 
+    public static class ParallelService implements KillbillService {
+
+        private final String name;
+        private final int registrationOrdering;
+        private final Runnable initHandler;
+
+        public ParallelService(final String name, final int registrationOrdering, final Runnable initHandler) {
+            this.name = name;
+            this.registrationOrdering = registrationOrdering;
+            this.initHandler = initHandler;
+        }
+
+        @LifecycleHandlerType(LifecycleLevel.INIT_SERVICE)
+        public void initService() {
+            initHandler.run();
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int getRegistrationOrdering() {
+            return registrationOrdering;
+        }
+    }
+
     public KillbillService createKillBillService(final String name, final int order) {
         return new KillbillService() {
             @Override
@@ -182,6 +219,8 @@ public class TestLifecycle {
         s2.reset();
         lifecycle.fireStartupSequencePriorEventRegistration();
         Assert.assertEquals(s1.getCount() + s2.getCount(), 3);
+        // One handler per stage (INIT_BUS, LOAD_CATALOG, INIT_SERVICE)
+        Assert.assertEquals(lifecycle.getCriticalPath().size(), 3);
 
         s1.reset();
         s2.reset();
@@ -220,6 +259,53 @@ public class TestLifecycle {
 
     }
 
+    @Test(groups = "fast")
+    public void testParallelHandlers() {
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        final AtomicInteger overlapping = new AtomicInteger();
+        final AtomicInteger done = new AtomicInteger();
+        final Runnable parallelHandler = () -> {
+            bothRunning.countDown();
+            try {
+                // Only released if the other handler with the same ordering runs concurrently
+                if (bothRunning.await(10, TimeUnit.SECONDS)) {
+                    overlapping.incrementAndGet();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.incrementAndGet();
+        };
+        final AtomicInteger doneWhenNextOrderingStarted = new AtomicInteger(-1);
+        final List<KillbillService> services = List.of(new ParallelService("a", 10, parallelHandler),
+                                                       new ParallelService("b", 10, parallelHandler),
+                                                       new ParallelService("c", 20, () -> doneWhenNextOrderingStarted.set(done.get())));
+
+        final LifecycleConfig config = Mockito.mock(LifecycleConfig.class);
+        Mockito.when(config.getLifecycleParallelism()).thenReturn(2);
+        final MetricRegistry metricRegistry = Mockito.mock(MetricRegistry.class);
+        final Timer timer = Mockito.mock(Timer.class);
+        Mockito.when(metricRegistry.timer(Mockito.anyString())).thenReturn(timer);
+
+        final DefaultLifecycle parallelLifecycle = new DefaultLifecycle(services, config, metricRegistry);
+        parallelLifecycle.fireStartupSequencePriorEventRegistration();
+
+        Assert.assertEquals(overlapping.get(), 2);
+        // The next ordering waits for both
+        Assert.assertEquals(doneWhenNextOrderingStarted.get(), 2);
+
+        // Slowest handler of each ordering
+        final List<HandlerTiming> criticalPath = parallelLifecycle.getCriticalPath();
+        Assert.assertEquals(criticalPath.size(), 2);
+        Assert.assertTrue(Set.of("a.initService", "b.initService").contains(criticalPath.get(0).getHandlerName()));
+        Assert.assertEquals(criticalPath.get(1).getHandlerName(), "c.initService");
+
+        for (final String serviceName : List.of("a", "b", "c")) {
+            Mockito.verify(metricRegistry).timer("killbill-lifecycle.INIT_SERVICE." + serviceName + ".initService");
+        }
+        Mockito.verify(timer, Mockito.times(3)).update(Mockito.anyLong(), Mockito.eq(TimeUnit.NANOSECONDS));
+    }
+
     public static class LifecycleNoWarn extends DefaultLifecycle {
 
         @Inject
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.lifecycle;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.lifecycle.TestLifecycle.TestService1Interface;
+import org.killbill.billing.lifecycle.TestLifecycle.TestService2Interface;
+import org.killbill.billing.lifecycle.api.BusService;
+import org.killbill.billing.platform.api.KillbillService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestServiceFinder {
+
+    private static final Logger log = LoggerFactory.getLogger(TestServiceFinder.class);
+
+    @Test(groups = "fast")
+    public void testIndexAndClasspathScanning() throws Exception {
+        final ClassLoader classLoader = TestServiceFinder.class.getClassLoader();
+
+        long startTime = System.nanoTime();
+        final ServiceFinder<KillbillService> indexedServiceFinder = new ServiceFinder<KillbillService>(classLoader, KillbillService.class.getName(), true);
+        final long indexNanos = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        final ServiceFinder<KillbillService> scanningServiceFinder = new ServiceFinder<KillbillService>(classLoader, KillbillService.class.getName(), false);
+        final long scanNanos = System.nanoTime() - startTime;
+
+        log.info("Services index: {} ms, classpath scanning: {} ms", TimeUnit.NANOSECONDS.toMillis(indexNanos), TimeUnit.NANOSECONDS.toMillis(scanNanos));
+
+        // See src/test/resources/META-INF/killbill/services.idx
+        final Set<Class<? extends KillbillService>> indexedServices = indexedServiceFinder.getServices();
+        Assert.assertTrue(indexedServices.containsAll(Set.of(TestService1Interface.class, TestService2Interface.class)));
+        Assert.assertTrue(indexedServices.contains(BusService.class));
+        Assert.assertEquals(indexedServices, scanningServiceFinder.getServices());
+
+        // The test classes, the main classes and killbill-platform-api are indexed at build time: they are not scanned
+        final Set<File> indexedClassPaths = Set.of(getClassPath(TestServiceFinder.class), getClassPath(BusService.class), getClassPath(KillbillService.class));
+        Assert.assertTrue(indexedServiceFinder.getIndexedClassPaths().containsAll(indexedClassPaths));
+        for (final File indexedClassPath : indexedClassPaths) {
+            Assert.assertFalse(indexedServiceFinder.getScannedClassPaths().contains(indexedClassPath), indexedClassPath.toString());
+        }
+
+        Assert.assertTrue(scanningServiceFinder.getIndexedClassPaths().isEmpty());
+        Assert.assertTrue(scanningServiceFinder.getScannedClassPaths().containsAll(indexedClassPaths));
+    }
+
+    private static File getClassPath(final Class<?> clazz) throws URISyntaxException {
+        return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsoluteFile();
+    }
+}
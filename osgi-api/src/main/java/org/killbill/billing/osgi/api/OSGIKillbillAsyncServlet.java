@@ -0,0 +1,39 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi.api;
+
+/**
+ * Implemented by the servlets registered by plugins which want their requests to be processed on a dedicated executor,
+ * instead of the web container threads (e.g. slow gateway callbacks or reports).
+ * <p>
+ * When the container supports it, the request is put in asynchronous mode and completed once the servlet returns, unless
+ * the servlet started asynchronous processing itself (in which case it is responsible for completing the request).
+ * Requests which can't be queued are rejected with a 503.
+ */
+public interface OSGIKillbillAsyncServlet {
+
+    /**
+     * @return the maximum number of requests processed concurrently
+     */
+    public int getMaxConcurrentRequests();
+
+    /**
+     * @return the maximum number of requests waiting for a thread
+     */
+    public int getMaxQueuedRequests();
+}
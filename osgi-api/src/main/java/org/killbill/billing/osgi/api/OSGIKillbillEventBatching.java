@@ -0,0 +1,41 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi.api;
+
+/**
+ * Implemented by the event observers registered by plugins which want to receive events in batches:
+ * Kill Bill then invokes the observer with a {@code List} of events instead of one event at a time.
+ * <p>
+ * If the observer fails to handle a batch, Kill Bill replays its events one at a time. If it throws a
+ * {@code QueueRetryException} instead, all the events of the batch are retried according to its schedule.
+ * <p>
+ * Events are buffered in memory until their batch is dispatched, but the bus considers them handled as soon as they are
+ * buffered: events pending in a batch are lost (without any trace) if the node crashes.
+ */
+public interface OSGIKillbillEventBatching {
+
+    /**
+     * @return the maximum number of events in a batch
+     */
+    public int getMaxBatchSize();
+
+    /**
+     * @return the maximum time (in milliseconds) an event can wait for its batch to be dispatched
+     */
+    public long getMaxBatchDelayMillis();
+}
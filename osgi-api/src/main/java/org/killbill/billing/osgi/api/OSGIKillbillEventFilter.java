@@ -0,0 +1,40 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi.api;
+
+import java.util.Set;
+import java.util.UUID;
+
+import org.killbill.billing.notification.plugin.api.ExtBusEventType;
+
+/**
+ * Implemented by the event observers registered by plugins, so that Kill Bill
+ * only dispatches the events they are interested in
+ */
+public interface OSGIKillbillEventFilter {
+
+    /**
+     * @return the event types the observer is interested in, or null for all types
+     */
+    public Set<ExtBusEventType> getEventTypes();
+
+    /**
+     * @return the tenants the observer is interested in, or null for all tenants
+     */
+    public Set<UUID> getTenantIds();
+}
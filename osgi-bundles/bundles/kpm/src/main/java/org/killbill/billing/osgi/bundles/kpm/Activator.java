@@ -19,6 +19,7 @@
 
 package org.killbill.billing.osgi.bundles.kpm;
 
+import java.util.EnumSet;
 import java.util.Hashtable;
 import java.util.Properties;
 
@@ -26,6 +27,7 @@ import jakarta.servlet.Servlet;
 import jakarta.servlet.http.HttpServlet;
 
 import org.jooby.json.Jackson;
+import org.killbill.billing.notification.plugin.api.ExtBusEventType;
 import org.killbill.billing.osgi.api.OSGIKillbillRegistrar;
 import org.killbill.billing.osgi.api.OSGIPluginProperties;
 import org.killbill.billing.osgi.bundles.kpm.impl.DefaultPluginManager;
@@ -87,7 +89,8 @@ public class Activator extends KillbillActivatorBase {
     }
 
     private void registerHandlers() {
-        dispatcher.registerEventHandlers((OSGIFrameworkEventHandler) () -> dispatcher.registerEventHandlers(eventsListener));
+        // Only broadcast events (plugin install/uninstall requests) are relevant
+        dispatcher.registerEventHandlers((OSGIFrameworkEventHandler) () -> dispatcher.registerEventHandler(eventsListener, EnumSet.of(ExtBusEventType.BROADCAST_SERVICE), null));
     }
 
     private void registerServlet(final BundleContext context, final HttpServlet servlet) {
@@ -40,6 +40,8 @@ public class KillbillLogWriter implements BundleListener, FrameworkListener, Ser
 
     private static final String UNKNOWN = "[Unknown]";
     private static final String MDC_KEY = "MDC";
+    // Set when forwarded asynchronously from Logback (see OSGIAppender): the message doesn't start with the logger name then
+    private static final String LOGGER_NAME_KEY = "KILL_BILL_LOGGER_NAME";
     private final LogEntriesManager logEntriesManager;
     private final KillbillLoggerFactory loggerFactory;
 
@@ -52,16 +54,33 @@ public class KillbillLogWriter implements BundleListener, FrameworkListener, Ser
     public void log(final ServiceReference serviceReference, final int level, final String message, final Throwable exception) {
         final Bundle bundle = serviceReference == null ? null : serviceReference.getBundle();
 
-        final String loggerName = message.split("; ")[0];
-
-        final Map<String, String> mdcContext = MDC.getCopyOfContextMap();
-        final String userToken = mdcContext != null ? mdcContext.get("kb.userToken") : null;
-        final String tenantRecordId = mdcContext != null ? mdcContext.get("kb.tenantRecordId") : null;
-        final String accountRecordId = mdcContext != null ? mdcContext.get("kb.accountRecordId") : null;
-
-        // Forward the log to HTTP consumers
-        logEntriesManager.recordEvent(new LogEntryJson(bundle, level, loggerName, message, userToken,
-                                                       tenantRecordId, accountRecordId, exception));
+        // Forward the log to HTTP consumers, if any
+        if (logEntriesManager.hasSubscribers()) {
+            final Object structuredLoggerName = serviceReference == null ? null : serviceReference.getProperty(LOGGER_NAME_KEY);
+            // Logged on another thread, with the original MDC
+            @SuppressWarnings("unchecked")
+            final Map<String, String> mdc = structuredLoggerName == null ? null : (Map<String, String>) serviceReference.getProperty(MDC_KEY);
+
+            final String tenantRecordId = getMDCValue(structuredLoggerName, mdc, "kb.tenantRecordId");
+            final String accountRecordId = getMDCValue(structuredLoggerName, mdc, "kb.accountRecordId");
+            // Both start with the logger name
+            final String loggerNameOrMessage = structuredLoggerName != null ? (String) structuredLoggerName : message;
+            if (logEntriesManager.accepts(level, bundle, loggerNameOrMessage, tenantRecordId, accountRecordId)) {
+                final String loggerName;
+                final String entryMessage;
+                if (structuredLoggerName != null) {
+                    loggerName = (String) structuredLoggerName;
+                    // Same format as the messages forwarded synchronously
+                    entryMessage = loggerName + "; " + message;
+                } else {
+                    final int loggerNameEnd = message.indexOf("; ");
+                    loggerName = loggerNameEnd == -1 ? message : message.substring(0, loggerNameEnd);
+                    entryMessage = message;
+                }
+                logEntriesManager.recordEvent(new LogEntryJson(bundle, level, loggerName, entryMessage, getMDCValue(structuredLoggerName, mdc, "kb.userToken"),
+                                                               tenantRecordId, accountRecordId, exception));
+            }
+        }
 
         if (serviceReference != null && "true".equals(serviceReference.getProperty("KILL_BILL_ROOT_LOGGING"))) {
             // LogEntry comes from Logback already (see OSGIAppender), ignore
@@ -71,22 +90,28 @@ public class KillbillLogWriter implements BundleListener, FrameworkListener, Ser
         // Log comes from a pure OSGI LogService, forward it to slf4j
         final Logger delegate = getLogger(bundle, null, null);
         if (serviceReference != null) {
-            // A single thread (e.g. org.apache.felix.log.LogListenerThread) should be invoking this, but just to be safe...
-            synchronized (this) {
-                try {
-                    final Object originalMdcMap = serviceReference.getProperty(MDC_KEY);
-                    if (originalMdcMap != null) {
-                        //noinspection unchecked
-                        MDC.setContextMap((Map) originalMdcMap);
-                    }
+            // The MDC is per thread: no need to serialize the calls, the MDC of the original call is applied
+            // on the calling thread for the duration of this call only
+            final Object originalMdcMap = serviceReference.getProperty(MDC_KEY);
+            final Map<String, String> previousMdcMap = originalMdcMap != null ? MDC.getCopyOfContextMap() : null;
+            try {
+                if (originalMdcMap != null) {
+                    //noinspection unchecked
+                    MDC.setContextMap((Map) originalMdcMap);
+                }
 
-                    if (exception != null) {
-                        logInternal(delegate, serviceReference, level, message, exception);
+                if (exception != null) {
+                    logInternal(delegate, serviceReference, level, message, exception);
+                } else {
+                    logInternal(delegate, serviceReference, level, message);
+                }
+            } finally {
+                if (originalMdcMap != null) {
+                    if (previousMdcMap != null) {
+                        MDC.setContextMap(previousMdcMap);
                     } else {
-                        logInternal(delegate, serviceReference, level, message);
+                        MDC.clear();
                     }
-                } finally {
-                    MDC.clear();
                 }
             }
         } else if (exception != null) {
@@ -96,6 +121,13 @@ public class KillbillLogWriter implements BundleListener, FrameworkListener, Ser
         }
     }
 
+    private static String getMDCValue(final Object structuredLoggerName, final Map<String, String> mdc, final String key) {
+        if (structuredLoggerName == null) {
+            return MDC.get(key);
+        }
+        return mdc == null ? null : mdc.get(key);
+    }
+
     private void logInternal(final Logger delegate, final int level, final String message) {
         switch (level) {
             case LogService.LOG_DEBUG:
@@ -21,17 +21,24 @@ package org.killbill.billing.osgi.bundles.logger;
 
 import java.io.Closeable;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.annotation.Nullable;
 
-import org.killbill.commons.utils.collect.EvictingQueue;
+import org.osgi.framework.Bundle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+//
+// The last entries are kept in a single ring buffer, shared by all SSE subscribers: recording an entry is a lock-free
+// publish and each subscriber only keeps the sequence of the next entry it has to read. A subscriber which falls behind
+// by more than the buffer size loses the oldest entries, as with the previous per-subscriber evicting queues.
+//
 public class LogEntriesManager implements Closeable {
 
     private static final Logger logger = LoggerFactory.getLogger(LogEntriesManager.class);
@@ -40,92 +47,182 @@ public class LogEntriesManager implements Closeable {
 
     public static final int DEFAULT_SSE_CACHE_SIZE = 5000;
 
-    private final Map<UUID, EvictingQueue<LogEntryJson>> sseIDsCaches;
-    private final EvictingQueue<LogEntryJson> rootCache;
+    // Maximum number of entries a subscriber can lag behind before entries are dropped for it (defaults to the cache size)
+    public static final String SSE_SUBSCRIBER_BUFFER_SIZE_PROPERTY = "org.killbill.sse.subscriber.buffer.size";
+
+    private final int capacity;
+    private final int bufferSize;
+    private final AtomicReferenceArray<Slot> slots;
+    // Sequence of the next entry to publish
+    private final AtomicLong nextSequence = new AtomicLong();
+    // Sequences of the entries still in the buffer, for resuming
+    private final Map<UUID, Long> sequencesById = new ConcurrentHashMap<>();
+    private final Map<UUID, Subscriber> subscribers = new ConcurrentHashMap<>();
 
     public LogEntriesManager() {
-        sseIDsCaches = new HashMap<>();
-        final UUID rootCacheId = UUID.randomUUID();
-        rootCache = subscribe(rootCacheId, null);
+        this.capacity = getIntProperty(SSE_CACHE_SIZE_PROPERTY, DEFAULT_SSE_CACHE_SIZE);
+        this.bufferSize = Math.min(capacity, getIntProperty(SSE_SUBSCRIBER_BUFFER_SIZE_PROPERTY, capacity));
+        this.slots = new AtomicReferenceArray<>(capacity);
     }
 
-    public void recordEvent(final LogEntryJson logEntry) {
-        synchronized (sseIDsCaches) {
-            for (final EvictingQueue<LogEntryJson> cache : sseIDsCaches.values()) {
-                cache.add(logEntry);
+    public boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    // Whether at least one subscriber is interested in the log call, before building its entry
+    public boolean accepts(final int level, @Nullable final Bundle bundle, final String loggerNameOrMessage, @Nullable final String tenantRecordId, @Nullable final String accountRecordId) {
+        for (final Subscriber subscriber : subscribers.values()) {
+            if (subscriber.filter.accepts(level, bundle, loggerNameOrMessage, tenantRecordId, accountRecordId)) {
+                return true;
             }
         }
+        return false;
     }
 
-    public EvictingQueue<LogEntryJson> subscribe(final UUID cacheId, @Nullable final UUID lastEventId) {
-        int sseCacheSize = DEFAULT_SSE_CACHE_SIZE;
-
-        final String sseCacheSizeStr = System.getProperty(SSE_CACHE_SIZE_PROPERTY);
+    public void recordEvent(final LogEntryJson logEntry) {
+        final long sequence = nextSequence.getAndIncrement();
+        final Slot previous = slots.getAndSet(index(sequence), new Slot(sequence, logEntry));
+        if (previous != null) {
+            sequencesById.remove(previous.logEntry.getId());
+        }
+        sequencesById.put(logEntry.getId(), sequence);
 
-        if (sseCacheSizeStr != null) {
-            try {
-                sseCacheSize = Integer.parseInt(sseCacheSizeStr);
-            } catch (final NumberFormatException e) {
-                logger.warn("Invalid SSE cache size '{}', using default {}", sseCacheSizeStr, DEFAULT_SSE_CACHE_SIZE);
+        for (final Subscriber subscriber : subscribers.values()) {
+            if (subscriber.listener != null && subscriber.filter.accepts(logEntry)) {
+                subscriber.listener.run();
             }
         }
+    }
 
-        final EvictingQueue<LogEntryJson> cache = new EvictingQueue<>(sseCacheSize);
-        synchronized (sseIDsCaches) {
-            sseIDsCaches.put(cacheId, cache);
-            if (rootCache != null) {
-                if (lastEventId == null) {
-                    // Add all entries
-                    cache.addAll(rootCache);
-                } else {
-                    for (final LogEntryJson logEntryJson : rootCache) {
-                        if (lastEventId.equals(logEntryJson.getId())) {
-                            // Remove everything prior to that id
-                            cache.clear();
-                            continue;
-                        }
-                        cache.add(logEntryJson);
-                    }
-                }
+    public void subscribe(final UUID cacheId, @Nullable final UUID lastEventId) {
+        subscribe(cacheId, lastEventId, LogEntryFilter.ALL, null);
+    }
+
+    // The listener is invoked, on the logging thread, each time an entry matching the filter is recorded: it should only schedule the drain
+    public void subscribe(final UUID cacheId, @Nullable final UUID lastEventId, final LogEntryFilter filter, @Nullable final Runnable listener) {
+        // Everything still in the buffer, unless we're resuming after an entry which wasn't evicted yet
+        long cursor = Math.max(0, nextSequence.get() - capacity);
+        if (lastEventId != null) {
+            final Long lastSequence = sequencesById.get(lastEventId);
+            if (lastSequence != null) {
+                cursor = lastSequence + 1;
             }
         }
-        // Logging should be done outside the synchronized block to avoid any deadlock (the log entry will be put in the caches)
-        logger.info("Created new cache {} ({} active, cache size: {})", cacheId, sseIDsCaches.size(), sseCacheSize);
+        subscribers.put(cacheId, new Subscriber(cursor, filter, listener));
 
-        return cache;
+        logger.info("Created new cache {} ({} active, cache size: {})", cacheId, subscribers.size(), capacity);
     }
 
     public void unsubscribe(final UUID cacheId) {
-        final EvictingQueue<LogEntryJson> cache;
-        synchronized (sseIDsCaches) {
-            cache = sseIDsCaches.remove(cacheId);
-        }
-        // Logging should be done outside the synchronized block to avoid any deadlock (the log entry will be put in the caches)
-        logger.info("Removed cache {} ({} active)", cacheId, sseIDsCaches.size());
-        cache.clear();
+        subscribers.remove(cacheId);
+        logger.info("Removed cache {} ({} active)", cacheId, subscribers.size());
     }
 
     public Iterable<LogEntryJson> drain(final UUID cacheId) {
+        return drain(cacheId, Integer.MAX_VALUE);
+    }
+
+    public Iterable<LogEntryJson> drain(final UUID cacheId, final int maxEntries) {
         final Collection<LogEntryJson> elements = new LinkedList<LogEntryJson>();
 
-        synchronized (sseIDsCaches) {
-            final EvictingQueue<LogEntryJson> logEntries = sseIDsCaches.get(cacheId);
-            LogEntryJson logEntry = logEntries.poll();
-            while (logEntry != null) {
-                elements.add(logEntry);
-                logEntry = logEntries.poll();
-            }
+        final Subscriber subscriber = subscribers.get(cacheId);
+        if (subscriber == null) {
             return elements;
         }
+
+        // Skip the entries beyond the subscriber buffer
+        long sequence = subscriber.cursor.get();
+        final long oldestSequence = nextSequence.get() - bufferSize;
+        if (sequence < oldestSequence) {
+            subscriber.dropped.addAndGet(oldestSequence - sequence);
+            sequence = oldestSequence;
+        }
+
+        while (elements.size() < maxEntries) {
+            final Slot slot = slots.get(index(sequence));
+            if (slot == null || slot.sequence < sequence) {
+                // Not published yet
+                break;
+            } else if (slot.sequence > sequence) {
+                // Overwritten while we were reading
+                final long nextAvailableSequence = Math.max(sequence + 1, nextSequence.get() - capacity);
+                subscriber.dropped.addAndGet(nextAvailableSequence - sequence);
+                sequence = nextAvailableSequence;
+                continue;
+            }
+            if (subscriber.filter.accepts(slot.logEntry)) {
+                elements.add(slot.logEntry);
+            }
+            sequence++;
+        }
+        subscriber.cursor.set(sequence);
+
+        return elements;
+    }
+
+    // Number of entries recorded which haven't been drained yet by the subscriber
+    public long getLag(final UUID cacheId) {
+        final Subscriber subscriber = subscribers.get(cacheId);
+        return subscriber == null ? 0 : Math.max(0, nextSequence.get() - subscriber.cursor.get());
+    }
+
+    // Number of entries dropped for the subscriber, because it was lagging behind
+    public long getDropped(final UUID cacheId) {
+        final Subscriber subscriber = subscribers.get(cacheId);
+        return subscriber == null ? 0 : subscriber.dropped.get();
     }
 
     @Override
     public void close() {
-        synchronized (sseIDsCaches) {
-            for (final EvictingQueue<LogEntryJson> cache : sseIDsCaches.values()) {
-                cache.clear();
+        subscribers.clear();
+        sequencesById.clear();
+        for (int i = 0; i < capacity; i++) {
+            slots.set(i, null);
+        }
+    }
+
+    private int index(final long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    private static int getIntProperty(final String propertyName, final int defaultValue) {
+        final String valueStr = System.getProperty(propertyName);
+        if (valueStr != null) {
+            try {
+                final int value = Integer.parseInt(valueStr);
+                if (value > 0) {
+                    return value;
+                }
+            } catch (final NumberFormatException ignored) {
             }
-            sseIDsCaches.clear();
+            logger.warn("Invalid {} '{}', using default {}", propertyName, valueStr, defaultValue);
+        }
+        return defaultValue;
+    }
+
+    private static final class Subscriber {
+
+        // Sequence of the next entry to read
+        private final AtomicLong cursor;
+        private final AtomicLong dropped = new AtomicLong();
+        private final LogEntryFilter filter;
+        private final Runnable listener;
+
+        private Subscriber(final long cursor, final LogEntryFilter filter, @Nullable final Runnable listener) {
+            this.cursor = new AtomicLong(cursor);
+            this.filter = filter;
+            this.listener = listener;
+        }
+    }
+
+    private static final class Slot {
+
+        private final long sequence;
+        private final LogEntryJson logEntry;
+
+        private Slot(final long sequence, final LogEntryJson logEntry) {
+            this.sequence = sequence;
+            this.logEntry = logEntry;
         }
     }
 }
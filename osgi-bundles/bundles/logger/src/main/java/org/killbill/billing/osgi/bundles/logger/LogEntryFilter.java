@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi.bundles.logger;
+
+import javax.annotation.Nullable;
+
+import org.osgi.framework.Bundle;
+import org.osgi.service.log.LogService;
+
+// Log entries a SSE subscriber is interested in (null criteria match everything)
+public class LogEntryFilter {
+
+    public static final LogEntryFilter ALL = new LogEntryFilter(null, null, null, null, null);
+
+    // Most verbose level accepted, as a LogService level (LOG_ERROR being the least verbose)
+    private final int maxLevel;
+    private final String pluginName;
+    private final String tenantRecordId;
+    private final String accountRecordId;
+    private final String loggerPrefix;
+
+    public LogEntryFilter(@Nullable final String level,
+                          @Nullable final String pluginName,
+                          @Nullable final String tenantRecordId,
+                          @Nullable final String accountRecordId,
+                          @Nullable final String loggerPrefix) {
+        this.maxLevel = toLogServiceLevel(level);
+        this.pluginName = pluginName;
+        this.tenantRecordId = tenantRecordId;
+        this.accountRecordId = accountRecordId;
+        this.loggerPrefix = loggerPrefix;
+    }
+
+    // Invoked for each log call, before the entry is built: loggerNameOrMessage starts with the logger name (see KillbillLogWriter)
+    public boolean accepts(final int level,
+                           @Nullable final Bundle bundle,
+                           final String loggerNameOrMessage,
+                           @Nullable final String tenantRecordId,
+                           @Nullable final String accountRecordId) {
+        return level <= maxLevel &&
+               (this.tenantRecordId == null || this.tenantRecordId.equals(tenantRecordId)) &&
+               (this.accountRecordId == null || this.accountRecordId.equals(accountRecordId)) &&
+               (loggerPrefix == null || loggerNameOrMessage.startsWith(loggerPrefix)) &&
+               (pluginName == null || pluginName.equals(LogEntryJson.getName(bundle)));
+    }
+
+    public boolean accepts(final LogEntryJson logEntry) {
+        return logEntry.getIntLevel() <= maxLevel &&
+               (tenantRecordId == null || tenantRecordId.equals(logEntry.getTenantRecordId())) &&
+               (accountRecordId == null || accountRecordId.equals(logEntry.getAccountRecordId())) &&
+               (loggerPrefix == null || (logEntry.getLogger() != null && logEntry.getLogger().startsWith(loggerPrefix))) &&
+               (pluginName == null || pluginName.equals(logEntry.getName()));
+    }
+
+    // The levels accepted by the constructor
+    public static boolean isValidLevel(@Nullable final String level) {
+        return level == null || parseLevel(level) != null;
+    }
+
+    private static int toLogServiceLevel(@Nullable final String level) {
+        if (level == null) {
+            return Integer.MAX_VALUE;
+        }
+        final Integer logServiceLevel = parseLevel(level);
+        if (logServiceLevel == null) {
+            throw new IllegalArgumentException("Invalid log level " + level);
+        }
+        return logServiceLevel;
+    }
+
+    @Nullable
+    private static Integer parseLevel(final String level) {
+        switch (level.toUpperCase()) {
+            case "ERROR":
+                return LogService.LOG_ERROR;
+            case "WARN":
+            case "WARNING":
+                return LogService.LOG_WARNING;
+            case "INFO":
+                return LogService.LOG_INFO;
+            case "DEBUG":
+                return LogService.LOG_DEBUG;
+            default:
+                return null;
+        }
+    }
+}
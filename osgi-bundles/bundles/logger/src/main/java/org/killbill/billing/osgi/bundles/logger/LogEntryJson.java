@@ -32,6 +32,8 @@ public class LogEntryJson {
     private static final ObjectMapper DEFAULT_OBJECT_MAPPER = new ObjectMapper();
 
     private final UUID id;
+    // Not serialized, for filtering
+    private final int intLevel;
     private final String level;
     private final String name;
     private final String logger;
@@ -50,6 +52,7 @@ public class LogEntryJson {
                         final String accountRecordId,
                         final Throwable exception) {
         id = UUID.randomUUID();
+        this.intLevel = intLevel;
 
         if (intLevel == LogService.LOG_ERROR) {
             level = "ERROR";
@@ -63,24 +66,32 @@ public class LogEntryJson {
             level = String.valueOf(intLevel);
         }
 
+        name = getName(bundle);
+
+        this.logger = loggerName;
+        this.message = message;
+        this.time = System.currentTimeMillis();
+        this.userToken = userToken;
+        this.accountRecordId = accountRecordId;
+        this.tenantRecordId = tenantRecordId;
+    }
+
+    static String getName(final Bundle bundle) {
         if (bundle == null) {
-            name = null;
+            return null;
         } else if (bundle.getLocation() != null && bundle.getLocation().startsWith("jruby-")) {
             // Extract the plugin name (see FileInstall)
-            name = bundle.getLocation().substring(6);
+            return bundle.getLocation().substring(6);
         } else if (bundle.getSymbolicName() != null && bundle.getSymbolicName().startsWith("org.kill-bill.billing.plugin.java")) {
             // Extract the plugin name
-            name = bundle.getSymbolicName().substring(34);
+            return bundle.getSymbolicName().substring(34);
         } else {
-            name = bundle.getSymbolicName();
+            return bundle.getSymbolicName();
         }
+    }
 
-        this.logger = loggerName;
-        this.message = message;
-        this.time = System.currentTimeMillis();
-        this.userToken = userToken;
-        this.accountRecordId = accountRecordId;
-        this.tenantRecordId = tenantRecordId;
+    int getIntLevel() {
+        return intLevel;
     }
 
     public String getLogger() {
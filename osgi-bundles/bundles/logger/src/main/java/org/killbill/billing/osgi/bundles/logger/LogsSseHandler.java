@@ -22,32 +22,56 @@ package org.killbill.billing.osgi.bundles.logger;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
 
 import org.jooby.Request;
 import org.jooby.Sse;
 import org.jooby.funzy.Throwing;
+import org.killbill.billing.osgi.libs.killbill.OSGIMetricRegistry;
+import org.killbill.billing.osgi.libs.killbill.OSGIServiceNotAvailable;
 import org.killbill.commons.concurrent.Executors;
+import org.killbill.commons.metrics.api.Gauge;
+import org.killbill.commons.metrics.api.MetricRegistry;
 
+//
+// Entries are pushed to each client as soon as they are recorded: the subscriber's sender is woken up by the
+// LogEntriesManager and sends everything available, by batches. A slow client only ties up its own sender, and
+// loses the oldest entries once it lags behind by more than its buffer (see LogEntriesManager).
+//
 public class LogsSseHandler implements Sse.Handler, Closeable {
 
     private static final long INITIAL_DELAY_MS = 200;
     private static final long PERIOD_MS = 1000;
+    private static final int SENDER_THREADS = 4;
+    private static final int MAX_BATCH_SIZE = 100;
 
     private final LogEntriesManager logEntriesManager;
+    private final OSGIMetricRegistry metricRegistry;
     private final ScheduledExecutorService scheduledExecutorService;
+    private final ExecutorService senderExecutorService;
 
     public LogsSseHandler(final LogEntriesManager logEntriesManager) {
+        this(logEntriesManager, null);
+    }
+
+    public LogsSseHandler(final LogEntriesManager logEntriesManager, @Nullable final OSGIMetricRegistry metricRegistry) {
         this.logEntriesManager = logEntriesManager;
+        this.metricRegistry = metricRegistry;
         this.scheduledExecutorService = Executors.newSingleThreadScheduledExecutor("LogsSseHandler");
+        this.senderExecutorService = Executors.newFixedThreadPool(SENDER_THREADS, "LogsSseHandler-sender");
     }
 
     @Override
     public void close() throws IOException {
         this.scheduledExecutorService.shutdownNow();
+        this.senderExecutorService.shutdownNow();
         this.logEntriesManager.close();
     }
 
@@ -55,24 +79,25 @@ public class LogsSseHandler implements Sse.Handler, Closeable {
     public void handle(final Request req, final Sse sse) {
         final UUID lastEventId = sse.lastEventId(UUID.class).orElse(null);
         final UUID cacheId = UUID.fromString(sse.id());
-        logEntriesManager.subscribe(cacheId, lastEventId);
 
-        final AtomicReference<UUID> lastLogId = new AtomicReference<>();
+        // An unknown level is ignored (i.e. all levels are sent): the SSE handshake is already done, too late for a 400
+        final LogEntryFilter filter = new LogEntryFilter(req.param("level").toOptional().filter(LogEntryFilter::isValidLevel).orElse(null),
+                                                         req.param("pluginName").toOptional().orElse(null),
+                                                         req.param("tenantRecordId").toOptional().orElse(null),
+                                                         req.param("accountRecordId").toOptional().orElse(null),
+                                                         req.param("loggerPrefix").toOptional().orElse(null));
+
+        final Sender sender = new Sender(cacheId, sse);
+        logEntriesManager.subscribe(cacheId, lastEventId, filter, sender::wakeUp);
+        registerMetrics(cacheId);
+        sender.wakeUp();
+
+        // In case we have nothing to send, send a heartbeat to verify the client is still around
+        // That way, we can more quickly cleanup our subscriptions
         final ScheduledFuture<?> future = scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {
-                final Iterable<LogEntryJson> logEntries = logEntriesManager.drain(cacheId);
-                if (!logEntries.iterator().hasNext()) {
-                    // In case we have nothing to send, send a heartbeat to verify the client is still around
-                    // That way, we can more quickly cleanup our subscriptions
-                    // Note that we set the id as the last log id, so that we can easily resume
-                    sse.event("heartbeat").id(lastLogId.get()).send();
-                } else {
-                    for (final LogEntryJson logEntryJson : logEntries) {
-                        sse.event(logEntryJson).id(logEntryJson.getId()).send();
-                        lastLogId.set(logEntryJson.getId());
-                    }
-                }
+                sender.requestHeartbeat();
             }
         }, INITIAL_DELAY_MS, PERIOD_MS, TimeUnit.MILLISECONDS);
 
@@ -80,8 +105,123 @@ public class LogsSseHandler implements Sse.Handler, Closeable {
             @Override
             public void tryRun() throws Throwable {
                 future.cancel(true);
+                sender.close();
                 logEntriesManager.unsubscribe(cacheId);
+                unregisterMetrics(cacheId);
             }
         });
     }
+
+    private void registerMetrics(final UUID cacheId) {
+        final MetricRegistry registry = getMetricRegistry();
+        if (registry == null) {
+            return;
+        }
+
+        registry.gauge(getLagGaugeName(cacheId), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return logEntriesManager.getLag(cacheId);
+            }
+        });
+        registry.gauge(getDroppedGaugeName(cacheId), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return logEntriesManager.getDropped(cacheId);
+            }
+        });
+    }
+
+    private void unregisterMetrics(final UUID cacheId) {
+        final MetricRegistry registry = getMetricRegistry();
+        if (registry != null) {
+            registry.remove(getLagGaugeName(cacheId));
+            registry.remove(getDroppedGaugeName(cacheId));
+        }
+    }
+
+    private MetricRegistry getMetricRegistry() {
+        if (metricRegistry == null) {
+            return null;
+        }
+        try {
+            return metricRegistry.getMetricRegistry();
+        } catch (final OSGIServiceNotAvailable e) {
+            return null;
+        }
+    }
+
+    private static String getLagGaugeName(final UUID cacheId) {
+        return "killbill-osgi-logger.kb_sse_lag." + cacheId;
+    }
+
+    private static String getDroppedGaugeName(final UUID cacheId) {
+        return "killbill-osgi-logger.kb_sse_dropped." + cacheId;
+    }
+
+    // Sends the entries of a subscriber: at most one run at a time, so that the events are sent in order
+    private final class Sender implements Runnable {
+
+        private final UUID cacheId;
+        private final Sse sse;
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final AtomicBoolean heartbeatRequested = new AtomicBoolean(false);
+
+        private volatile UUID lastLogId;
+        private volatile boolean closed;
+
+        private Sender(final UUID cacheId, final Sse sse) {
+            this.cacheId = cacheId;
+            this.sse = sse;
+        }
+
+        void wakeUp() {
+            if (closed || !scheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                senderExecutorService.execute(this);
+            } catch (final RejectedExecutionException e) {
+                // Shutting down
+                scheduled.set(false);
+            }
+        }
+
+        void requestHeartbeat() {
+            heartbeatRequested.set(true);
+            wakeUp();
+        }
+
+        void close() {
+            closed = true;
+        }
+
+        @Override
+        public void run() {
+            try {
+                boolean sent = false;
+                Iterable<LogEntryJson> logEntries = logEntriesManager.drain(cacheId, MAX_BATCH_SIZE);
+                while (!closed && logEntries.iterator().hasNext()) {
+                    for (final LogEntryJson logEntryJson : logEntries) {
+                        sse.event(logEntryJson).id(logEntryJson.getId()).send();
+                        lastLogId = logEntryJson.getId();
+                    }
+                    sent = true;
+                    logEntries = logEntriesManager.drain(cacheId, MAX_BATCH_SIZE);
+                }
+
+                // Note that we set the id as the last log id, so that we can easily resume
+                if (heartbeatRequested.getAndSet(false) && !sent && !closed) {
+                    sse.event("heartbeat").id(lastLogId).send();
+                }
+            } finally {
+                scheduled.set(false);
+            }
+
+            // Entries recorded after our last drain, while we were still scheduled
+            if (logEntriesManager.getLag(cacheId) > 0) {
+                wakeUp();
+            }
+        }
+    }
 }
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi.bundles.logger;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import org.killbill.billing.osgi.bundles.logger.KillbillLoggerFactory.LoggersKey;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
+import org.osgi.service.log.LogService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+
+public class TestKillbillLogWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(TestKillbillLogWriter.class);
+
+    private static final int NB_THREADS = 8;
+    private static final int NB_CALLS_PER_THREAD = 1000;
+
+    @Test(groups = "fast")
+    public void testConcurrentLogsWithMDC() throws Exception {
+        // No mocks on the hot path: Mockito's invocation recording would dominate (and serialize) the measurements
+        final Bundle bundle = createBundle("org.kill-bill.billing.plugin.java.foo");
+        final KillbillLogWriter logWriter = new KillbillLogWriter(new LogEntriesManager(), new KillbillLoggerFactory(bundle));
+
+        // Logger the entries are forwarded to (no class name is known for LogService calls)
+        final ch.qos.logback.classic.Logger delegate = (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(LoggersKey.createBundleName(bundle));
+        final MDCRecordingAppender appender = new MDCRecordingAppender();
+        appender.setContext(delegate.getLoggerContext());
+        appender.start();
+        delegate.addAppender(appender);
+        delegate.setAdditive(false);
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(NB_THREADS);
+        try {
+            // Baseline: the calls serialized by a global lock, as KillbillLogWriter used to do
+            final long synchronizedNanos = logConcurrently(executorService, logWriter, bundle, appender, new Object());
+            final long concurrentNanos = logConcurrently(executorService, logWriter, bundle, appender, null);
+            logger.info("{} log calls on {} threads: {} ms synchronized, {} ms concurrent",
+                        NB_THREADS * NB_CALLS_PER_THREAD,
+                        NB_THREADS,
+                        TimeUnit.NANOSECONDS.toMillis(synchronizedNanos),
+                        TimeUnit.NANOSECONDS.toMillis(concurrentNanos));
+        } finally {
+            executorService.shutdownNow();
+            delegate.detachAppender(appender);
+            delegate.setAdditive(true);
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testSyncAndAsyncEntriesHaveTheSameFormat() {
+        final Bundle bundle = createBundle("org.kill-bill.billing.plugin.java.foo");
+        final LogEntriesManager logEntriesManager = new LogEntriesManager();
+        final KillbillLogWriter logWriter = new KillbillLogWriter(logEntriesManager, new KillbillLoggerFactory(bundle));
+        final UUID cacheId = UUID.randomUUID();
+        logEntriesManager.subscribe(cacheId, null);
+
+        // Forwarded by OSGIAppender on the calling thread: the message starts with the logger name
+        MDC.put("kb.tenantRecordId", "1");
+        try {
+            logWriter.log(new TestServiceReference(bundle, Map.of("KILL_BILL_ROOT_LOGGING", "true")),
+                          LogService.LOG_INFO,
+                          "org.killbill.billing.plugin.Foo; message",
+                          null);
+        } finally {
+            MDC.clear();
+        }
+        // Forwarded by OSGIAppender on its own thread: the logger name and the MDC are passed as properties
+        logWriter.log(new TestServiceReference(bundle, Map.of("KILL_BILL_ROOT_LOGGING", "true",
+                                                              "KILL_BILL_LOGGER_NAME", "org.killbill.billing.plugin.Foo",
+                                                              "MDC", Map.of("kb.tenantRecordId", "1"))),
+                      LogService.LOG_INFO,
+                      "message",
+                      null);
+
+        final List<LogEntryJson> logEntries = new ArrayList<>();
+        logEntriesManager.drain(cacheId).forEach(logEntries::add);
+        Assert.assertEquals(logEntries.size(), 2);
+        for (final LogEntryJson logEntry : logEntries) {
+            Assert.assertEquals(logEntry.getLogger(), "org.killbill.billing.plugin.Foo");
+            Assert.assertEquals(logEntry.getMessage(), "org.killbill.billing.plugin.Foo; message");
+            Assert.assertEquals(logEntry.getTenantRecordId(), "1");
+        }
+    }
+
+    private long logConcurrently(final ExecutorService executorService,
+                                 final KillbillLogWriter logWriter,
+                                 final Bundle bundle,
+                                 final MDCRecordingAppender appender,
+                                 @Nullable final Object lock) throws Exception {
+        appender.reset();
+
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < NB_THREADS; i++) {
+            final String tenantRecordId = String.valueOf(i);
+            tasks.add(() -> {
+                appender.threadNames.put(tenantRecordId, Thread.currentThread().getName());
+                final ServiceReference<?> serviceReference = new TestServiceReference(bundle, Map.of("MDC", Map.of("kb.tenantRecordId", tenantRecordId)));
+
+                MDC.put("kb.accountRecordId", tenantRecordId);
+                for (int j = 0; j < NB_CALLS_PER_THREAD; j++) {
+                    // Enabled level, so that the message is actually forwarded to slf4j with the original MDC
+                    if (lock != null) {
+                        synchronized (lock) {
+                            logWriter.log(serviceReference, LogService.LOG_INFO, "org.killbill.billing.plugin.Foo; message", null);
+                        }
+                    } else {
+                        logWriter.log(serviceReference, LogService.LOG_INFO, "org.killbill.billing.plugin.Foo; message", null);
+                    }
+                    // The MDC of the calling thread is restored
+                    Assert.assertEquals(MDC.getCopyOfContextMap(), Map.of("kb.accountRecordId", tenantRecordId));
+                }
+                MDC.clear();
+                return null;
+            });
+        }
+
+        final long startTime = System.nanoTime();
+        for (final Future<Void> future : executorService.invokeAll(tasks)) {
+            future.get();
+        }
+        final long nanos = System.nanoTime() - startTime;
+
+        // slf4j saw the MDC of the original call, on the thread forwarding it, for every entry
+        Assert.assertEquals(appender.nbUnexpectedEvents.get(), 0);
+        Assert.assertEquals(appender.nbEvents.keySet(), appender.threadNames.keySet());
+        for (final AtomicInteger nbEvents : appender.nbEvents.values()) {
+            Assert.assertEquals(nbEvents.get(), NB_CALLS_PER_THREAD);
+        }
+        return nanos;
+    }
+
+    private static Bundle createBundle(final String symbolicName) {
+        return (Bundle) Proxy.newProxyInstance(Bundle.class.getClassLoader(),
+                                               new Class<?>[]{Bundle.class},
+                                               (proxy, method, args) -> {
+                                                   switch (method.getName()) {
+                                                       case "getSymbolicName":
+                                                           return symbolicName;
+                                                       case "getVersion":
+                                                           return Version.emptyVersion;
+                                                       case "getLocation":
+                                                           return "file:/" + symbolicName + ".jar";
+                                                       case "toString":
+                                                           return symbolicName;
+                                                       default:
+                                                           throw new UnsupportedOperationException(method.getName());
+                                                   }
+                                               });
+    }
+
+    // Unsynchronized, not to serialize the forwarding threads
+    private static final class MDCRecordingAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+        // kb.tenantRecordId -> name of the thread logging for that tenant
+        private final Map<String, String> threadNames = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> nbEvents = new ConcurrentHashMap<>();
+        private final AtomicInteger nbUnexpectedEvents = new AtomicInteger();
+
+        @Override
+        protected void append(final ILoggingEvent event) {
+            final String tenantRecordId = event.getMDCPropertyMap().get("kb.tenantRecordId");
+            if (tenantRecordId == null ||
+                !event.getThreadName().equals(threadNames.get(tenantRecordId)) ||
+                // The forwarded MDC replaces the one of the calling thread
+                !event.getMDCPropertyMap().equals(Map.of("kb.tenantRecordId", tenantRecordId))) {
+                nbUnexpectedEvents.incrementAndGet();
+                return;
+            }
+            nbEvents.computeIfAbsent(tenantRecordId, k -> new AtomicInteger()).incrementAndGet();
+        }
+
+        private void reset() {
+            threadNames.clear();
+            nbEvents.clear();
+            nbUnexpectedEvents.set(0);
+        }
+    }
+
+    // Service reference of a log entry forwarded by OSGIAppender (e.g. with the MDC of the original call)
+    private static final class TestServiceReference implements ServiceReference<Object> {
+
+        private final Bundle bundle;
+        private final Map<String, Object> properties;
+
+        private TestServiceReference(final Bundle bundle, final Map<String, Object> properties) {
+            this.bundle = bundle;
+            this.properties = properties;
+        }
+
+        @Override
+        public Object getProperty(final String key) {
+            return properties.get(key);
+        }
+
+        @Override
+        public String[] getPropertyKeys() {
+            return properties.keySet().toArray(new String[0]);
+        }
+
+        // Since OSGi Core R7
+        public Dictionary<String, Object> getProperties() {
+            return new Hashtable<>(properties);
+        }
+
+        @Override
+        public Bundle getBundle() {
+            return bundle;
+        }
+
+        @Override
+        public Bundle[] getUsingBundles() {
+            return null;
+        }
+
+        @Override
+        public boolean isAssignableTo(final Bundle bundle, final String className) {
+            return false;
+        }
+
+        @Override
+        public int compareTo(final Object reference) {
+            return 0;
+        }
+
+        // Since OSGi Core R8
+        public <A> A adapt(final Class<A> type) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi.bundles.logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.osgi.service.log.LogService;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestLogEntriesManager {
+
+    @Test(groups = "fast")
+    public void testSubscribeDrainAndResume() {
+        System.setProperty(LogEntriesManager.SSE_CACHE_SIZE_PROPERTY, "3");
+        final LogEntriesManager logEntriesManager;
+        try {
+            logEntriesManager = new LogEntriesManager();
+        } finally {
+            System.clearProperty(LogEntriesManager.SSE_CACHE_SIZE_PROPERTY);
+        }
+
+        final List<LogEntryJson> logEntries = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            logEntries.add(new LogEntryJson(null, LogService.LOG_INFO, "logger", "message-" + i, null, null, null, null));
+        }
+
+        logEntriesManager.recordEvent(logEntries.get(0));
+        logEntriesManager.recordEvent(logEntries.get(1));
+
+        // New subscribers get everything still in the buffer
+        final UUID cacheId = UUID.randomUUID();
+        logEntriesManager.subscribe(cacheId, null);
+        Assert.assertEquals(drain(logEntriesManager, cacheId), logEntries.subList(0, 2));
+        Assert.assertEquals(drain(logEntriesManager, cacheId), List.of());
+
+        // Slow subscriber: the oldest entries are evicted
+        logEntriesManager.recordEvent(logEntries.get(2));
+        logEntriesManager.recordEvent(logEntries.get(3));
+        logEntriesManager.recordEvent(logEntries.get(4));
+        final UUID otherCacheId = UUID.randomUUID();
+        logEntriesManager.subscribe(otherCacheId, logEntries.get(0).getId());
+        Assert.assertEquals(drain(logEntriesManager, cacheId), logEntries.subList(2, 5));
+        Assert.assertEquals(drain(logEntriesManager, otherCacheId), logEntries.subList(2, 5));
+
+        // Resume after a given entry
+        final UUID resumedCacheId = UUID.randomUUID();
+        logEntriesManager.subscribe(resumedCacheId, logEntries.get(3).getId());
+        Assert.assertEquals(drain(logEntriesManager, resumedCacheId), logEntries.subList(4, 5));
+
+        logEntriesManager.unsubscribe(cacheId);
+        Assert.assertEquals(drain(logEntriesManager, cacheId), List.of());
+    }
+
+    @Test(groups = "fast")
+    public void testListenerAndDroppedEntries() {
+        System.setProperty(LogEntriesManager.SSE_SUBSCRIBER_BUFFER_SIZE_PROPERTY, "2");
+        final LogEntriesManager logEntriesManager;
+        try {
+            logEntriesManager = new LogEntriesManager();
+        } finally {
+            System.clearProperty(LogEntriesManager.SSE_SUBSCRIBER_BUFFER_SIZE_PROPERTY);
+        }
+
+        final AtomicInteger wakeUps = new AtomicInteger();
+        final UUID cacheId = UUID.randomUUID();
+        logEntriesManager.subscribe(cacheId, null, LogEntryFilter.ALL, wakeUps::incrementAndGet);
+
+        final List<LogEntryJson> logEntries = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final LogEntryJson logEntry = new LogEntryJson(null, LogService.LOG_INFO, "logger", "message-" + i, null, null, null, null);
+            logEntries.add(logEntry);
+            logEntriesManager.recordEvent(logEntry);
+        }
+        Assert.assertEquals(wakeUps.get(), 5);
+        Assert.assertEquals(logEntriesManager.getLag(cacheId), 5);
+
+        // Only the last 2 entries are kept for the subscriber, by batches
+        Assert.assertEquals(drain(logEntriesManager, cacheId, 1), logEntries.subList(3, 4));
+        Assert.assertEquals(logEntriesManager.getDropped(cacheId), 3);
+        Assert.assertEquals(logEntriesManager.getLag(cacheId), 1);
+        Assert.assertEquals(drain(logEntriesManager, cacheId, 1), logEntries.subList(4, 5));
+        Assert.assertEquals(logEntriesManager.getLag(cacheId), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testFilters() {
+        final LogEntriesManager logEntriesManager = new LogEntriesManager();
+        Assert.assertFalse(logEntriesManager.hasSubscribers());
+
+        final UUID cacheId = UUID.randomUUID();
+        logEntriesManager.subscribe(cacheId, null, new LogEntryFilter("info", null, "1", null, "org.killbill.billing.payment"), null);
+        Assert.assertTrue(logEntriesManager.hasSubscribers());
+
+        final String message = "org.killbill.billing.payment.core.PaymentProcessor; Payment created";
+        Assert.assertTrue(logEntriesManager.accepts(LogService.LOG_INFO, null, message, "1", "2"));
+        Assert.assertFalse(logEntriesManager.accepts(LogService.LOG_DEBUG, null, message, "1", "2"));
+        Assert.assertFalse(logEntriesManager.accepts(LogService.LOG_ERROR, null, message, "2", "2"));
+        Assert.assertFalse(logEntriesManager.accepts(LogService.LOG_ERROR, null, "org.killbill.billing.invoice.InvoiceDispatcher; Invoice created", "1", "2"));
+
+        // Entries recorded for other subscribers are skipped
+        final LogEntryJson matching = new LogEntryJson(null, LogService.LOG_WARNING, "org.killbill.billing.payment.core.PaymentProcessor", message, null, "1", "2", null);
+        logEntriesManager.recordEvent(new LogEntryJson(null, LogService.LOG_DEBUG, "org.killbill.billing.payment.core.PaymentProcessor", message, null, "1", "2", null));
+        logEntriesManager.recordEvent(matching);
+        Assert.assertEquals(drain(logEntriesManager, cacheId), List.of(matching));
+        Assert.assertEquals(logEntriesManager.getLag(cacheId), 0);
+
+        logEntriesManager.unsubscribe(cacheId);
+        Assert.assertFalse(logEntriesManager.hasSubscribers());
+    }
+
+    @Test(groups = "fast")
+    public void testLevelValidation() {
+        Assert.assertTrue(LogEntryFilter.isValidLevel(null));
+        Assert.assertTrue(LogEntryFilter.isValidLevel("warn"));
+        Assert.assertTrue(LogEntryFilter.isValidLevel("DEBUG"));
+        Assert.assertFalse(LogEntryFilter.isValidLevel("TRACE"));
+        Assert.assertFalse(LogEntryFilter.isValidLevel(""));
+
+        try {
+            new LogEntryFilter("TRACE", null, null, null, null);
+            Assert.fail();
+        } catch (final IllegalArgumentException e) {
+            Assert.assertEquals(e.getMessage(), "Invalid log level TRACE");
+        }
+    }
+
+    private List<LogEntryJson> drain(final LogEntriesManager logEntriesManager, final UUID cacheId, final int maxEntries) {
+        final List<LogEntryJson> result = new ArrayList<>();
+        logEntriesManager.drain(cacheId, maxEntries).forEach(result::add);
+        return result;
+    }
+
+    private List<LogEntryJson> drain(final LogEntriesManager logEntriesManager, final UUID cacheId) {
+        final List<LogEntryJson> result = new ArrayList<>();
+        logEntriesManager.drain(cacheId).forEach(result::add);
+        return result;
+    }
+}
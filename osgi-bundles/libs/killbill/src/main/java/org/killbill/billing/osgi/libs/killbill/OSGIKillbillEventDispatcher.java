@@ -19,12 +19,24 @@
 
 package org.killbill.billing.osgi.libs.killbill;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.Nullable;
 
 import org.killbill.billing.notification.plugin.api.ExtBusEvent;
+import org.killbill.billing.notification.plugin.api.ExtBusEventType;
+import org.killbill.billing.osgi.api.OSGIKillbillEventBatching;
+import org.killbill.billing.osgi.api.OSGIKillbillEventFilter;
 import org.osgi.framework.BundleContext;
 import org.osgi.service.event.Event;
 import org.osgi.util.tracker.ServiceTracker;
@@ -37,6 +49,9 @@ public class OSGIKillbillEventDispatcher extends OSGIKillbillLibraryBase {
 
     private static final String OBSERVABLE_SERVICE_NAME = "java.util.Observable";
 
+    private static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    private static final long DEFAULT_MAX_BATCH_DELAY_MILLIS = 1000;
+
     private final ServiceTracker<Observable, Observable> observableTracker;
 
     private final Map<Object, Observer> handlerToObserver;
@@ -69,55 +84,46 @@ public class OSGIKillbillEventDispatcher extends OSGIKillbillLibraryBase {
     // the underlying mechanism is the same (classloader magic, and registerEventHandler call).
     //
     // The only difference is the handler method along with its events that needs to be called which are
-    // implemented in the private methods handleKillbillEvent and handleOSGIStartEvent below
+    // implemented in HandlerObserver below
     //
     private void registerEventHandler(final OSGIHandlerMarker handlerOfSomeType) {
-        final Observer observer = new Observer() {
-
-            @Override
-            public void update(final Observable o, final Object arg) {
-
-                final ClassLoader initialContextClassLoader = Thread.currentThread().getContextClassLoader();
-                Thread.currentThread().setContextClassLoader(handlerOfSomeType.getClass().getClassLoader());
-                try {
-                    if (handlerOfSomeType instanceof OSGIKillbillEventHandler) {
-                        handleKillbillEvent((OSGIKillbillEventHandler) handlerOfSomeType, arg);
-                    } else if (handlerOfSomeType instanceof OSGIFrameworkEventHandler) {
-                        handleOSGIStartEvent((OSGIFrameworkEventHandler) handlerOfSomeType, arg);
-                    }
-                } finally {
-                    Thread.currentThread().setContextClassLoader(initialContextClassLoader);
-                }
-            }
-
-            private void handleKillbillEvent(final OSGIKillbillEventHandler handler, final Object arg) {
-                if (!(arg instanceof ExtBusEvent)) {
-                    logger.debug("OSGIKillbillEventDispatcher unexpected event type " + (arg != null ? arg.getClass() : "null"));
-                    return;
-                }
-                handler.handleKillbillEvent((ExtBusEvent) arg);
-            }
+        registerEventHandler(handlerOfSomeType, null, null);
+    }
 
-            private void handleOSGIStartEvent(final OSGIFrameworkEventHandler handler, final Object arg) {
-                if (!(arg instanceof Event)) {
-                    logger.debug("OSGIFrameworkEventHandler unexpected event type " + (arg != null ? arg.getClass() : "null"));
-                    return;
-                }
+    //
+    // Register a Kill Bill event handler only interested in specific event types (and optionally tenants): Kill Bill
+    // won't dispatch other events to it. A null set means no filtering.
+    //
+    public void registerEventHandler(final OSGIKillbillEventHandler handler,
+                                     @Nullable final Set<ExtBusEventType> eventTypes,
+                                     @Nullable final Set<UUID> tenantIds) {
+        registerEventHandler((OSGIHandlerMarker) handler, eventTypes, tenantIds);
+    }
 
-                final String topic = ((Event) arg).getTopic();
-                // Platform is up, all bundles/plugins have been started
-                if ("org/killbill/billing/osgi/lifecycle/STARTED".equals(topic)) {
-                    handler.started();
-                } else if (("org/killbill/billing/osgi/plugin/START_PLUGIN".equals(topic) || "org/killbill/billing/osgi/plugin/RESTART_PLUGIN".equals(topic))) {
+    //
+    // Register a Kill Bill event handler receiving events in batches of up to maxBatchSize events, dispatched
+    // at the latest maxBatchDelayMillis after the first event of the batch was received. If the handler fails, events are
+    // replayed one at a time (as singleton batches).
+    //
+    // Pending batches are only kept in memory, and the bus considers their events handled: they are lost if the node crashes.
+    //
+    public void registerBatchEventHandler(final OSGIKillbillBatchEventHandler handler,
+                                          final int maxBatchSize,
+                                          final long maxBatchDelayMillis,
+                                          @Nullable final Set<ExtBusEventType> eventTypes,
+                                          @Nullable final Set<UUID> tenantIds) {
+        registerEventHandler(handler, new BatchHandlerObserver(handler, eventTypes, tenantIds, maxBatchSize, maxBatchDelayMillis));
+    }
 
-                    final String symbolicNameProperty = (String) ((Event) arg).getProperty("symbolicName");
-                    // This specific plugin has been started/restarted
-                    if (symbolicNameProperty != null && symbolicNameProperty.equals(symbolicName)) {
-                        handler.started();
-                    }
-                }
-            }
-        };
+    private void registerEventHandler(final OSGIHandlerMarker handlerOfSomeType,
+                                      @Nullable final Set<ExtBusEventType> eventTypes,
+                                      @Nullable final Set<UUID> tenantIds) {
+        final Observer observer;
+        if (handlerOfSomeType instanceof OSGIKillbillBatchEventHandler) {
+            observer = new BatchHandlerObserver((OSGIKillbillBatchEventHandler) handlerOfSomeType, eventTypes, tenantIds, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_DELAY_MILLIS);
+        } else {
+            observer = new HandlerObserver(handlerOfSomeType, eventTypes, tenantIds);
+        }
         registerEventHandler(handlerOfSomeType, observer);
     }
 
@@ -169,6 +175,136 @@ public class OSGIKillbillEventDispatcher extends OSGIKillbillLibraryBase {
     }
 
 
+    private class HandlerObserver implements Observer, OSGIKillbillEventFilter {
+
+        private final OSGIHandlerMarker handlerOfSomeType;
+        // Null means no filtering
+        private final Set<ExtBusEventType> eventTypesFilter;
+        private final Set<UUID> tenantIdsFilter;
+
+        private HandlerObserver(final OSGIHandlerMarker handlerOfSomeType,
+                                @Nullable final Set<ExtBusEventType> eventTypes,
+                                @Nullable final Set<UUID> tenantIds) {
+            this.handlerOfSomeType = handlerOfSomeType;
+            this.eventTypesFilter = eventTypes == null ? null : Collections.unmodifiableSet(eventTypes.isEmpty() ? EnumSet.noneOf(ExtBusEventType.class) : EnumSet.copyOf(eventTypes));
+            this.tenantIdsFilter = tenantIds == null ? null : Collections.unmodifiableSet(new HashSet<UUID>(tenantIds));
+        }
+
+        @Override
+        public Set<ExtBusEventType> getEventTypes() {
+            return eventTypesFilter;
+        }
+
+        @Override
+        public Set<UUID> getTenantIds() {
+            return tenantIdsFilter;
+        }
+
+        @Override
+        public void update(final Observable o, final Object arg) {
+
+            final ClassLoader initialContextClassLoader = Thread.currentThread().getContextClassLoader();
+            Thread.currentThread().setContextClassLoader(handlerOfSomeType.getClass().getClassLoader());
+            try {
+                if (handlerOfSomeType instanceof OSGIKillbillEventHandler) {
+                    handleKillbillEvent((OSGIKillbillEventHandler) handlerOfSomeType, arg);
+                } else if (handlerOfSomeType instanceof OSGIKillbillBatchEventHandler) {
+                    handleKillbillEvents((OSGIKillbillBatchEventHandler) handlerOfSomeType, arg);
+                } else if (handlerOfSomeType instanceof OSGIFrameworkEventHandler) {
+                    handleOSGIStartEvent((OSGIFrameworkEventHandler) handlerOfSomeType, arg);
+                }
+            } finally {
+                Thread.currentThread().setContextClassLoader(initialContextClassLoader);
+            }
+        }
+
+        private void handleKillbillEvent(final OSGIKillbillEventHandler handler, final Object arg) {
+            if (!(arg instanceof ExtBusEvent)) {
+                logger.debug("OSGIKillbillEventDispatcher unexpected event type " + (arg != null ? arg.getClass() : "null"));
+                return;
+            }
+            final ExtBusEvent event = (ExtBusEvent) arg;
+            if (isFilteredOut(event)) {
+                return;
+            }
+            handler.handleKillbillEvent(event);
+        }
+
+        private void handleKillbillEvents(final OSGIKillbillBatchEventHandler handler, final Object arg) {
+            final List<ExtBusEvent> events = new ArrayList<ExtBusEvent>();
+            if (arg instanceof ExtBusEvent) {
+                // Single event (e.g. replay of a failed batch)
+                events.add((ExtBusEvent) arg);
+            } else if (arg instanceof List) {
+                for (final Object cur : (List<?>) arg) {
+                    if (cur instanceof ExtBusEvent) {
+                        events.add((ExtBusEvent) cur);
+                    }
+                }
+            } else {
+                logger.debug("OSGIKillbillEventDispatcher unexpected event type " + (arg != null ? arg.getClass() : "null"));
+                return;
+            }
+
+            events.removeIf(this::isFilteredOut);
+            if (!events.isEmpty()) {
+                handler.handleKillbillEvents(events);
+            }
+        }
+
+        // Kill Bill should already have filtered these out (see OSGIKillbillEventFilter), but be defensive
+        private boolean isFilteredOut(final ExtBusEvent event) {
+            return (eventTypesFilter != null && !eventTypesFilter.contains(event.getEventType())) ||
+                   (tenantIdsFilter != null && !tenantIdsFilter.contains(event.getTenantId()));
+        }
+
+        private void handleOSGIStartEvent(final OSGIFrameworkEventHandler handler, final Object arg) {
+            if (!(arg instanceof Event)) {
+                logger.debug("OSGIFrameworkEventHandler unexpected event type " + (arg != null ? arg.getClass() : "null"));
+                return;
+            }
+
+            final String topic = ((Event) arg).getTopic();
+            // Platform is up, all bundles/plugins have been started
+            if ("org/killbill/billing/osgi/lifecycle/STARTED".equals(topic)) {
+                handler.started();
+            } else if (("org/killbill/billing/osgi/plugin/START_PLUGIN".equals(topic) || "org/killbill/billing/osgi/plugin/RESTART_PLUGIN".equals(topic))) {
+
+                final String symbolicNameProperty = (String) ((Event) arg).getProperty("symbolicName");
+                // This specific plugin has been started/restarted
+                if (symbolicNameProperty != null && symbolicNameProperty.equals(symbolicName)) {
+                    handler.started();
+                }
+            }
+        }
+    }
+
+    private class BatchHandlerObserver extends HandlerObserver implements OSGIKillbillEventBatching {
+
+        private final int maxBatchSize;
+        private final long maxBatchDelayMillis;
+
+        private BatchHandlerObserver(final OSGIKillbillBatchEventHandler handler,
+                                     @Nullable final Set<ExtBusEventType> eventTypes,
+                                     @Nullable final Set<UUID> tenantIds,
+                                     final int maxBatchSize,
+                                     final long maxBatchDelayMillis) {
+            super(handler, eventTypes, tenantIds);
+            this.maxBatchSize = maxBatchSize;
+            this.maxBatchDelayMillis = maxBatchDelayMillis;
+        }
+
+        @Override
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        @Override
+        public long getMaxBatchDelayMillis() {
+            return maxBatchDelayMillis;
+        }
+    }
+
     public interface OSGIHandlerMarker {
     }
 
@@ -176,6 +312,10 @@ public class OSGIKillbillEventDispatcher extends OSGIKillbillLibraryBase {
         public void handleKillbillEvent(final ExtBusEvent killbillEvent);
     }
 
+    public interface OSGIKillbillBatchEventHandler extends OSGIHandlerMarker {
+        public void handleKillbillEvents(final List<ExtBusEvent> killbillEvents);
+    }
+
     public interface OSGIFrameworkEventHandler extends OSGIHandlerMarker {
         public void started();
     }
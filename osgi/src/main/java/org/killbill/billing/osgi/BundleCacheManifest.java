@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//
+// Keeps track of the plugin jars the bundles in the (warm) OSGI cache were installed from, so that only the bundles
+// whose jar changed since the previous run are updated. Jars are identified by their size and modification time.
+//
+public class BundleCacheManifest {
+
+    private static final Logger logger = LoggerFactory.getLogger(BundleCacheManifest.class);
+
+    private final File manifestFile;
+    // Bundle location to jar fingerprint
+    private final Map<String, String> fingerprints = new ConcurrentHashMap<String, String>();
+
+    public BundleCacheManifest(final File manifestFile) {
+        this.manifestFile = manifestFile;
+    }
+
+    public void load() {
+        fingerprints.clear();
+        if (!manifestFile.isFile()) {
+            return;
+        }
+
+        final Properties properties = new Properties();
+        try (final InputStream inputStream = new FileInputStream(manifestFile)) {
+            properties.load(inputStream);
+        } catch (final IOException e) {
+            // Worst case, all cached bundles are updated
+            logger.warn("Unable to read OSGI cache manifest {}", manifestFile, e);
+            return;
+        }
+        for (final String location : properties.stringPropertyNames()) {
+            fingerprints.put(location, properties.getProperty(location));
+        }
+    }
+
+    public boolean isUpToDate(final String location, final File jar) {
+        return getFingerprint(jar).equals(fingerprints.get(location));
+    }
+
+    public void record(final String location, final File jar) {
+        fingerprints.put(location, getFingerprint(jar));
+    }
+
+    public void retainAll(final Collection<String> locations) {
+        fingerprints.keySet().retainAll(locations);
+    }
+
+    public void save() {
+        final Properties properties = new Properties();
+        properties.putAll(fingerprints);
+
+        final File parent = manifestFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            logger.warn("Unable to create directory {}", parent);
+            return;
+        }
+        try (final OutputStream outputStream = new FileOutputStream(manifestFile)) {
+            properties.store(outputStream, "Plugin jars installed in the OSGI cache");
+        } catch (final IOException e) {
+            logger.warn("Unable to write OSGI cache manifest {}", manifestFile, e);
+        }
+    }
+
+    private static String getFingerprint(final File jar) {
+        return jar.length() + ":" + jar.lastModified();
+    }
+}
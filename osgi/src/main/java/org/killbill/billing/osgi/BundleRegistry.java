@@ -19,12 +19,18 @@
 
 package org.killbill.billing.osgi;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
@@ -33,9 +39,14 @@ import jakarta.inject.Inject;
 import org.killbill.billing.osgi.api.DefaultPluginsInfoApi.DefaultPluginServiceInfo;
 import org.killbill.billing.osgi.api.OSGIServiceDescriptor;
 import org.killbill.billing.osgi.api.PluginServiceInfo;
+import org.killbill.billing.osgi.config.OSGIConfig;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.launch.Framework;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,17 +55,34 @@ public class BundleRegistry {
     private static final Logger log = LoggerFactory.getLogger(BundleRegistry.class);
 
     private final FileInstall fileInstall;
+    private final OSGIConfig osgiConfig;
+    private final KillbillEventObservable observable;
+    // Indexes of the registered bundles: writes go through register/unregister (under registryLock), reads are lock-free
     private final Map<String, BundleWithMetadata> registry;
+    private final Map<String, BundleWithMetadata> registryBySymbolicName;
+    private final Map<Long, BundleWithMetadata> registryByBundleId;
+    private final Object registryLock = new Object();
+    // Serializes the install/start and stop/uninstall of plugins at runtime
+    private final Object lifecycleLock = new Object();
 
     private Framework framework;
+    private volatile ServiceRestoreHandler serviceRestoreHandler;
 
     // We keep track of those to maintain the ordering on start, but probably we don't need to
     private List<BundleWithConfig> bundleWithConfigs;
 
     @Inject
-    public BundleRegistry(final FileInstall fileInstall) {
+    public BundleRegistry(final FileInstall fileInstall, final OSGIConfig osgiConfig, final KillbillEventObservable observable) {
         this.fileInstall = fileInstall;
-        this.registry = new HashMap<String, BundleWithMetadata>();
+        this.osgiConfig = osgiConfig;
+        this.observable = observable;
+        this.registry = new ConcurrentHashMap<String, BundleWithMetadata>();
+        this.registryBySymbolicName = new ConcurrentHashMap<String, BundleWithMetadata>();
+        this.registryByBundleId = new ConcurrentHashMap<Long, BundleWithMetadata>();
+    }
+
+    public void setServiceRestoreHandler(@Nullable final ServiceRestoreHandler serviceRestoreHandler) {
+        this.serviceRestoreHandler = serviceRestoreHandler;
     }
 
     public void installBundles(final Framework framework) {
@@ -62,33 +90,117 @@ public class BundleRegistry {
         this.framework = framework;
         bundleWithConfigs = fileInstall.installBundles(framework);
         for (final BundleWithConfig bundleWithConfig : bundleWithConfigs) {
-            registry.put(getPluginName(bundleWithConfig), new BundleWithMetadata(bundleWithConfig));
+            register(new BundleWithMetadata(bundleWithConfig));
         }
     }
 
     public BundleWithMetadata installAndStartNewBundle(final String pluginName, @Nullable final String pluginVersion) throws BundleException {
+        synchronized (lifecycleLock) {
+            final BundleWithMetadata bundle = registry.get(pluginName);
+            if (bundle != null) {
+                // We don't try to be too smart, we let the user first stop existing bundle if needed
+                throw new IllegalStateException(String.format("Plugin %s version %s cannot be started because the version %s already exists in the registry (state = %s)",
+                                                              bundle.getPluginName(), pluginVersion, bundle.getVersion(), bundle.getBundle().getState()));
+            }
+            final BundleWithConfig bundleWithConfig = fileInstall.installNewBundle(pluginName, pluginVersion, framework);
+            final BundleWithMetadata bundleWithMetadata = new BundleWithMetadata(bundleWithConfig);
+            // Registered first, so that the services registered by the activator are tracked
+            register(bundleWithMetadata);
+            final long startTime = System.nanoTime();
+            if (fileInstall.startBundle(bundleWithConfig.getBundle())) {
+                bundleWithMetadata.setStartDurationMillis((System.nanoTime() - startTime) / 1000000);
+            } else {
+                unregister(getPluginName(bundleWithConfig));
+            }
+            return bundleWithMetadata;
+        }
+    }
 
-        final BundleWithMetadata bundle = registry.get(pluginName);
-        if (bundle != null) {
-            // We don't try to be too smart, we let the user first stop existing bundle if needed
-            throw new IllegalStateException(String.format("Plugin %s version %s cannot be started because the version %s already exists in the registry (state = %s)",
-                                                          bundle.getPluginName(), pluginVersion, bundle.getVersion(), bundle.getBundle().getState()));
+    public BundleWithMetadata stopAndUninstallNewBundle(final String pluginName, @Nullable final String pluginVersion) throws BundleException {
+        synchronized (lifecycleLock) {
+            final BundleWithMetadata bundle = registry.get(pluginName);
+            if (bundle != null && (pluginVersion == null || bundle.getVersion().equals(pluginVersion))) {
+                stopAndUninstallBundle(bundle.getBundle(), pluginName);
+            }
+            return bundle;
         }
-        final BundleWithConfig bundleWithConfig = fileInstall.installNewBundle(pluginName, pluginVersion, framework);
-        final BundleWithMetadata bundleWithMetadata = new BundleWithMetadata(bundleWithConfig);
-        if (fileInstall.startBundle(bundleWithConfig.getBundle())) {
-            registry.put(getPluginName(bundleWithConfig), bundleWithMetadata);
+    }
+
+    public BundleWithMetadata restartBundle(final String pluginName, @Nullable final String pluginVersion) throws BundleException {
+        if (!osgiConfig.isPluginRestartSwapEnabled()) {
+            stopAndUninstallNewBundle(pluginName, pluginVersion);
+            return installAndStartNewBundle(pluginName, pluginVersion);
+        }
+
+        synchronized (lifecycleLock) {
+            final BundleWithMetadata previousBundle = registry.get(pluginName);
+            if (previousBundle == null) {
+                return installAndStartNewBundle(pluginName, pluginVersion);
+            }
+
+            final BundleWithConfig bundleWithConfig = fileInstall.installNewBundle(pluginName, pluginVersion, framework);
+            if (bundleWithConfig == null) {
+                log.warn("Unable to install plugin {} version {}, keeping version {}", pluginName, pluginVersion, previousBundle.getVersion());
+                return previousBundle;
+            }
+            if (bundleWithConfig.getBundle().getBundleId() == previousBundle.getBundle().getBundleId()) {
+                // Same jar, the two can't run side by side
+                stopAndUninstallNewBundle(pluginName, null);
+                return installAndStartNewBundle(pluginName, pluginVersion);
+            }
+
+            // Start the new version side by side: its services replace the ones of the previous version as they get registered
+            final BundleWithMetadata bundleWithMetadata = new BundleWithMetadata(bundleWithConfig);
+            register(bundleWithMetadata);
+            final long startTime = System.nanoTime();
+            if (!fileInstall.startBundle(bundleWithConfig.getBundle())) {
+                log.warn("Unable to start plugin {} version {}, keeping version {}", pluginName, bundleWithMetadata.getVersion(), previousBundle.getVersion());
+                register(previousBundle);
+                bundleWithConfig.getBundle().uninstall();
+                // Services registered by the new version before it failed took over (and went away with) the ones of the previous version
+                restoreServices(previousBundle);
+                return previousBundle;
+            }
+            bundleWithMetadata.setStartDurationMillis((System.nanoTime() - startTime) / 1000000);
+
+            // The new version now handles the bus events: stop delivering them to the previous version right away,
+            // so that they aren't processed twice while draining
+            observable.deleteObservers(previousBundle.getBundle());
+
+            // Calls which entered the previous version before the swap
+            drainInFlightCalls(previousBundle);
+            log.info("Swapped plugin {} version {} for version {}", pluginName, previousBundle.getVersion(), bundleWithMetadata.getVersion());
+            if (previousBundle.getBundle().getState() == Bundle.ACTIVE) {
+                previousBundle.getBundle().stop();
+            }
+            previousBundle.getBundle().uninstall();
+            return bundleWithMetadata;
         }
-        return bundleWithMetadata;
     }
 
-    public BundleWithMetadata stopAndUninstallNewBundle(final String pluginName, @Nullable final String pluginVersion) throws BundleException {
+    private void restoreServices(final BundleWithMetadata bundleWithMetadata) {
+        final ServiceRestoreHandler handler = serviceRestoreHandler;
+        if (handler == null) {
+            log.warn("Unable to restore the services of plugin {} version {}: no restore handler configured", bundleWithMetadata.getPluginName(), bundleWithMetadata.getVersion());
+            return;
+        }
+        handler.restoreServices(bundleWithMetadata.getBundle());
+    }
 
-        final BundleWithMetadata bundle = registry.get(pluginName);
-        if (bundle != null && (pluginVersion == null || bundle.getVersion().equals(pluginVersion))) {
-            stopAndUninstallBundle(bundle.getBundle(), pluginName);
+    private void drainInFlightCalls(final BundleWithMetadata bundleWithMetadata) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(osgiConfig.getPluginRestartSwapDrainTimeout().getMillis());
+        while (bundleWithMetadata.getInFlightCalls().get() > 0) {
+            if (System.nanoTime() - deadline >= 0) {
+                log.warn("Stopping plugin {} version {} with {} in-flight calls", bundleWithMetadata.getPluginName(), bundleWithMetadata.getVersion(), bundleWithMetadata.getInFlightCalls().get());
+                return;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
         }
-        return bundle;
     }
 
     private void stopAndUninstallBundle(final Bundle bundle, final String pluginName) throws BundleException {
@@ -97,24 +209,145 @@ public class BundleRegistry {
         }
         // The spec says that uninstall should always succeed
         bundle.uninstall();
-        registry.remove(pluginName);
+        unregister(pluginName);
+    }
+
+    private void stopBundle(final Bundle bundle, final String pluginName) throws BundleException {
+        if (bundle.getState() == Bundle.ACTIVE) {
+            bundle.stop();
+        }
+        unregister(pluginName);
+    }
+
+    private void register(final BundleWithMetadata bundleWithMetadata) {
+        synchronized (registryLock) {
+            final BundleWithMetadata previous = registry.put(bundleWithMetadata.getPluginName(), bundleWithMetadata);
+            if (previous != null) {
+                removeFromIndexes(previous);
+            }
+            if (bundleWithMetadata.getBundle().getSymbolicName() != null) {
+                registryBySymbolicName.put(bundleWithMetadata.getBundle().getSymbolicName(), bundleWithMetadata);
+            }
+            registryByBundleId.put(bundleWithMetadata.getBundle().getBundleId(), bundleWithMetadata);
+        }
+    }
+
+    private void unregister(final String pluginName) {
+        synchronized (registryLock) {
+            final BundleWithMetadata previous = registry.remove(pluginName);
+            if (previous != null) {
+                removeFromIndexes(previous);
+            }
+        }
+    }
+
+    private void removeFromIndexes(final BundleWithMetadata bundleWithMetadata) {
+        // The entries might already point to another bundle
+        if (bundleWithMetadata.getBundle().getSymbolicName() != null) {
+            registryBySymbolicName.remove(bundleWithMetadata.getBundle().getSymbolicName(), bundleWithMetadata);
+        }
+        registryByBundleId.remove(bundleWithMetadata.getBundle().getBundleId(), bundleWithMetadata);
     }
 
     public void startBundles(final Iterable<String> mandatoryPlugins) throws Exception {
         final List<String> pluginsStarted = new LinkedList<>();
-        for (final BundleWithConfig bundleWithConfig : bundleWithConfigs) {
-            final boolean isBundleStarted = fileInstall.startBundle(bundleWithConfig.getBundle());
+        for (final List<BundleWithConfig> wave : getStartWaves()) {
+            final List<Callable<Long>> startTasks = new ArrayList<>(wave.size());
+            for (final BundleWithConfig bundleWithConfig : wave) {
+                startTasks.add(() -> {
+                    final long startTime = System.nanoTime();
+                    return fileInstall.startBundle(bundleWithConfig.getBundle()) ? (System.nanoTime() - startTime) / 1000000 : null;
+                });
+            }
+            final List<Long> startDurationsMillis = fileInstall.invokeAll(startTasks, "osgi-bundle-start");
+
+            for (int i = 0; i < wave.size(); i++) {
+                final String pluginName = getPluginName(wave.get(i));
+                final Long startDurationMillis = startDurationsMillis.get(i);
+                if (startDurationMillis != null) {
+                    pluginsStarted.add(pluginName);
+                    final BundleWithMetadata bundleWithMetadata = registry.get(pluginName);
+                    if (bundleWithMetadata != null) {
+                        bundleWithMetadata.setStartDurationMillis(startDurationMillis);
+                    }
+                } else {
+                    unregister(pluginName);
+                }
+            }
+        }
 
-            final String pluginName = getPluginName(bundleWithConfig);
-            if (isBundleStarted) {
-                pluginsStarted.add(pluginName);
-            } else {
-                registry.remove(pluginName);
+        checkIfMandatoryPluginsAreStarted(pluginsStarted, mandatoryPlugins);
+    }
+
+    //
+    // When bundles are started concurrently, a bundle is only started once all the (installed) bundles it imports packages from
+    // have been started, as their activator may register services the importer looks up on start.
+    // Otherwise, there is a single wave, with the bundles in install order.
+    //
+    private List<List<BundleWithConfig>> getStartWaves() {
+        final List<List<BundleWithConfig>> waves = new LinkedList<>();
+        if (osgiConfig.getBundleStartupParallelism() <= 1 || framework == null) {
+            waves.add(bundleWithConfigs);
+            return waves;
+        }
+
+        final Map<Bundle, Set<Bundle>> dependencies = getBundleDependencies();
+        final Set<Bundle> scheduledBundles = new HashSet<>();
+        List<BundleWithConfig> remaining = new LinkedList<>(bundleWithConfigs);
+        while (!remaining.isEmpty()) {
+            final List<BundleWithConfig> wave = new LinkedList<>();
+            final List<BundleWithConfig> nextRemaining = new LinkedList<>();
+            for (final BundleWithConfig bundleWithConfig : remaining) {
+                if (scheduledBundles.containsAll(dependencies.get(bundleWithConfig.getBundle()))) {
+                    wave.add(bundleWithConfig);
+                } else {
+                    nextRemaining.add(bundleWithConfig);
+                }
+            }
+
+            if (wave.isEmpty()) {
+                // Cyclic imports: start the rest together, as the framework would let us do
+                log.warn("Cyclic package dependencies between bundles {}, starting them concurrently", nextRemaining);
+                waves.add(nextRemaining);
+                break;
             }
 
+            for (final BundleWithConfig bundleWithConfig : wave) {
+                scheduledBundles.add(bundleWithConfig.getBundle());
+            }
+            waves.add(wave);
+            remaining = nextRemaining;
         }
 
-        checkIfMandatoryPluginsAreStarted(pluginsStarted, mandatoryPlugins);
+        log.info("Starting {} bundles in {} waves", bundleWithConfigs.size(), waves.size());
+        return waves;
+    }
+
+    // Map of installed bundle to the installed bundles it is wired to through Import-Package
+    private Map<Bundle, Set<Bundle>> getBundleDependencies() {
+        final Collection<Bundle> bundles = new HashSet<>();
+        for (final BundleWithConfig bundleWithConfig : bundleWithConfigs) {
+            bundles.add(bundleWithConfig.getBundle());
+        }
+
+        // Resolve everything upfront, so that the wiring is known. Bundles which can't be resolved will fail to start, as before
+        framework.adapt(FrameworkWiring.class).resolveBundles(bundles);
+
+        final Map<Bundle, Set<Bundle>> dependencies = new HashMap<>();
+        for (final Bundle bundle : bundles) {
+            final Set<Bundle> providers = new HashSet<>();
+            final BundleWiring wiring = bundle.adapt(BundleWiring.class);
+            if (wiring != null) {
+                for (final BundleWire wire : wiring.getRequiredWires(PackageNamespace.PACKAGE_NAMESPACE)) {
+                    final Bundle provider = wire.getProviderWiring().getBundle();
+                    if (provider != bundle && bundles.contains(provider)) {
+                        providers.add(provider);
+                    }
+                }
+            }
+            dependencies.put(bundle, providers);
+        }
+        return dependencies;
     }
 
     private void checkIfMandatoryPluginsAreStarted(final List<String> pluginsStarted, final Iterable<String> mandatoryPlugins) throws Exception {
@@ -139,7 +372,12 @@ public class BundleRegistry {
         for (final BundleWithConfig bundleWithConfig : bundleWithConfigs) {
             try {
                 if (bundleWithConfig.getBundle() != null && bundleWithConfig.getConfig() != null) {
-                    stopAndUninstallBundle(bundleWithConfig.getBundle(), bundleWithConfig.getConfig().getPluginName());
+                    if (osgiConfig.isOSGIBundleCacheWarmStartEnabled()) {
+                        // Keep the bundle in the cache for the next start
+                        stopBundle(bundleWithConfig.getBundle(), bundleWithConfig.getConfig().getPluginName());
+                    } else {
+                        stopAndUninstallBundle(bundleWithConfig.getBundle(), bundleWithConfig.getConfig().getPluginName());
+                    }
                 }
             } catch (final BundleException e) {
                 log.warn("Unable to stop bundle", e);
@@ -158,27 +396,45 @@ public class BundleRegistry {
     }
 
     public String getPluginName(final Bundle bundle) {
-        for (final BundleWithMetadata cur : registry.values()) {
-            if (bundle.getSymbolicName().equals(cur.getBundle().getSymbolicName())) {
-                return getPluginName(cur);
-            }
+        BundleWithMetadata cur = registryByBundleId.get(bundle.getBundleId());
+        if (cur == null && bundle.getSymbolicName() != null) {
+            cur = registryBySymbolicName.get(bundle.getSymbolicName());
+        }
+        return cur != null ? getPluginName(cur) : bundle.getSymbolicName();
+    }
+
+    // Null if the bundle isn't registered
+    public AtomicInteger getInFlightCalls(final Bundle bundle) {
+        final BundleWithMetadata cur = registryByBundleId.get(bundle.getBundleId());
+        return cur != null ? cur.getInFlightCalls() : null;
+    }
+
+    public void registerService(final Bundle bundle, final OSGIServiceDescriptor desc, final String serviceName) {
+        // By bundle id, as two versions of the plugin can be running while being swapped
+        final BundleWithMetadata cur = registryByBundleId.get(bundle.getBundleId());
+        if (cur != null) {
+            cur.register(desc.getRegistrationName(), serviceName);
+        }
+    }
+
+    public void unregisterService(final Bundle bundle, final OSGIServiceDescriptor desc, final String serviceName) {
+        final BundleWithMetadata cur = registryByBundleId.get(bundle.getBundleId());
+        if (cur != null) {
+            cur.unregister(desc.getRegistrationName(), serviceName);
         }
-        return bundle.getSymbolicName();
     }
 
     public void registerService(final OSGIServiceDescriptor desc, final String serviceName) {
-        for (final BundleWithMetadata cur : registry.values()) {
-            if (desc.getPluginSymbolicName().equals(cur.getBundle().getSymbolicName())) {
-                cur.register(desc.getRegistrationName(), serviceName);
-            }
+        final BundleWithMetadata cur = registryBySymbolicName.get(desc.getPluginSymbolicName());
+        if (cur != null) {
+            cur.register(desc.getRegistrationName(), serviceName);
         }
     }
 
     public void unregisterService(final OSGIServiceDescriptor desc, final String serviceName) {
-        for (final BundleWithMetadata cur : registry.values()) {
-            if (desc.getPluginSymbolicName().equals(cur.getBundle().getSymbolicName())) {
-                cur.unregister(desc.getRegistrationName(), serviceName);
-            }
+        final BundleWithMetadata cur = registryBySymbolicName.get(desc.getPluginSymbolicName());
+        if (cur != null) {
+            cur.unregister(desc.getRegistrationName(), serviceName);
         }
     }
 
@@ -190,9 +446,14 @@ public class BundleRegistry {
 
         private final Set<PluginServiceInfo> serviceNames;
 
+        private volatile Long startDurationMillis;
+        // Calls currently in the plugin services, only tracked when plugins can be swapped
+        private final AtomicInteger inFlightCalls = new AtomicInteger();
+
         public BundleWithMetadata(final BundleWithConfig bundleWithConfig) {
             super(bundleWithConfig.getBundle(), bundleWithConfig.getConfig());
-            serviceNames = new HashSet<>();
+            // Updated from the OSGI service listener
+            serviceNames = ConcurrentHashMap.newKeySet();
         }
 
         public String getPluginName() {
@@ -214,6 +475,27 @@ public class BundleRegistry {
         public Set<PluginServiceInfo> getServiceNames() {
             return new HashSet<>(serviceNames);
         }
+
+        // Null if the bundle hasn't been started
+        public Long getStartDurationMillis() {
+            return startDurationMillis;
+        }
+
+        void setStartDurationMillis(final Long startDurationMillis) {
+            this.startDurationMillis = startDurationMillis;
+        }
+
+        AtomicInteger getInFlightCalls() {
+            return inFlightCalls;
+        }
     }
 
+    public interface ServiceRestoreHandler {
+
+        //
+        // Register again the services of the bundle which aren't in use anymore (e.g. replaced by the ones of a newer version
+        // of the plugin, since gone)
+        //
+        public void restoreServices(Bundle bundle);
+    }
 }
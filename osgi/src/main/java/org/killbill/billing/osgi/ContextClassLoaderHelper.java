@@ -22,11 +22,12 @@ package org.killbill.billing.osgi;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 
@@ -37,8 +38,6 @@ import org.killbill.commons.profiling.Profiling;
 import org.killbill.commons.profiling.Profiling.WithProfilingCallback;
 import org.killbill.commons.profiling.ProfilingFeature.ProfilingFeatureType;
 import org.killbill.commons.utils.Joiner;
-import org.killbill.commons.utils.cache.Cache;
-import org.killbill.commons.utils.cache.CacheBuilder;
 import org.killbill.commons.utils.reflect.AbstractInvocationHandler;
 
 public class ContextClassLoaderHelper {
@@ -63,14 +62,40 @@ public class ContextClassLoaderHelper {
 
     */
 
-    @SuppressWarnings("unchecked")
     public static <T> T getWrappedServiceWithCorrectContextClassLoader(final T service, final Class<T> serviceType, final String serviceName, @Nullable final MetricRegistry metricRegistry) {
+        return getWrappedServiceWithCorrectContextClassLoader(service, serviceType, serviceName, metricRegistry, null);
+    }
+
+    //
+    // When a bulkhead is specified, calls go through it before entering the plugin (see PluginBulkhead)
+    //
+    @SuppressWarnings("unchecked")
+    public static <T> T getWrappedServiceWithCorrectContextClassLoader(final T service,
+                                                                       final Class<T> serviceType,
+                                                                       final String serviceName,
+                                                                       @Nullable final MetricRegistry metricRegistry,
+                                                                       @Nullable final PluginBulkhead bulkhead) {
+        return getWrappedServiceWithCorrectContextClassLoader(service, serviceType, serviceName, metricRegistry, bulkhead, null);
+    }
+
+    //
+    // When an in-flight calls counter is specified, it tracks the calls currently in the plugin (e.g. to drain them before stopping it)
+    //
+    @SuppressWarnings("unchecked")
+    public static <T> T getWrappedServiceWithCorrectContextClassLoader(final T service,
+                                                                       final Class<T> serviceType,
+                                                                       final String serviceName,
+                                                                       @Nullable final MetricRegistry metricRegistry,
+                                                                       @Nullable final PluginBulkhead bulkhead,
+                                                                       @Nullable final AtomicInteger inFlightCalls) {
 
         final Class<T> serviceClass = (Class<T>) service.getClass();
         final List<Class<?>> allServiceInterfaces = getAllInterfaces(serviceClass);
         final Class<?>[] serviceClassInterfaces = allServiceInterfaces.toArray(new Class[allServiceInterfaces.size()]);
 
-        final InvocationHandler handler = new ClassLoaderInvocationHandler<T>(service, serviceName, serviceType, metricRegistry);
+        final InvocationHandler pluginHandler = new ClassLoaderInvocationHandler<T>(service, serviceName, serviceType, serviceClassInterfaces, metricRegistry);
+        final InvocationHandler trackedHandler = inFlightCalls == null ? pluginHandler : new InFlightCallsInvocationHandler(pluginHandler, inFlightCalls);
+        final InvocationHandler handler = bulkhead == null ? trackedHandler : new BulkheadInvocationHandler(trackedHandler, bulkhead);
         return (T) Proxy.newProxyInstance(serviceClass.getClassLoader(),
                                           serviceClassInterfaces,
                                           handler);
@@ -101,92 +126,310 @@ public class ContextClassLoaderHelper {
         return list;
     }
 
+    private static final class InFlightCallsInvocationHandler implements InvocationHandler {
+
+        private final InvocationHandler delegate;
+        private final AtomicInteger inFlightCalls;
+
+        private InFlightCallsInvocationHandler(final InvocationHandler delegate, final AtomicInteger inFlightCalls) {
+            this.delegate = delegate;
+            this.inFlightCalls = inFlightCalls;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            inFlightCalls.incrementAndGet();
+            try {
+                return delegate.invoke(proxy, method, args);
+            } finally {
+                inFlightCalls.decrementAndGet();
+            }
+        }
+    }
+
+    private static final class BulkheadInvocationHandler implements InvocationHandler {
+
+        private final InvocationHandler delegate;
+        private final PluginBulkhead bulkhead;
+
+        private BulkheadInvocationHandler(final InvocationHandler delegate, final PluginBulkhead bulkhead) {
+            this.delegate = delegate;
+            this.bulkhead = bulkhead;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            // equals, hashCode and toString don't enter the plugin
+            if (method.getDeclaringClass() == Object.class) {
+                return delegate.invoke(proxy, method, args);
+            }
+            return bulkhead.execute(method.getName(), () -> delegate.invoke(proxy, method, args));
+        }
+    }
+
     private static class ClassLoaderInvocationHandler<T> extends AbstractInvocationHandler {
 
-        private final String serviceName;
-        private final T service;
-        private final Class<?> serviceClass;
-        private final String serviceInterfaceName;
-        private final MetricRegistry metricRegistry;
+        // Stateless
+        private static final Profiling<Object, Throwable> PROFILING = new Profiling<>();
 
-        private Cache<String, Timer> timerMetricCache;
-        private Cache<String, Meter> errorMetricCache;
+        private final ClassLoader serviceClassLoader;
+        private final PluginMethods pluginMethods;
 
         public ClassLoaderInvocationHandler(final T service,
                                             final String serviceName,
                                             final Class<T> serviceInterface,
-                                            final MetricRegistry metricRegistry) {
-            this.service = service;
-            this.serviceName = serviceName;
+                                            final Class<?>[] serviceClassInterfaces,
+                                            @Nullable final MetricRegistry metricRegistry) {
+            this.serviceClassLoader = service.getClass().getClassLoader();
             // Don't instrument the MetricRegistry itself to avoid infinite recursion
-            this.metricRegistry = serviceInterface == MetricRegistry.class ? null : metricRegistry;
-
-            this.serviceClass = service.getClass();
-            this.serviceInterfaceName = serviceInterface.getSimpleName();
-
-            if (this.metricRegistry != null) {
-                initializeMetricCaches();
-            }
+            this.pluginMethods = new PluginMethods(service,
+                                                   serviceClassInterfaces,
+                                                   serviceName,
+                                                   serviceInterface.getSimpleName(),
+                                                   serviceInterface == MetricRegistry.class ? null : metricRegistry);
         }
 
         @Override
         protected Object handleInvocation(final Object proxy, final Method method, final Object[] args) throws Throwable {
-            final ClassLoader initialContextClassLoader = Thread.currentThread().getContextClassLoader();
+            final PluginMethod pluginMethod = pluginMethods.get(method);
+
+            final Thread currentThread = Thread.currentThread();
+            final ClassLoader initialContextClassLoader = currentThread.getContextClassLoader();
             final long start = System.nanoTime();
             try {
-                Thread.currentThread().setContextClassLoader(serviceClass.getClassLoader());
-                final String methodName = method.getName();
-
-                final Profiling<Object, Throwable> prof = new Profiling<>();
-                final String profilingId = serviceInterfaceName + "." + methodName;
-                return prof.executeWithProfiling(ProfilingFeatureType.PLUGIN, profilingId, new WithProfilingCallback<>() {
+                currentThread.setContextClassLoader(serviceClassLoader);
+                // Profiling is only enabled on demand, per request: don't allocate the callback otherwise
+                if (Profiling.getPerThreadProfilingData() == null) {
+                    return pluginMethod.invoke(args);
+                }
+                return PROFILING.executeWithProfiling(ProfilingFeatureType.PLUGIN, pluginMethod.profilingId, new WithProfilingCallback<>() {
                     @Override
                     public Object execute() throws Throwable {
-                        return method.invoke(service, args);
+                        return pluginMethod.invoke(args);
                     }
                 });
-            } catch (final InvocationTargetException e) {
-                final Optional<Meter> errors = errorMeter(method);
-                errors.ifPresent(meter -> meter.mark(1));
-                if (e.getCause() != null) {
-                    throw e.getCause();
-                } else {
-                    throw new RuntimeException(e);
-                }
+            } catch (final Throwable e) {
+                pluginMethod.markError();
+                throw e;
             } finally {
-                final Optional<Timer> times = timer(method);
-                times.ifPresent(timer -> timer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS));
-                Thread.currentThread().setContextClassLoader(initialContextClassLoader);
+                pluginMethod.updateTimer(System.nanoTime() - start);
+                currentThread.setContextClassLoader(initialContextClassLoader);
+            }
+        }
+    }
+
+    //
+    // Profiling id and metrics of each method of a service, resolved when the proxy is created (metrics are
+    // only registered on the first call of the method though, to not expose metrics for methods never called).
+    //
+    // Lookups are keyed by Method identity: the proxy class hands over its own Method instances (one per method, the same
+    // on every call), so once a method has been seen, finding its metadata is a couple of array reads (no hashing of the
+    // name, no allocation). These aren't the instances returned by getMethods() here, so the identity table starts empty:
+    // a method is matched by equals on its first call (slow path) and its instance is then added to the table.
+    //
+    private static final class PluginMethods {
+
+        private final Object service;
+        private final String serviceName;
+        private final String serviceInterfaceName;
+        // Null if the service isn't instrumented
+        private final MetricRegistry metricRegistry;
+
+        private final Method[] methods;
+        private final PluginMethod[] pluginMethods;
+
+        // Copy-on-write, only modified under this lock
+        private volatile IdentityIndex identityIndex;
+
+        private PluginMethods(final Object service,
+                              final Class<?>[] serviceClassInterfaces,
+                              final String serviceName,
+                              final String serviceInterfaceName,
+                              @Nullable final MetricRegistry metricRegistry) {
+            this.service = service;
+            this.serviceName = serviceName;
+            this.serviceInterfaceName = serviceInterfaceName;
+            this.metricRegistry = metricRegistry;
+
+            final List<Method> allMethods = new ArrayList<>();
+            for (final Class<?> serviceClassInterface : serviceClassInterfaces) {
+                for (final Method method : serviceClassInterface.getMethods()) {
+                    if (!Modifier.isStatic(method.getModifiers())) {
+                        allMethods.add(method);
+                    }
+                }
+            }
+
+            this.methods = allMethods.toArray(new Method[0]);
+            this.pluginMethods = new PluginMethod[methods.length];
+            for (int i = 0; i < methods.length; i++) {
+                pluginMethods[i] = createPluginMethod(methods[i]);
+            }
+            this.identityIndex = new IdentityIndex(0);
+        }
+
+        private PluginMethod get(final Method method) {
+            int index = identityIndex.get(method);
+            if (index < 0) {
+                index = register(method);
+            }
+            // Not part of the service interfaces (shouldn't happen, as the proxy implements these only)
+            return index >= 0 ? pluginMethods[index] : createPluginMethod(method);
+        }
+
+        private synchronized int register(final Method method) {
+            final IdentityIndex current = identityIndex;
+            int index = current.get(method);
+            if (index >= 0) {
+                return index;
+            }
+
+            for (int i = 0; i < methods.length; i++) {
+                if (methods[i].equals(method)) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return -1;
+            }
+
+            identityIndex = current.with(method, index);
+            return index;
+        }
+
+        private PluginMethod createPluginMethod(final Method method) {
+            final String methodName = method.getName();
+            // Overloaded methods share their metrics, the registry returns the same instances for a given name
+            return new PluginMethod(service,
+                                    method,
+                                    serviceInterfaceName + "." + methodName,
+                                    metricRegistry,
+                                    DOT_JOINER.join("killbill-service", "kb_plugin_latency", serviceName, serviceInterfaceName, methodName),
+                                    DOT_JOINER.join("killbill-service", "kb_plugin_errors", serviceName, serviceInterfaceName, methodName));
+        }
+    }
+
+    private static final class PluginMethod {
+
+        private final Object service;
+        private final Method method;
+        private final String profilingId;
+        // Null if the service isn't instrumented
+        private final MetricRegistry metricRegistry;
+        private final String timerName;
+        private final String errorMeterName;
+
+        // Lazily registered: racing threads get the same instances from the registry
+        private volatile Timer timer;
+        private volatile Meter errorMeter;
+
+        private PluginMethod(final Object service,
+                             final Method method,
+                             final String profilingId,
+                             @Nullable final MetricRegistry metricRegistry,
+                             final String timerName,
+                             final String errorMeterName) {
+            this.service = service;
+            this.method = method;
+            this.profilingId = profilingId;
+            this.metricRegistry = metricRegistry;
+            this.timerName = timerName;
+            this.errorMeterName = errorMeterName;
+        }
+
+        // Exceptions thrown by the plugin are propagated as-is
+        private Object invoke(final Object[] args) throws Throwable {
+            try {
+                return method.invoke(service, args);
+            } catch (final InvocationTargetException e) {
+                throw e.getCause() != null ? e.getCause() : new RuntimeException(e);
             }
         }
 
-        private Optional<Timer> timer(final Method method) {
-            return timerMetricCache == null ? Optional.empty() : Optional.of(timerMetricCache.get(method.getName()));
+        private void updateTimer(final long durationNanos) {
+            if (metricRegistry == null) {
+                return;
+            }
+
+            Timer timer = this.timer;
+            if (timer == null) {
+                timer = metricRegistry.timer(timerName);
+                this.timer = timer;
+            }
+            timer.update(durationNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void markError() {
+            if (metricRegistry == null) {
+                return;
+            }
+
+            Meter errorMeter = this.errorMeter;
+            if (errorMeter == null) {
+                errorMeter = metricRegistry.meter(errorMeterName);
+                this.errorMeter = errorMeter;
+            }
+            errorMeter.mark(1);
         }
+    }
+
+    //
+    // Open addressing hash table, Method instance -> index. Load factor is kept at or below 1/2.
+    //
+    private static final class IdentityIndex {
+
+        private final Method[] keys;
+        private final int[] values;
+        private int size;
 
-        private Optional<Meter> errorMeter(final Method method) {
-            return errorMetricCache == null ? Optional.empty() : Optional.of(errorMetricCache.get(method.getName()));
+        private IdentityIndex(final int expectedSize) {
+            int capacity = 2;
+            while (capacity < 2 * Math.max(1, expectedSize)) {
+                capacity <<= 1;
+            }
+            this.keys = new Method[capacity];
+            this.values = new int[capacity];
         }
 
-        private void initializeMetricCaches() {
-            timerMetricCache = CacheBuilder.<String, Timer>newBuilder().build(methodName -> {
-                final String timerMetricName = DOT_JOINER.join("killbill-service",
-                                                               "kb_plugin_latency",
-                                                               serviceName,
-                                                               serviceInterfaceName,
-                                                               methodName);
+        private int get(final Method method) {
+            final int mask = keys.length - 1;
+            int slot = System.identityHashCode(method) & mask;
+            Method key;
+            while ((key = keys[slot]) != null) {
+                if (key == method) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
 
-                return metricRegistry.timer(timerMetricName);
-            });
-            errorMetricCache = CacheBuilder.<String, Meter>newBuilder().build(methodName -> {
-                final String counterMetricName = DOT_JOINER.join("killbill-service",
-                                                                 "kb_plugin_errors",
-                                                                 serviceName,
-                                                                 serviceInterfaceName,
-                                                                 methodName);
+        private void put(final Method method, final int value) {
+            final int mask = keys.length - 1;
+            int slot = System.identityHashCode(method) & mask;
+            while (keys[slot] != null) {
+                if (keys[slot] == method) {
+                    values[slot] = value;
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = method;
+            values[slot] = value;
+            size++;
+        }
 
-                return metricRegistry.meter(counterMetricName);
-            });
+        // Copy, to publish it safely
+        private IdentityIndex with(final Method method, final int value) {
+            final IdentityIndex copy = new IdentityIndex(size + 1);
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null) {
+                    copy.put(keys[i], values[i]);
+                }
+            }
+            copy.put(method, value);
+            return copy;
         }
     }
 }
@@ -37,6 +37,7 @@ import org.killbill.billing.platform.api.LifecycleHandlerType;
 import org.killbill.billing.platform.api.OSGIService;
 import org.killbill.bus.api.PersistentBus;
 import org.killbill.bus.api.PersistentBus.EventBusException;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.launch.Framework;
@@ -82,11 +83,16 @@ public class DefaultOSGIService implements OSGIService {
     @LifecycleHandlerType(LifecycleHandlerType.LifecycleLevel.INIT_PLUGIN)
     public void initialize() {
         try {
-            // We start by deleting existing osi cache; we might optimize later keeping the cache
-            pruneOSGICache();
+            if (!osgiConfig.isOSGIBundleCacheWarmStartEnabled()) {
+                // We start by deleting existing osgi cache
+                pruneOSGICache();
+            }
 
             // Create the system bundle for killbill and start the framework
             this.framework = createAndInitFramework();
+            if (osgiConfig.isOSGIBundleCacheWarmStartEnabled()) {
+                disableAutoStartOfCachedBundles();
+            }
             framework.start();
             bundleRegistry.installBundles(framework);
 
@@ -172,6 +178,21 @@ public class DefaultOSGIService implements OSGIService {
         return felix;
     }
 
+    // Bundles restored from the cache would otherwise be started by the framework itself, before START_PLUGIN
+    private void disableAutoStartOfCachedBundles() {
+        for (final Bundle bundle : framework.getBundleContext().getBundles()) {
+            if (bundle.getBundleId() == 0) {
+                continue;
+            }
+            try {
+                // Not transient: this clears the persistent autostart setting of the (not yet started) bundle
+                bundle.stop();
+            } catch (final BundleException e) {
+                logger.warn("Unable to disable autostart of cached bundle {}", bundle.getLocation(), e);
+            }
+        }
+    }
+
     private void pruneOSGICache() {
         final String path = osgiConfig.getOSGIBundleRootDir();
         deleteUnderDirectory(new File(path));
@@ -19,9 +19,17 @@
 
 package org.killbill.billing.osgi;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
@@ -33,9 +41,12 @@ import org.killbill.billing.osgi.api.config.PluginConfigServiceApi;
 import org.killbill.billing.osgi.api.config.PluginJavaConfig;
 import org.killbill.billing.osgi.api.config.PluginLanguage;
 import org.killbill.billing.osgi.api.config.PluginRubyConfig;
+import org.killbill.billing.osgi.config.OSGIConfig;
 import org.killbill.billing.osgi.pluginconf.DefaultPluginConfigServiceApi;
 import org.killbill.billing.osgi.pluginconf.PluginConfigException;
 import org.killbill.billing.osgi.pluginconf.PluginFinder;
+import org.killbill.billing.platform.trace.BootTrace;
+import org.killbill.commons.concurrent.Executors;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleException;
@@ -52,40 +63,84 @@ public class FileInstall {
     private final PureOSGIBundleFinder osgiBundleFinder;
     private final PluginFinder pluginFinder;
     private final PluginConfigServiceApi pluginConfigServiceApi;
+    private final OSGIConfig osgiConfig;
+    // Only when the OSGI cache is kept across restarts
+    private final BundleCacheManifest bundleCacheManifest;
 
     @Inject
-    public FileInstall(final PureOSGIBundleFinder osgiBundleFinder, final PluginFinder pluginFinder, final KillbillNodesApiHolder nodesApiHolder, final PluginConfigServiceApi pluginConfigServiceApi) {
+    public FileInstall(final PureOSGIBundleFinder osgiBundleFinder, final PluginFinder pluginFinder, final KillbillNodesApiHolder nodesApiHolder, final PluginConfigServiceApi pluginConfigServiceApi, final OSGIConfig osgiConfig) {
         this.osgiBundleFinder = osgiBundleFinder;
         this.pluginFinder = pluginFinder;
         this.pluginConfigServiceApi = pluginConfigServiceApi;
+        this.osgiConfig = osgiConfig;
+        this.bundleCacheManifest = osgiConfig.isOSGIBundleCacheWarmStartEnabled() ?
+                                   new BundleCacheManifest(new File(osgiConfig.getOSGIBundleRootDir(), osgiConfig.getOSGIBundleCacheName() + ".manifest")) :
+                                   null;
     }
 
     public List<BundleWithConfig> installBundles(final Framework framework) {
 
-        final List<BundleWithConfig> installedBundles = new LinkedList<BundleWithConfig>();
+        // Jars are independent from each other at install time (wiring only happens on resolve), so they can be installed concurrently
+        final List<Callable<BundleWithConfig>> installTasks = new LinkedList<Callable<BundleWithConfig>>();
+        final BundleContext context = framework.getBundleContext();
+        if (bundleCacheManifest != null) {
+            bundleCacheManifest.load();
+        }
         try {
 
-            final BundleContext context = framework.getBundleContext();
-
             // Install all bundles and create service mapping
-            installAllOSGIBundles(context, installedBundles);
-            installAllJavaPluginBundles(context, installedBundles);
+            installAllOSGIBundles(context, installTasks);
+            installAllJavaPluginBundles(context, installTasks);
         } catch (final PluginConfigException e) {
             logger.error("Error while parsing plugin configurations", e);
-        } catch (final BundleException e) {
-            logger.error("Error while parsing plugin configurations", e);
         } catch (final IOException e) {
             logger.error("Error while parsing plugin configurations", e);
         }
+
+        final List<BundleWithConfig> installedBundles = new LinkedList<BundleWithConfig>();
+        for (final BundleWithConfig bundleWithConfig : invokeAll(installTasks, "osgi-bundle-install")) {
+            if (bundleWithConfig != null) {
+                installedBundles.add(bundleWithConfig);
+            }
+        }
+
+        if (bundleCacheManifest != null) {
+            uninstallStaleCachedBundles(context, installedBundles);
+        }
         return installedBundles;
     }
 
+    // Bundles from the previous run whose plugin (version) is gone
+    private void uninstallStaleCachedBundles(final BundleContext context, final Iterable<BundleWithConfig> installedBundles) {
+        final Set<String> locations = new HashSet<String>();
+        for (final BundleWithConfig bundleWithConfig : installedBundles) {
+            locations.add(bundleWithConfig.getBundle().getLocation());
+        }
+
+        for (final Bundle bundle : context.getBundles()) {
+            if (bundle.getBundleId() != 0 && !locations.contains(bundle.getLocation())) {
+                logger.info("Uninstalling stale cached bundle {}", bundle.getLocation());
+                try {
+                    bundle.uninstall();
+                } catch (final BundleException e) {
+                    logger.warn("Unable to uninstall stale cached bundle {}", bundle.getLocation(), e);
+                }
+            }
+        }
+
+        bundleCacheManifest.retainAll(locations);
+        bundleCacheManifest.save();
+    }
+
     public BundleWithConfig installNewBundle(final String pluginName, @Nullable final String version, final Framework framework) {
         try {
             // Handle pure OSGI bundle case
             final String osgiBundlePath = osgiBundleFinder.getOSGIPath(pluginName);
             if (osgiBundlePath != null) {
                 final Bundle bundle = installOSGIBundle(framework.getBundleContext(), osgiBundlePath);
+                if (bundleCacheManifest != null) {
+                    bundleCacheManifest.save();
+                }
                 return new BundleWithConfig(bundle, null);
             }
 
@@ -96,6 +151,9 @@ public class FileInstall {
             }
 
             final Bundle bundle = installBundle(configs.get(0), framework.getBundleContext(), configs.get(0).getPluginLanguage());
+            if (bundleCacheManifest != null) {
+                bundleCacheManifest.save();
+            }
             return new BundleWithConfig(bundle, configs.get(0));
         } catch (final PluginConfigException e) {
             logger.error("Error while installing plugin " + pluginName, e);
@@ -108,15 +166,18 @@ public class FileInstall {
     }
 
 
-    private void installAllOSGIBundles(final BundleContext context, final List<BundleWithConfig> installedBundles) throws PluginConfigException, BundleException {
+    private void installAllOSGIBundles(final BundleContext context, final List<Callable<BundleWithConfig>> installTasks) throws PluginConfigException {
         final List<String> bundleJarPaths = osgiBundleFinder.getLatestBundles();
         for (final String cur : bundleJarPaths) {
-            try {
-                final Bundle bundle = installOSGIBundle(context, cur);
-                installedBundles.add(new BundleWithConfig(bundle, null));
-            } catch (final BundleException e) {
-                logger.error("Error while installing bundle {}, ignoring", cur, e);
-            }
+            installTasks.add(() -> {
+                try {
+                    final Bundle bundle = installOSGIBundle(context, cur);
+                    return new BundleWithConfig(bundle, null);
+                } catch (final BundleException e) {
+                    logger.error("Error while installing bundle {}, ignoring", cur, e);
+                    return null;
+                }
+            });
         }
     }
 
@@ -124,16 +185,23 @@ public class FileInstall {
 
         logger.info("Installing Java OSGI bundle from {}", path);
 
-        final Bundle bundle = context.installBundle("file:" + path);
+        final Bundle bundle = installOrUpdateBundle(context, path);
         osgiBundleFinder.recordMappingPluginNameToPath(bundle.getSymbolicName(), path);
         return bundle;
     }
 
-    private void installAllJavaPluginBundles(final BundleContext context, final List<BundleWithConfig> installedBundles) throws PluginConfigException, BundleException, IOException {
+    private void installAllJavaPluginBundles(final BundleContext context, final List<Callable<BundleWithConfig>> installTasks) throws PluginConfigException, IOException {
         final List<PluginJavaConfig> pluginJavaConfigs = pluginFinder.getLatestJavaPlugins();
         for (final PluginJavaConfig cur : pluginJavaConfigs) {
-            final Bundle bundle = installBundle(cur, context, PluginLanguage.JAVA);
-            installedBundles.add(new BundleWithConfig(bundle, cur));
+            installTasks.add(() -> {
+                try {
+                    final Bundle bundle = installBundle(cur, context, PluginLanguage.JAVA);
+                    return new BundleWithConfig(bundle, cur);
+                } catch (final BundleException e) {
+                    logger.error("Error while installing plugin {}, ignoring", cur.getPluginName(), e);
+                    return null;
+                }
+            });
         }
     }
 
@@ -144,10 +212,13 @@ public class FileInstall {
             case JAVA:
                 final PluginJavaConfig javaConfig = (PluginJavaConfig) config;
                 final String location = "file:" + javaConfig.getBundleJarPath();
-                bundle = context.getBundle(location);
-                if (bundle == null) {
+                final boolean installed = context.getBundle(location) != null;
+                if (!installed) {
                     logger.info("Installing Java bundle for plugin {} from {}", javaConfig.getPluginName(), javaConfig.getBundleJarPath());
-                    bundle = context.installBundle(location);
+                }
+                bundle = installOrUpdateBundle(context, javaConfig.getBundleJarPath());
+                // Bundles restored from the OSGI cache need to be registered as well
+                if (!installed || bundleCacheManifest != null) {
                     ((DefaultPluginConfigServiceApi) pluginConfigServiceApi).registerBundle(bundle.getBundleId(), javaConfig);
                 }
                 break;
@@ -157,6 +228,25 @@ public class FileInstall {
         return bundle;
     }
 
+    private Bundle installOrUpdateBundle(final BundleContext context, final String jarPath) throws BundleException {
+        final String location = "file:" + jarPath;
+        Bundle bundle = context.getBundle(location);
+        try (final BootTrace.Span ignored = BootTrace.start(BootTrace.CATEGORY_OSGI, "install:" + location)) {
+            if (bundle == null) {
+                bundle = context.installBundle(location);
+            } else if (bundleCacheManifest != null && !bundleCacheManifest.isUpToDate(location, new File(jarPath))) {
+                // Restored from the OSGI cache, but the jar has changed since
+                logger.info("Updating cached bundle {}", location);
+                bundle.update();
+            }
+        }
+
+        if (bundleCacheManifest != null) {
+            bundleCacheManifest.record(location, new File(jarPath));
+        }
+        return bundle;
+    }
+
     public boolean startBundle(final Bundle bundle) {
         if (bundle.getState() == Bundle.UNINSTALLED) {
             logger.info("Skipping uninstalled bundle {}", bundle.getLocation());
@@ -165,8 +255,10 @@ public class FileInstall {
             logger.info("Skipping fragment bundle {}", bundle.getLocation());
         } else {
             logger.info("Starting bundle {}", bundle.getLocation());
-            try {
+            final long startTime = System.nanoTime();
+            try (final BootTrace.Span ignored = BootTrace.start(BootTrace.CATEGORY_OSGI, "start:" + bundle.getLocation())) {
                 bundle.start();
+                logger.info("Started bundle {} in {} ms", bundle.getLocation(), (System.nanoTime() - startTime) / 1000000);
                 return true;
             } catch (final BundleException e) {
                 logger.warn("Unable to start bundle", e);
@@ -175,6 +267,54 @@ public class FileInstall {
         return false;
     }
 
+    /**
+     * Run the tasks on up to org.killbill.osgi.bundle.startup.parallelism threads, and wait for all of them.
+     *
+     * @param tasks      tasks to run, which are expected to handle their own errors
+     * @param threadName name of the threads, if any
+     * @return the results, in the order of the tasks (null if a task failed unexpectedly)
+     */
+    <T> List<T> invokeAll(final List<Callable<T>> tasks, final String threadName) {
+        final List<T> results = new ArrayList<T>(tasks.size());
+        final int nbThreads = Math.min(osgiConfig.getBundleStartupParallelism(), tasks.size());
+        if (nbThreads <= 1) {
+            for (final Callable<T> task : tasks) {
+                results.add(call(task));
+            }
+            return results;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(nbThreads, threadName);
+        try {
+            final List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+            for (final Callable<T> task : tasks) {
+                futures.add(executor.submit(() -> call(task)));
+            }
+            for (final Future<T> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (final ExecutionException e) {
+                    results.add(null);
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while installing or starting bundles", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    private static <T> T call(final Callable<T> task) {
+        try {
+            return task.call();
+        } catch (final Exception e) {
+            logger.warn("Unexpected error while installing or starting bundles", e);
+            return null;
+        }
+    }
+
     /**
      * Check if a bundle is a fragment.
      *
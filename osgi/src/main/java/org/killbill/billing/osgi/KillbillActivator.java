@@ -20,11 +20,14 @@
 package org.killbill.billing.osgi;
 
 import java.util.Dictionary;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Observable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -40,6 +43,7 @@ import org.killbill.billing.currency.plugin.api.CurrencyPluginApi;
 import org.killbill.billing.entitlement.plugin.api.EntitlementPluginApi;
 import org.killbill.billing.invoice.plugin.api.InvoiceFormatterFactory;
 import org.killbill.billing.invoice.plugin.api.InvoicePluginApi;
+import org.killbill.billing.osgi.BundleRegistry.ServiceRestoreHandler;
 import org.killbill.billing.osgi.api.Healthcheck;
 import org.killbill.billing.osgi.api.OSGIConfigProperties;
 import org.killbill.billing.osgi.api.OSGIKillbill;
@@ -50,6 +54,7 @@ import org.killbill.billing.osgi.api.OSGIServiceRegistrable;
 import org.killbill.billing.osgi.api.OSGIServiceRegistration;
 import org.killbill.billing.osgi.api.OSGISingleServiceRegistration;
 import org.killbill.billing.osgi.api.ServiceDiscoveryRegistry;
+import org.killbill.billing.osgi.config.OSGIConfig;
 import org.killbill.billing.osgi.glue.DefaultOSGIModule;
 import org.killbill.billing.payment.plugin.api.PaymentPluginApi;
 import org.killbill.billing.platform.jndi.JNDIManager;
@@ -58,8 +63,10 @@ import org.killbill.clock.Clock;
 import org.killbill.commons.health.api.HealthCheckRegistry;
 import org.killbill.commons.metrics.api.MetricRegistry;
 import org.osgi.framework.AllServiceListener;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.event.Event;
@@ -68,7 +75,7 @@ import org.osgi.util.tracker.ServiceTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class KillbillActivator implements BundleActivator, AllServiceListener {
+public class KillbillActivator implements BundleActivator, AllServiceListener, ServiceRestoreHandler {
 
     static final int PLUGIN_NAME_MAX_LENGTH = 40;
     static final Pattern PLUGIN_NAME_PATTERN = Pattern.compile("\\p{Lower}(?:\\p{Lower}|\\d|-|_)*");
@@ -85,10 +92,17 @@ public class KillbillActivator implements BundleActivator, AllServiceListener {
     private final KillbillEventObservable observable;
     private final OSGIKillbillRegistrar registrar;
     private final OSGIConfigProperties configProperties;
+    private final OSGIConfig osgiConfig;
     private final JNDIManager jndiManager;
     private final MetricRegistry metricsRegistry;
     private final BundleRegistry bundleRegistry;
     private final List<OSGIServiceRegistrable> allRegistrationHandlers;
+    // Service type and registration name to the id of the bundle which registered the service currently in use
+    private final Map<String, Long> serviceOwners = new ConcurrentHashMap<String, Long>();
+    // Same keys, bulkhead of the service currently in use (if enabled)
+    private final Map<String, PluginBulkhead> bulkheads = new ConcurrentHashMap<String, PluginBulkhead>();
+    // Service type (objectClass) to handler, built on start once all handlers have been injected
+    private volatile Map<String, OSGIServiceRegistrable> registrationHandlersByServiceType;
 
     private BundleContext context = null;
     private ServiceTracker<LogService, LogService> logTracker;
@@ -104,6 +118,7 @@ public class KillbillActivator implements BundleActivator, AllServiceListener {
                              final KillbillEventRetriableBusHandler killbillEventRetriableBusHandler,
                              final KillbillEventObservable observable,
                              final OSGIConfigProperties configProperties,
+                             final OSGIConfig osgiConfig,
                              final MetricRegistry metricsRegistry,
                              final HealthCheckRegistry healthCheckRegistry,
                              final JNDIManager jndiManager) {
@@ -114,11 +129,13 @@ public class KillbillActivator implements BundleActivator, AllServiceListener {
         this.killbillEventRetriableBusHandler = killbillEventRetriableBusHandler;
         this.observable = observable;
         this.configProperties = configProperties;
+        this.osgiConfig = osgiConfig;
         this.jndiManager = jndiManager;
         this.metricsRegistry = metricsRegistry;
         this.healthCheckRegistry = healthCheckRegistry;
         this.registrar = new OSGIKillbillRegistrar();
         this.allRegistrationHandlers = new LinkedList<OSGIServiceRegistrable>();
+        this.registrationHandlersByServiceType = Map.of();
     }
 
     @Inject
@@ -183,6 +200,14 @@ public class KillbillActivator implements BundleActivator, AllServiceListener {
 
     @Override
     public void start(final BundleContext context) throws Exception {
+        final Map<String, OSGIServiceRegistrable> handlersByServiceType = new HashMap<String, OSGIServiceRegistrable>();
+        for (final OSGIServiceRegistrable cur : allRegistrationHandlers) {
+            if (cur != null) {
+                handlersByServiceType.putIfAbsent(cur.getServiceType().getName(), cur);
+            }
+        }
+        this.registrationHandlersByServiceType = handlersByServiceType;
+
         this.context = context;
         final Dictionary<String, String> props = new Hashtable<>();
         props.put(OSGIPluginProperties.PLUGIN_NAME_PROP, "killbill");
@@ -195,7 +220,7 @@ public class KillbillActivator implements BundleActivator, AllServiceListener {
 
             final ch.qos.logback.classic.Logger root = ((ch.qos.logback.classic.LoggerContext) factory).getLogger(Logger.ROOT_LOGGER_NAME);
 
-            osgiAppender = new OSGIAppender(logTracker, context.getBundle());
+            osgiAppender = new OSGIAppender(logTracker, context.getBundle(), osgiConfig, metricsRegistry);
             osgiAppender.setContext(root.getLoggerContext());
             osgiAppender.start();
             root.addAppender(osgiAppender);
@@ -212,6 +237,7 @@ public class KillbillActivator implements BundleActivator, AllServiceListener {
         registrar.registerService(context, HealthCheckRegistry.class, healthCheckRegistry, props);
 
         context.addServiceListener(this);
+        bundleRegistry.setServiceRestoreHandler(this);
 
         jndiManager.export(KILLBILL_OSGI_JDBC_JNDI_NAME, dataSource);
     }
@@ -221,6 +247,7 @@ public class KillbillActivator implements BundleActivator, AllServiceListener {
         jndiManager.unExport(KILLBILL_OSGI_JDBC_JNDI_NAME);
 
         this.context = null;
+        bundleRegistry.setServiceRestoreHandler(null);
         context.removeServiceListener(this);
         killbillEventRetriableBusHandler.unregister();
         registrar.unregisterAll();
@@ -233,61 +260,116 @@ public class KillbillActivator implements BundleActivator, AllServiceListener {
         }
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public void serviceChanged(final ServiceEvent event) {
         if (context == null || (event.getType() != ServiceEvent.REGISTERED && event.getType() != ServiceEvent.UNREGISTERING)) {
             // We are not initialized or uninterested
             return;
         }
-        final ServiceReference<?> serviceReference = event.getServiceReference();
-        for (final OSGIServiceRegistrable cur : allRegistrationHandlers) {
-            if (listenForServiceType(serviceReference, event.getType(), cur)) {
-                break;
-            }
-        }
+        handleServiceEvent(event.getServiceReference(), event.getType(), false);
     }
 
-    public void sendEvent(final String topic, final Map<String, String> properties) {
-        observable.setChangedAndNotifyObservers(new Event(topic, properties));
+    @Override
+    public void restoreServices(final Bundle bundle) {
+        final ServiceReference<?>[] serviceReferences = bundle.getRegisteredServices();
+        if (context == null || serviceReferences == null) {
+            return;
+        }
+        for (final ServiceReference<?> serviceReference : serviceReferences) {
+            handleServiceEvent(serviceReference, ServiceEvent.REGISTERED, true);
+        }
     }
 
-    private <T> boolean listenForServiceType(final ServiceReference<?> serviceReference, final int eventType, final OSGIServiceRegistrable<T> registration) {
-        final Class<T> claz = registration.getServiceType();
+    // When restoring, services still in use are left alone
+    @SuppressWarnings("unchecked")
+    private void handleServiceEvent(final ServiceReference<?> serviceReference, final int eventType, final boolean restore) {
 
         // Make sure we can retrieve the plugin name
         final String serviceName = (String) serviceReference.getProperty(OSGIPluginProperties.PLUGIN_NAME_PROP);
         if (serviceName == null || !checkSanityPluginRegistrationName(serviceName)) {
             // Quite common for non Killbill bundles
-            logger.debug("Ignoring registered OSGI service {} with no {} property", claz.getName(), OSGIPluginProperties.PLUGIN_NAME_PROP);
-            return true;
+            logger.debug("Ignoring registered OSGI service {} with no {} property", serviceReference, OSGIPluginProperties.PLUGIN_NAME_PROP);
+            return;
         }
 
+        // Fast path: the service was registered under the type of one of our handlers
+        final String[] objectClasses = (String[]) serviceReference.getProperty(Constants.OBJECTCLASS);
+        if (objectClasses != null) {
+            for (final String objectClass : objectClasses) {
+                final OSGIServiceRegistrable registration = registrationHandlersByServiceType.get(objectClass);
+                if (registration != null) {
+                    listenForServiceType(serviceReference, eventType, serviceName, registration, restore);
+                    return;
+                }
+            }
+        }
+
+        // Otherwise, we look for a subclass here for greater flexibility (e.g. HttpServlet for a Servlet service)
         final Object theServiceObject = context.getService(serviceReference);
-        // Is that for us? We look for a subclass here for greater flexibility (e.g. HttpServlet for a Servlet service)
-        if (theServiceObject == null || !claz.isAssignableFrom(theServiceObject.getClass())) {
-            return false;
+        if (theServiceObject == null) {
+            return;
+        }
+        try {
+            for (final OSGIServiceRegistrable cur : allRegistrationHandlers) {
+                if (cur != null && cur.getServiceType().isAssignableFrom(theServiceObject.getClass())) {
+                    listenForServiceType(serviceReference, eventType, serviceName, cur, restore);
+                    return;
+                }
+            }
+        } finally {
+            context.ungetService(serviceReference);
         }
-        @SuppressWarnings("unchecked") final T theService = (T) theServiceObject;
+    }
 
-        final OSGIServiceDescriptor desc = new DefaultOSGIServiceDescriptor(serviceReference.getBundle().getSymbolicName(),
-                                                                            bundleRegistry.getPluginName(serviceReference.getBundle()),
+    public void sendEvent(final String topic, final Map<String, String> properties) {
+        observable.setChangedAndNotifyObservers(new Event(topic, properties));
+    }
+
+    private <T> void listenForServiceType(final ServiceReference<?> serviceReference, final int eventType, final String serviceName, final OSGIServiceRegistrable<T> registration, final boolean restore) {
+        final Class<T> claz = registration.getServiceType();
+
+        final Bundle bundle = serviceReference.getBundle();
+        final OSGIServiceDescriptor desc = new DefaultOSGIServiceDescriptor(bundle.getSymbolicName(),
+                                                                            bundleRegistry.getPluginName(bundle),
                                                                             serviceName);
+        final String serviceOwnerKey = claz.getName() + "/" + serviceName;
         switch (eventType) {
             case ServiceEvent.REGISTERED:
-                final T wrappedService = ContextClassLoaderHelper.getWrappedServiceWithCorrectContextClassLoader(theService, claz, serviceName, metricsRegistry);
+                if (restore && Long.valueOf(bundle.getBundleId()).equals(serviceOwners.get(serviceOwnerKey))) {
+                    return;
+                }
+                // Kept until the service is unregistered
+                @SuppressWarnings("unchecked") final T theService = (T) context.getService(serviceReference);
+                if (theService == null) {
+                    return;
+                }
+                final PluginBulkhead bulkhead = osgiConfig.isPluginBulkheadEnabled() ? PluginBulkhead.create(serviceName, claz, osgiConfig, metricsRegistry) : null;
+                final AtomicInteger inFlightCalls = osgiConfig.isPluginRestartSwapEnabled() ? bundleRegistry.getInFlightCalls(bundle) : null;
+                final T wrappedService = ContextClassLoaderHelper.getWrappedServiceWithCorrectContextClassLoader(theService, claz, serviceName, metricsRegistry, bulkhead, inFlightCalls);
+                // When a plugin is swapped, this replaces the service of the previous version
+                serviceOwners.put(serviceOwnerKey, bundle.getBundleId());
+                if (bulkhead != null) {
+                    bulkheads.put(serviceOwnerKey, bulkhead);
+                }
                 registration.registerService(desc, wrappedService);
-                bundleRegistry.registerService(desc, claz.getName());
+                bundleRegistry.registerService(bundle, desc, claz.getName());
                 break;
             case ServiceEvent.UNREGISTERING:
-                registration.unregisterService(desc.getRegistrationName());
-                bundleRegistry.unregisterService(desc, claz.getName());
+                // No need to get the service. If the service has been replaced by the one of a newer version of the plugin, keep the latter
+                if (serviceOwners.remove(serviceOwnerKey, bundle.getBundleId())) {
+                    registration.unregisterService(desc.getRegistrationName());
+                    final PluginBulkhead bulkhead = bulkheads.remove(serviceOwnerKey);
+                    if (bulkhead != null) {
+                        bulkhead.shutdown();
+                    }
+                } else {
+                    logger.info("Not unregistering service {} of bundle {}, superseded by another bundle", serviceName, bundle.getBundleId());
+                }
+                bundleRegistry.unregisterService(bundle, desc, claz.getName());
                 break;
             default:
                 break;
         }
-
-        return true;
     }
 
     private boolean checkSanityPluginRegistrationName(final String pluginName) {
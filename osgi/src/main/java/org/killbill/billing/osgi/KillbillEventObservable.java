@@ -19,13 +19,174 @@
 
 package org.killbill.billing.osgi;
 
-import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
-import java.util.Vector;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
 
+import javax.annotation.Nullable;
+
+import jakarta.inject.Inject;
+
+import org.killbill.billing.notification.plugin.api.ExtBusEvent;
+import org.killbill.billing.notification.plugin.api.ExtBusEventType;
+import org.killbill.billing.osgi.api.OSGIKillbillEventBatching;
+import org.killbill.billing.osgi.api.OSGIKillbillEventFilter;
+import org.killbill.billing.osgi.config.OSGIConfig;
+import org.killbill.commons.concurrent.Executors;
+import org.killbill.commons.metrics.api.MetricRegistry;
+import org.killbill.queue.retry.QueueRetryException;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//
+// Registered in the OSGI registry as java.util.Observable: plugins add and remove their observers
+// through the standard Observable API, but we keep our own copy-on-write array of subscribers
+// so that dispatching an event doesn't require any locking nor copying.
+//
+// Observers implementing OSGIKillbillEventFilter only receive the bus events they are interested in:
+// subscribers are indexed by event type, so uninteresting events don't cost anything.
+// Observers implementing OSGIKillbillEventBatching receive their events in batches (see PluginEventBatcher).
+//
 public class KillbillEventObservable extends Observable {
 
+    private static final Logger logger = LoggerFactory.getLogger(KillbillEventObservable.class);
+
+    private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+    private static final PluginEventDispatcher[] NO_DISPATCHERS = new PluginEventDispatcher[0];
+
+    private final OSGIConfig osgiConfig;
+    private final MetricRegistry metricRegistry;
+
+    // Copy-on-write arrays and indexes, only modified under the object lock
+    private volatile Subscriber[] subscribers = NO_SUBSCRIBERS;
+    private volatile Map<ExtBusEventType, Subscriber[]> subscribersByEventType = buildIndex(NO_SUBSCRIBERS);
+    private volatile PluginEventDispatcher[] dispatchers = NO_DISPATCHERS;
+    private volatile Map<ExtBusEventType, PluginEventDispatcher[]> dispatchersByEventType = buildIndex(NO_DISPATCHERS);
+
+    private volatile EventRetryHandler retryHandler;
+
+    // Lazily created, to flush batches on time
+    private ScheduledExecutorService batchScheduler;
+
+    @Inject
+    public KillbillEventObservable(final OSGIConfig osgiConfig, final MetricRegistry metricRegistry) {
+        this.osgiConfig = osgiConfig;
+        this.metricRegistry = metricRegistry;
+    }
+
+    public void setRetryHandler(final EventRetryHandler retryHandler) {
+        this.retryHandler = retryHandler;
+    }
+
+    @Override
+    public synchronized void addObserver(final Observer observer) {
+        if (observer == null) {
+            throw new NullPointerException();
+        }
+        for (final Subscriber subscriber : subscribers) {
+            if (subscriber.observer.equals(observer)) {
+                return;
+            }
+        }
+
+        final Bundle bundle = FrameworkUtil.getBundle(observer.getClass());
+        final String pluginKey = getPluginKey(observer, bundle);
+        final PluginEventBatcher batcher = observer instanceof OSGIKillbillEventBatching ? new PluginEventBatcher(observer, pluginKey, this, getBatchScheduler()) : null;
+        final Subscriber subscriber = new Subscriber(observer, pluginKey, bundle == null ? null : bundle.getBundleId(), batcher);
+        final Subscriber[] updated = Arrays.copyOf(subscribers, subscribers.length + 1);
+        updated[subscribers.length] = subscriber;
+        subscribers = updated;
+        subscribersByEventType = buildIndex(updated);
+
+        if (osgiConfig.isEventDispatchAsync()) {
+            PluginEventDispatcher dispatcher = findDispatcher(subscriber.pluginKey);
+            if (dispatcher == null) {
+                dispatcher = new PluginEventDispatcher(subscriber.pluginKey, this, osgiConfig, metricRegistry);
+                dispatcher.start();
+                final PluginEventDispatcher[] updatedDispatchers = Arrays.copyOf(dispatchers, dispatchers.length + 1);
+                updatedDispatchers[dispatchers.length] = dispatcher;
+                dispatchers = updatedDispatchers;
+            }
+            dispatcher.addSubscriber(subscriber);
+            dispatchersByEventType = buildIndex(dispatchers);
+        }
+    }
+
+    @Override
+    public synchronized void deleteObserver(final Observer observer) {
+        final List<Subscriber> updated = new ArrayList<>();
+        for (final Subscriber subscriber : subscribers) {
+            if (subscriber.observer.equals(observer)) {
+                subscriber.close();
+            } else {
+                updated.add(subscriber);
+            }
+        }
+        subscribers = updated.toArray(NO_SUBSCRIBERS);
+        subscribersByEventType = buildIndex(subscribers);
+
+        final List<PluginEventDispatcher> updatedDispatchers = new ArrayList<>(Arrays.asList(dispatchers));
+        for (final PluginEventDispatcher dispatcher : dispatchers) {
+            if (dispatcher.removeObserver(observer) && !dispatcher.hasSubscribers()) {
+                updatedDispatchers.remove(dispatcher);
+                dispatcher.stop();
+            }
+        }
+        dispatchers = updatedDispatchers.toArray(NO_DISPATCHERS);
+        dispatchersByEventType = buildIndex(dispatchers);
+    }
+
+    //
+    // Deletes the observers of a bundle, e.g. the previous version of a plugin being swapped: as both versions share
+    // the same plugin key, they would otherwise both handle the events until the previous version is stopped
+    //
+    public synchronized void deleteObservers(final Bundle bundle) {
+        for (final Subscriber subscriber : subscribers) {
+            if (subscriber.bundleId != null && subscriber.bundleId == bundle.getBundleId()) {
+                deleteObserver(subscriber.observer);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void deleteObservers() {
+        final Subscriber[] deletedSubscribers = subscribers;
+        subscribers = NO_SUBSCRIBERS;
+        subscribersByEventType = buildIndex(NO_SUBSCRIBERS);
+        for (final Subscriber subscriber : deletedSubscribers) {
+            subscriber.close();
+        }
+
+        final PluginEventDispatcher[] stoppedDispatchers = dispatchers;
+        dispatchers = NO_DISPATCHERS;
+        dispatchersByEventType = buildIndex(NO_DISPATCHERS);
+        for (final PluginEventDispatcher dispatcher : stoppedDispatchers) {
+            dispatcher.stop();
+        }
+
+        if (batchScheduler != null) {
+            batchScheduler.shutdown();
+            batchScheduler = null;
+        }
+    }
+
+    @Override
+    public int countObservers() {
+        return subscribers.length;
+    }
+
     //
     // Override notifyObservers from Observable to prevent from having to
     // call setChanged and then notifyObservers, which are not atomic
@@ -33,31 +194,184 @@ public class KillbillEventObservable extends Observable {
     //
     @Override
     public void notifyObservers(final Object arg) {
-        final Vector obsCopy = getDeclaredField("obs");
-        final Object[] arrLocal = obsCopy.toArray();
-        for (int i = arrLocal.length - 1; i >= 0; i--) {
-            ((Observer) arrLocal[i]).update(this, arg);
+        if (!(arg instanceof ExtBusEvent)) {
+            // OSGI framework events are for everyone
+            final Subscriber[] local = subscribers;
+            for (int i = local.length - 1; i >= 0; i--) {
+                local[i].observer.update(this, arg);
+            }
+            return;
+        }
+
+        final ExtBusEvent event = (ExtBusEvent) arg;
+        if (osgiConfig.isEventDispatchAsync()) {
+            // Hand over the event to each interested plugin dispatcher, plugins are invoked on their own threads
+            for (final PluginEventDispatcher dispatcher : lookup(dispatchersByEventType, dispatchers, event)) {
+                if (dispatcher.accepts(event)) {
+                    dispatcher.dispatch(event);
+                }
+            }
+            return;
+        }
+
+        final Subscriber[] local = lookup(subscribersByEventType, subscribers, event);
+        for (int i = local.length - 1; i >= 0; i--) {
+            if (local[i].accepts(event)) {
+                local[i].deliver(this, event);
+            }
         }
     }
 
     public void setChangedAndNotifyObservers(final Object event) {
-        setChanged();
         notifyObservers(event);
     }
 
     //
-    // Ugly hack to access private field 'obs'
+    // Synchronously dispatch the event to the observers of a single plugin (used when retrying an event
+    // for a specific plugin)
+    //
+    public void notifyPluginObservers(final String pluginKey, final ExtBusEvent event) {
+        final Subscriber[] local = subscribers;
+        boolean found = false;
+        for (int i = local.length - 1; i >= 0; i--) {
+            if (local[i].pluginKey.equals(pluginKey)) {
+                found = true;
+                if (local[i].accepts(event)) {
+                    local[i].observer.update(this, event);
+                }
+            }
+        }
+        if (!found) {
+            logger.warn("Unable to dispatch event {}: no observer registered for plugin {}", event, pluginKey);
+        }
+    }
+
+    void retry(final String pluginKey, final ExtBusEvent event, @Nullable final QueueRetryException exception) {
+        final EventRetryHandler handler = retryHandler;
+        if (handler == null) {
+            logger.warn("Unable to retry event {} for plugin {}: no retry handler configured", event, pluginKey);
+            return;
+        }
+        handler.retry(pluginKey, event, exception);
+    }
+
+    private ScheduledExecutorService getBatchScheduler() {
+        if (batchScheduler == null) {
+            batchScheduler = Executors.newSingleThreadScheduledExecutor("osgi-event-batcher");
+        }
+        return batchScheduler;
+    }
+
+    private PluginEventDispatcher findDispatcher(final String pluginKey) {
+        for (final PluginEventDispatcher dispatcher : dispatchers) {
+            if (dispatcher.getPluginKey().equals(pluginKey)) {
+                return dispatcher;
+            }
+        }
+        return null;
+    }
+
+    private static <T> T[] lookup(final Map<ExtBusEventType, T[]> index, final T[] all, final ExtBusEvent event) {
+        return event.getEventType() == null ? all : index.get(event.getEventType());
+    }
+
+    //
+    // For each event type, the (ordered) subscribers or dispatchers interested in it
+    //
+    private static <T extends EventTypeAware> Map<ExtBusEventType, T[]> buildIndex(final T[] all) {
+        final Map<ExtBusEventType, T[]> index = new EnumMap<>(ExtBusEventType.class);
+        for (final ExtBusEventType eventType : ExtBusEventType.values()) {
+            final List<T> interested = new ArrayList<>();
+            for (final T cur : all) {
+                if (cur.accepts(eventType)) {
+                    interested.add(cur);
+                }
+            }
+            index.put(eventType, interested.toArray(Arrays.copyOf(all, 0)));
+        }
+        return index;
+    }
+
+    //
+    // Observers registered by plugins are keyed by the plugin bundle symbolic name, which is stable across restarts
     //
-    @SuppressWarnings("unchecked")
-    private <T> T getDeclaredField(final String fieldName) {
-        try {
-            final Field f = Observable.class.getDeclaredField(fieldName);
-            f.setAccessible(true);
-            return (T) f.get(this);
-        } catch (final NoSuchFieldException e) {
-            throw new RuntimeException("Failed to retrieve private field from Observable class " + fieldName, e);
-        } catch (final IllegalAccessException e) {
-            throw new RuntimeException("Failed to retrieve private field from Observable class " + fieldName, e);
+    private static String getPluginKey(final Observer observer, @Nullable final Bundle bundle) {
+        if (bundle != null && bundle.getBundleId() != 0 && bundle.getSymbolicName() != null) {
+            return bundle.getSymbolicName();
+        }
+        return observer.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(observer));
+    }
+
+    public interface EventRetryHandler {
+
+        //
+        // Schedule a later dispatch of the event to the specified plugin. If the exception is null,
+        // the default retry schedule is used.
+        //
+        public void retry(String pluginKey, ExtBusEvent event, @Nullable QueueRetryException exception);
+    }
+
+    interface EventTypeAware {
+
+        boolean accepts(ExtBusEventType eventType);
+    }
+
+    static final class Subscriber implements EventTypeAware {
+
+        final Observer observer;
+        final String pluginKey;
+        // Bundle which loaded the observer class, if any
+        final Long bundleId;
+        // Null means no filtering
+        private final Set<ExtBusEventType> eventTypes;
+        private final Set<UUID> tenantIds;
+        // Null if the observer doesn't want batches
+        private final PluginEventBatcher batcher;
+
+        private Subscriber(final Observer observer, final String pluginKey, @Nullable final Long bundleId, @Nullable final PluginEventBatcher batcher) {
+            this.observer = observer;
+            this.pluginKey = pluginKey;
+            this.bundleId = bundleId;
+            this.batcher = batcher;
+
+            if (observer instanceof OSGIKillbillEventFilter) {
+                final OSGIKillbillEventFilter filter = (OSGIKillbillEventFilter) observer;
+                this.eventTypes = filter.getEventTypes() == null ? null : copyOf(filter.getEventTypes());
+                this.tenantIds = filter.getTenantIds() == null ? null : Collections.unmodifiableSet(new HashSet<>(filter.getTenantIds()));
+            } else {
+                this.eventTypes = null;
+                this.tenantIds = null;
+            }
+        }
+
+        @Override
+        public boolean accepts(final ExtBusEventType eventType) {
+            return eventTypes == null || eventTypes.contains(eventType);
+        }
+
+        boolean accepts(final ExtBusEvent event) {
+            return (event.getEventType() == null || accepts(event.getEventType())) &&
+                   (tenantIds == null || tenantIds.contains(event.getTenantId()));
+        }
+
+        void deliver(final Observable observable, final ExtBusEvent event) {
+            if (batcher != null) {
+                batcher.add(event);
+            } else {
+                observer.update(observable, event);
+            }
+        }
+
+        void close() {
+            if (batcher != null) {
+                batcher.close();
+            }
+        }
+
+        private static Set<ExtBusEventType> copyOf(final Set<ExtBusEventType> eventTypes) {
+            final Set<ExtBusEventType> copy = EnumSet.noneOf(ExtBusEventType.class);
+            copy.addAll(eventTypes);
+            return copy;
         }
     }
 }
@@ -20,13 +20,22 @@
 package org.killbill.billing.osgi;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
 
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
 
+import org.joda.time.Period;
 import org.killbill.billing.notification.plugin.api.ExtBusEvent;
+import org.killbill.billing.osgi.KillbillEventObservable.EventRetryHandler;
 import org.killbill.billing.osgi.api.KillbillEventRetriableBusHandlerService;
+import org.killbill.billing.osgi.config.OSGIConfig;
 import org.killbill.billing.platform.api.LifecycleHandlerType;
 import org.killbill.billing.platform.api.LifecycleHandlerType.LifecycleLevel;
 import org.killbill.bus.api.BusEvent;
@@ -38,6 +47,7 @@ import org.killbill.commons.eventbus.Subscribe;
 import org.killbill.notificationq.api.NotificationQueueService;
 import org.killbill.notificationq.api.NotificationQueueService.NoSuchNotificationQueue;
 import org.killbill.queue.QueueObjectMapper;
+import org.killbill.queue.retry.QueueRetryException;
 import org.killbill.queue.retry.RetryableService;
 import org.killbill.queue.retry.RetryableSubscriber;
 import org.killbill.queue.retry.RetryableSubscriber.SubscriberAction;
@@ -46,14 +56,19 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 // Needs to be injected for the lifecycle logic
 public class KillbillEventRetriableBusHandler extends RetryableService implements KillbillEventRetriableBusHandlerService {
@@ -64,25 +79,53 @@ public class KillbillEventRetriableBusHandler extends RetryableService implement
     private final KillbillEventObservable killbillEventObservable;
     private final RetryableSubscriber retryableSubscriber;
     private final SubscriberQueueHandler subscriberQueueHandler = new SubscriberQueueHandler();
+    private final List<Period> dispatchRetrySchedule;
 
     @Inject
     public KillbillEventRetriableBusHandler(@Named("externalBus") final PersistentBus externalBus,
                                             final KillbillEventObservable killbillEventObservable,
                                             final NotificationQueueService notificationQueueService,
+                                            final OSGIConfig osgiConfig,
                                             final Clock clock) {
         super(notificationQueueService);
         this.externalBus = externalBus;
         this.killbillEventObservable = killbillEventObservable;
+        this.dispatchRetrySchedule = buildDispatchRetrySchedule(osgiConfig);
         subscriberQueueHandler.subscribe(OSGIBusEvent.class,
                                          new SubscriberAction<OSGIBusEvent>() {
                                              @Override
                                              public void run(final OSGIBusEvent osgiBusEvent) {
+                                                 if (osgiBusEvent.getRetryException() != null) {
+                                                     // The event couldn't be dispatched to the plugin (or the plugin asked for a retry): hand it over to the retry queue
+                                                     throw osgiBusEvent.getRetryException();
+                                                 }
+
                                                  final ExtBusEvent extBusEvent = osgiBusEvent.getExtBusEvent();
                                                  logger.debug("Received external event " + extBusEvent.toString());
-                                                 killbillEventObservable.setChangedAndNotifyObservers(extBusEvent);
+                                                 if (osgiBusEvent.getTargetPluginKey() != null) {
+                                                     killbillEventObservable.notifyPluginObservers(osgiBusEvent.getTargetPluginKey(), extBusEvent);
+                                                 } else {
+                                                     killbillEventObservable.setChangedAndNotifyObservers(extBusEvent);
+                                                 }
                                              }
                                          });
         this.retryableSubscriber = new RetryableSubscriber(clock, this, subscriberQueueHandler);
+        killbillEventObservable.setRetryHandler(new EventRetryHandler() {
+            @Override
+            public void retry(final String pluginKey, final ExtBusEvent extBusEvent, @Nullable final QueueRetryException exception) {
+                final QueueRetryException retryException = exception != null ? exception : new QueueRetryException(dispatchRetrySchedule);
+                retryableSubscriber.handleEvent(new OSGIBusEvent(extBusEvent, extBusEvent.getClass(), pluginKey, retryException));
+            }
+        });
+    }
+
+    private static List<Period> buildDispatchRetrySchedule(final OSGIConfig osgiConfig) {
+        final Period delay = Period.millis((int) osgiConfig.getEventDispatchRetryDelay().getMillis());
+        final List<Period> retrySchedule = new ArrayList<>();
+        for (int i = 0; i < osgiConfig.getEventDispatchRetryMax(); i++) {
+            retrySchedule.add(delay);
+        }
+        return retrySchedule;
     }
 
     public void register() throws EventBusException {
@@ -128,17 +171,37 @@ public class KillbillEventRetriableBusHandler extends RetryableService implement
         retryableSubscriber.handleEvent(event);
     }
 
+    // The class comes first so that the event can be deserialized in a single pass (see OSGIBusEventDeserializer)
+    @JsonPropertyOrder({"extBusEventClass", "targetPluginKey", "extBusEvent"})
     @JsonDeserialize(using = OSGIBusEventDeserializer.class)
     protected static class OSGIBusEvent implements BusEvent {
 
         private final ExtBusEvent extBusEvent;
         private final Class extBusEventClass;
+        // Set when the event should only be dispatched to a specific plugin
+        private final String targetPluginKey;
+        // Not serialized: only set on the event handed over to the retry queue
+        private final QueueRetryException retryException;
+
+        public OSGIBusEvent(final ExtBusEvent extBusEvent, final Class extBusEventClass) {
+            this(extBusEvent, extBusEventClass, null);
+        }
 
         @JsonCreator
         public OSGIBusEvent(@JsonProperty("extBusEvent") final ExtBusEvent extBusEvent,
-                            @JsonProperty("extBusEventClass") final Class extBusEventClass) {
+                            @JsonProperty("extBusEventClass") final Class extBusEventClass,
+                            @JsonProperty("targetPluginKey") @Nullable final String targetPluginKey) {
+            this(extBusEvent, extBusEventClass, targetPluginKey, null);
+        }
+
+        public OSGIBusEvent(final ExtBusEvent extBusEvent,
+                            final Class extBusEventClass,
+                            @Nullable final String targetPluginKey,
+                            @Nullable final QueueRetryException retryException) {
             this.extBusEvent = extBusEvent;
             this.extBusEventClass = extBusEventClass;
+            this.targetPluginKey = targetPluginKey;
+            this.retryException = retryException;
         }
 
         public ExtBusEvent getExtBusEvent() {
@@ -149,6 +212,16 @@ public class KillbillEventRetriableBusHandler extends RetryableService implement
             return extBusEventClass;
         }
 
+        @JsonInclude(Include.NON_NULL)
+        public String getTargetPluginKey() {
+            return targetPluginKey;
+        }
+
+        @JsonIgnore
+        public QueueRetryException getRetryException() {
+            return retryException;
+        }
+
         @Override
         public Long getSearchKey1() {
             final UUID accountId = extBusEvent.getAccountId();
@@ -171,6 +244,7 @@ public class KillbillEventRetriableBusHandler extends RetryableService implement
             final StringBuilder sb = new StringBuilder("OSGIBusEvent{");
             sb.append("extBusEvent=").append(extBusEvent);
             sb.append(", extBusEventClass=").append(extBusEventClass);
+            sb.append(", targetPluginKey='").append(targetPluginKey).append('\'');
             sb.append('}');
             return sb.toString();
         }
@@ -189,13 +263,17 @@ public class KillbillEventRetriableBusHandler extends RetryableService implement
             if (extBusEvent != null ? !extBusEvent.equals(event.extBusEvent) : event.extBusEvent != null) {
                 return false;
             }
-            return extBusEventClass != null ? extBusEventClass.equals(event.extBusEventClass) : event.extBusEventClass == null;
+            if (extBusEventClass != null ? !extBusEventClass.equals(event.extBusEventClass) : event.extBusEventClass != null) {
+                return false;
+            }
+            return targetPluginKey != null ? targetPluginKey.equals(event.targetPluginKey) : event.targetPluginKey == null;
         }
 
         @Override
         public int hashCode() {
             int result = extBusEvent != null ? extBusEvent.hashCode() : 0;
             result = 31 * result + (extBusEventClass != null ? extBusEventClass.hashCode() : 0);
+            result = 31 * result + (targetPluginKey != null ? targetPluginKey.hashCode() : 0);
             return result;
         }
     }
@@ -204,18 +282,67 @@ public class KillbillEventRetriableBusHandler extends RetryableService implement
 
         private static final ObjectMapper objectMapper = QueueObjectMapper.get();
 
+        // Avoid a Class.forName per (retried) event
+        private static final Map<String, Class<ExtBusEvent>> extBusEventClasses = new ConcurrentHashMap<>();
+
         @Override
         public OSGIBusEvent deserialize(final JsonParser p, final DeserializationContext ctxt) throws IOException, JsonProcessingException {
-            final JsonNode node = p.getCodec().readTree(p);
+            Class<ExtBusEvent> extBusEventClass = null;
+            String targetPluginKey = null;
+            ExtBusEvent extBusEvent = null;
+            // Rows written before extBusEventClass was serialized first
+            TokenBuffer extBusEventBuffer = null;
+
+            JsonToken token = p.currentToken();
+            if (token == JsonToken.START_OBJECT) {
+                token = p.nextToken();
+            }
+            for (; token == JsonToken.FIELD_NAME; token = p.nextToken()) {
+                final String fieldName = p.currentName();
+                final JsonToken valueToken = p.nextToken();
+                if ("extBusEventClass".equals(fieldName)) {
+                    extBusEventClass = getExtBusEventClass(p.getValueAsString());
+                } else if ("targetPluginKey".equals(fieldName)) {
+                    targetPluginKey = valueToken == JsonToken.VALUE_NULL ? null : p.getValueAsString();
+                } else if ("extBusEvent".equals(fieldName)) {
+                    if (extBusEventClass != null) {
+                        extBusEvent = objectMapper.readValue(p, extBusEventClass);
+                    } else {
+                        extBusEventBuffer = new TokenBuffer(p, ctxt);
+                        extBusEventBuffer.copyCurrentStructure(p);
+                    }
+                } else {
+                    p.skipChildren();
+                }
+            }
+
+            if (extBusEventClass == null) {
+                throw new IOException("Missing extBusEventClass for OSGIBusEvent");
+            }
+            if (extBusEventBuffer != null) {
+                try (final JsonParser bufferParser = extBusEventBuffer.asParser()) {
+                    extBusEvent = objectMapper.readValue(bufferParser, extBusEventClass);
+                }
+            }
+
+            return new OSGIBusEvent(extBusEvent, extBusEventClass, targetPluginKey);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Class<ExtBusEvent> getExtBusEventClass(final String className) throws IOException {
+            final Class<ExtBusEvent> cachedClass = extBusEventClasses.get(className);
+            if (cachedClass != null) {
+                return cachedClass;
+            }
 
             final Class<ExtBusEvent> extBusEventClass;
             try {
-                extBusEventClass = (Class<ExtBusEvent>) Class.forName(node.get("extBusEventClass").textValue());
+                extBusEventClass = (Class<ExtBusEvent>) Class.forName(className);
             } catch (final ClassNotFoundException e) {
                 throw new IOException(e);
             }
-
-            return new OSGIBusEvent(objectMapper.treeToValue(node.get("extBusEvent"), extBusEventClass), extBusEventClass);
+            extBusEventClasses.put(className, extBusEventClass);
+            return extBusEventClass;
         }
     }
 }
@@ -20,9 +20,22 @@
 package org.killbill.billing.osgi;
 
 import java.util.Dictionary;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
+import javax.annotation.Nullable;
+
+import org.killbill.billing.osgi.config.OSGIConfig;
+import org.killbill.billing.osgi.config.OSGIConfig.LoggerFullQueuePolicy;
+import org.killbill.commons.metrics.api.Meter;
+import org.killbill.commons.metrics.api.MetricRegistry;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.log.LogService;
@@ -33,82 +46,232 @@ import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.classic.spi.ThrowableProxy;
 import ch.qos.logback.core.UnsynchronizedAppenderBase;
 
+//
+// Forwards the core log events to the OSGI LogService. When asynchronous, the logging threads only enqueue the events
+// in a bounded queue, and a single thread forwards them by batches, passing the logger name and MDC as properties
+// of the ServiceReference instead of in the message (see KillbillLogWriter).
+//
 public class OSGIAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
 
+    // MAGIC - do not change (see KillbillLogWriter)
+    static final String ROOT_LOGGING_KEY = "KILL_BILL_ROOT_LOGGING";
+    static final String LOGGER_NAME_KEY = "KILL_BILL_LOGGER_NAME";
+    static final String MDC_KEY = "MDC";
+
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final long CONSUMER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
     private final ServiceTracker<LogService, LogService> logTracker;
+    private final Bundle bundle;
     private final ServiceReference SR;
 
+    private final boolean async;
+    private final int capacity;
+    private final LoggerFullQueuePolicy fullQueuePolicy;
+    private final Meter droppedMeter;
+    // Multiple producers (logging threads), single consumer
+    private final Queue<ILoggingEvent> queue = new ConcurrentLinkedQueue<ILoggingEvent>();
+    private final AtomicInteger queueSize = new AtomicInteger();
+    private final AtomicBoolean consumerParked = new AtomicBoolean(false);
+
+    private volatile Thread consumer;
+
     public OSGIAppender(final ServiceTracker<LogService, LogService> logTracker, final Bundle bundle) {
+        this(logTracker, bundle, false, 0, LoggerFullQueuePolicy.DROP, null);
+    }
+
+    public OSGIAppender(final ServiceTracker<LogService, LogService> logTracker, final Bundle bundle, final OSGIConfig osgiConfig, final MetricRegistry metricRegistry) {
+        this(logTracker,
+             bundle,
+             osgiConfig.isLoggerForwardingAsync(),
+             osgiConfig.getLoggerForwardingQueueCapacity(),
+             osgiConfig.getLoggerForwardingFullQueuePolicy(),
+             metricRegistry.meter("killbill-service.kb_osgi_log_dropped"));
+    }
+
+    private OSGIAppender(final ServiceTracker<LogService, LogService> logTracker,
+                         final Bundle bundle,
+                         final boolean async,
+                         final int capacity,
+                         final LoggerFullQueuePolicy fullQueuePolicy,
+                         @Nullable final Meter droppedMeter) {
         this.logTracker = logTracker;
+        this.bundle = bundle;
         this.SR = new RootBundleLogbackServiceReference(bundle);
+        this.async = async;
+        this.capacity = Math.max(1, capacity);
+        this.fullQueuePolicy = fullQueuePolicy;
+        this.droppedMeter = droppedMeter;
+    }
+
+    @Override
+    public void start() {
+        super.start();
+
+        if (async) {
+            final Thread thread = new Thread(this::forwardQueuedEvents, "osgi-log-forwarder");
+            thread.setDaemon(true);
+            consumer = thread;
+            thread.start();
+        }
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+
+        final Thread thread = consumer;
+        if (thread != null) {
+            // The remaining events are forwarded before the thread exits
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(5));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            consumer = null;
+        }
     }
 
     @Override
     protected void append(final ILoggingEvent eventObject) {
-        final LogService logService = logTracker.getService();
+        if (!async) {
+            final LogService logService = logTracker.getService();
+            if (logService != null) {
+                final String msg = eventObject.getLoggerName() + "; " + eventObject.getFormattedMessage();
+                logService.log(SR, toLogServiceLevel(eventObject), msg, getThrowable(eventObject));
+            }
+            return;
+        }
+
+        if (logTracker.getService() == null) {
+            return;
+        }
+
+        // Capture the MDC and message now, as the event is processed on another thread
+        eventObject.prepareForDeferredProcessing();
+
+        if (queueSize.incrementAndGet() > capacity) {
+            queueSize.decrementAndGet();
+            switch (fullQueuePolicy) {
+                case CALLER_RUNS:
+                    forward(logTracker.getService(), eventObject);
+                    return;
+                case DROP_OLDEST:
+                    if (queue.poll() != null) {
+                        droppedMeter.mark(1);
+                    } else {
+                        queueSize.incrementAndGet();
+                    }
+                    break;
+                case DROP:
+                default:
+                    droppedMeter.mark(1);
+                    return;
+            }
+        }
+
+        queue.offer(eventObject);
+        if (consumerParked.get() && consumerParked.compareAndSet(true, false)) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    int getQueueSize() {
+        return queueSize.get();
+    }
+
+    private void forwardQueuedEvents() {
+        while (true) {
+            final LogService logService = logTracker.getService();
+
+            int nbEvents = 0;
+            ILoggingEvent eventObject;
+            while (nbEvents < MAX_BATCH_SIZE && (eventObject = queue.poll()) != null) {
+                queueSize.decrementAndGet();
+                forward(logService, eventObject);
+                nbEvents++;
+            }
+
+            if (nbEvents > 0) {
+                continue;
+            } else if (!isStarted()) {
+                return;
+            }
+
+            consumerParked.set(true);
+            if (queue.isEmpty() && isStarted()) {
+                LockSupport.parkNanos(this, CONSUMER_PARK_NANOS);
+            }
+            consumerParked.set(false);
+        }
+    }
+
+    private void forward(@Nullable final LogService logService, final ILoggingEvent eventObject) {
         if (logService == null) {
             return;
         }
+        final ServiceReference sr = new RootBundleLogbackServiceReference(bundle, eventObject.getLoggerName(), eventObject.getMDCPropertyMap());
+        logService.log(sr, toLogServiceLevel(eventObject), eventObject.getFormattedMessage(), getThrowable(eventObject));
+    }
 
-        final int level;
+    private static int toLogServiceLevel(final ILoggingEvent eventObject) {
         switch (eventObject.getLevel().toInt()) {
             case Level.TRACE_INT:
-                level = LogService.LOG_DEBUG;
-                break;
+                return LogService.LOG_DEBUG;
             case Level.DEBUG_INT:
-                level = LogService.LOG_DEBUG;
-                break;
+                return LogService.LOG_DEBUG;
             case Level.INFO_INT:
-                level = LogService.LOG_INFO;
-                break;
+                return LogService.LOG_INFO;
             case Level.WARN_INT:
-                level = LogService.LOG_WARNING;
-                break;
+                return LogService.LOG_WARNING;
             case Level.ERROR_INT:
-                level = LogService.LOG_ERROR;
-                break;
+                return LogService.LOG_ERROR;
             default:
-                level = LogService.LOG_DEBUG;
-                break;
+                return LogService.LOG_DEBUG;
         }
+    }
 
-        Throwable t = null;
-        if (eventObject.getThrowableProxy() != null) {
-            if (eventObject.getThrowableProxy() instanceof ThrowableProxy) {
-                t = ((ThrowableProxy) eventObject.getThrowableProxy()).getThrowable();
-            } else {
-                t = new Throwable(eventObject.getThrowableProxy().getMessage());
-            }
+    private static Throwable getThrowable(final ILoggingEvent eventObject) {
+        if (eventObject.getThrowableProxy() == null) {
+            return null;
+        } else if (eventObject.getThrowableProxy() instanceof ThrowableProxy) {
+            return ((ThrowableProxy) eventObject.getThrowableProxy()).getThrowable();
+        } else {
+            return new Throwable(eventObject.getThrowableProxy().getMessage());
         }
-
-        final String loggerName = eventObject.getLoggerName();
-
-        final String msg = loggerName + "; " + eventObject.getFormattedMessage();
-
-        logService.log(SR, level, msg, t);
     }
 
     private static final class RootBundleLogbackServiceReference implements ServiceReference {
 
-        // MAGIC - do not change (see KillbillLogWriter)
-        private static final Map<String, String> SERVICE_KEYS = Map.of("KILL_BILL_ROOT_LOGGING", "true");
+        private static final Map<String, Object> SERVICE_KEYS = Map.of(ROOT_LOGGING_KEY, "true");
 
         private final Bundle bundle;
+        private final Map<String, Object> properties;
 
         public RootBundleLogbackServiceReference(final Bundle bundle) {
             this.bundle = bundle;
+            this.properties = SERVICE_KEYS;
+        }
+
+        public RootBundleLogbackServiceReference(final Bundle bundle, final String loggerName, @Nullable final Map<String, String> mdc) {
+            this.bundle = bundle;
+            this.properties = new HashMap<String, Object>(SERVICE_KEYS);
+            this.properties.put(LOGGER_NAME_KEY, loggerName);
+            if (mdc != null) {
+                this.properties.put(MDC_KEY, mdc);
+            }
         }
 
         @Override
         public Object getProperty(final String key) {
-            return SERVICE_KEYS.get(key);
+            return properties.get(key);
         }
 
         @Override
         public String[] getPropertyKeys() {
-            return SERVICE_KEYS.keySet().toArray(new String[]{});
+            return properties.keySet().toArray(new String[]{});
         }
-
         @Override
         public Bundle getBundle() {
             return bundle;
@@ -131,9 +294,9 @@ public class OSGIAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
 
         @Override
         public Dictionary getProperties() {
-            final Hashtable<String, String> hashtable = new Hashtable<>();
+            final Hashtable<String, Object> hashtable = new Hashtable<>();
 
-            for (final Map.Entry<String, String> entry : SERVICE_KEYS.entrySet()) {
+            for (final Map.Entry<String, Object> entry : properties.entrySet()) {
                 if (entry.getKey() != null && entry.getValue() != null) {
                     hashtable.put(entry.getKey(), entry.getValue());
                 }
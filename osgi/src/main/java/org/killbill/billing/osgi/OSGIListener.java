@@ -109,8 +109,7 @@ public class OSGIListener {
                 bundleWithMetadata = bundleRegistry.installAndStartNewBundle(pluginName, nodeCommandMetadata.getPluginVersion());
                 break;
             case RESTART_PLUGIN:
-                bundleRegistry.stopAndUninstallNewBundle(pluginName, nodeCommandMetadata.getPluginVersion());
-                bundleWithMetadata = bundleRegistry.installAndStartNewBundle(pluginName, nodeCommandMetadata.getPluginVersion());
+                bundleWithMetadata = bundleRegistry.restartBundle(pluginName, nodeCommandMetadata.getPluginVersion());
                 break;
             default:
                 throw new IllegalStateException("Unexpected type " + commandType);
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import org.killbill.billing.osgi.api.OSGIServiceCallRejected;
+import org.killbill.billing.osgi.config.OSGIConfig;
+import org.killbill.commons.metrics.api.Gauge;
+import org.killbill.commons.metrics.api.Meter;
+import org.killbill.commons.metrics.api.MetricRegistry;
+import org.killbill.commons.metrics.api.Timer;
+import org.killbill.commons.utils.Joiner;
+import org.skife.config.TimeSpan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//
+// Isolates the callers of a plugin service interface from that plugin: at most maxConcurrentCalls calls are in flight,
+// and the other callers are rejected (after waiting up to maxWait for a slot) instead of piling up on a stuck plugin.
+//
+// Methods with a timeout are invoked on a dedicated thread, and the caller gives up (the call is interrupted) once
+// the timeout expires. The slot is only released when the plugin call actually returns, so calls stuck in the plugin
+// keep counting against the limit. Note that thread-bound state (e.g. profiling data) doesn't follow the call then.
+//
+public final class PluginBulkhead {
+
+    private static final Logger logger = LoggerFactory.getLogger(PluginBulkhead.class);
+
+    private static final Joiner DOT_JOINER = Joiner.on(".");
+
+    private final String name;
+    private final int maxConcurrentCalls;
+    private final Semaphore permits;
+    private final long maxWaitNanos;
+    private final long defaultTimeoutMillis;
+    // Method name to timeout (in milliseconds)
+    private final Map<String, Long> methodTimeoutsMillis;
+    // Null if the bulkhead isn't instrumented
+    private final MetricRegistry metricRegistry;
+    private final String[] metricNames;
+    private final Timer waitTimer;
+    private final Meter rejectedMeter;
+    private final Meter timeoutsMeter;
+
+    // Only for methods with a timeout, created on first use
+    private volatile ExecutorService executor;
+
+    public interface PluginCall {
+
+        Object call() throws Throwable;
+    }
+
+    public static PluginBulkhead create(final String serviceName, final Class<?> serviceInterface, final OSGIConfig osgiConfig, @Nullable final MetricRegistry metricRegistry) {
+        return new PluginBulkhead(serviceName,
+                                  serviceInterface.getSimpleName(),
+                                  osgiConfig.getPluginBulkheadMaxConcurrentCalls(),
+                                  osgiConfig.getPluginBulkheadMaxWait().getMillis(),
+                                  osgiConfig.getPluginBulkheadCallTimeout().getMillis(),
+                                  parseMethodTimeouts(serviceInterface.getSimpleName(), osgiConfig.getPluginBulkheadMethodTimeouts()),
+                                  metricRegistry);
+    }
+
+    PluginBulkhead(final String serviceName,
+                   final String serviceInterfaceName,
+                   final int maxConcurrentCalls,
+                   final long maxWaitMillis,
+                   final long defaultTimeoutMillis,
+                   final Map<String, Long> methodTimeoutsMillis,
+                   @Nullable final MetricRegistry metricRegistry) {
+        this.name = serviceName + "/" + serviceInterfaceName;
+        this.maxConcurrentCalls = Math.max(1, maxConcurrentCalls);
+        this.permits = new Semaphore(this.maxConcurrentCalls);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMillis));
+        this.defaultTimeoutMillis = Math.max(0, defaultTimeoutMillis);
+        this.methodTimeoutsMillis = methodTimeoutsMillis;
+
+        this.metricRegistry = metricRegistry;
+        if (metricRegistry != null) {
+            final String waitTimerName = DOT_JOINER.join("killbill-service", "kb_plugin_bulkhead_wait", serviceName, serviceInterfaceName);
+            final String rejectedMeterName = DOT_JOINER.join("killbill-service", "kb_plugin_bulkhead_rejected", serviceName, serviceInterfaceName);
+            final String timeoutsMeterName = DOT_JOINER.join("killbill-service", "kb_plugin_bulkhead_timeouts", serviceName, serviceInterfaceName);
+            final String activeGaugeName = DOT_JOINER.join("killbill-service", "kb_plugin_bulkhead_active", serviceName, serviceInterfaceName);
+            this.metricNames = new String[]{waitTimerName, rejectedMeterName, timeoutsMeterName, activeGaugeName};
+            this.waitTimer = metricRegistry.timer(waitTimerName);
+            this.rejectedMeter = metricRegistry.meter(rejectedMeterName);
+            this.timeoutsMeter = metricRegistry.meter(timeoutsMeterName);
+            // The plugin may have been restarted: the gauge now tracks the new bulkhead
+            metricRegistry.remove(activeGaugeName);
+            metricRegistry.gauge(activeGaugeName, new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return getActiveCalls();
+                }
+            });
+        } else {
+            this.metricNames = new String[0];
+            this.waitTimer = null;
+            this.rejectedMeter = null;
+            this.timeoutsMeter = null;
+        }
+    }
+
+    public Object execute(final String methodName, final PluginCall call) throws Throwable {
+        acquire(methodName);
+
+        final long timeoutMillis = getTimeoutMillis(methodName);
+        if (timeoutMillis <= 0) {
+            try {
+                return call.call();
+            } finally {
+                permits.release();
+            }
+        }
+
+        final FutureTask<Object> future = new FutureTask<>(() -> {
+            try {
+                return call.call();
+            } catch (final Exception | Error e) {
+                throw e;
+            } catch (final Throwable t) {
+                throw new UndeclaredThrowableException(t);
+            }
+        });
+        try {
+            getExecutor().execute(() -> {
+                try {
+                    future.run();
+                } finally {
+                    // Even if the call was cancelled before it started
+                    permits.release();
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            permits.release();
+            throw reject("Plugin service " + name + " is shutting down", e);
+        }
+
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            future.cancel(true);
+            if (timeoutsMeter != null) {
+                timeoutsMeter.mark(1);
+            }
+            throw new OSGIServiceCallRejected(String.format("Call to %s.%s timed out after %s ms", name, methodName, timeoutMillis), e);
+        } catch (final ExecutionException e) {
+            throw e.getCause();
+        } catch (final CancellationException e) {
+            throw new OSGIServiceCallRejected(String.format("Call to %s.%s was cancelled", name, methodName), e);
+        } catch (final InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new OSGIServiceCallRejected(String.format("Interrupted while waiting for %s.%s", name, methodName), e);
+        }
+    }
+
+    // Called once the plugin service is unregistered
+    void shutdown() {
+        if (metricRegistry != null) {
+            for (final String metricName : metricNames) {
+                metricRegistry.remove(metricName);
+            }
+        }
+    }
+
+    public int getActiveCalls() {
+        return maxConcurrentCalls - permits.availablePermits();
+    }
+
+    private void acquire(final String methodName) {
+        // Fast path, no need to time it
+        if (permits.tryAcquire()) {
+            if (waitTimer != null) {
+                waitTimer.update(0, TimeUnit.NANOSECONDS);
+            }
+            return;
+        }
+
+        final long start = System.nanoTime();
+        boolean acquired = false;
+        try {
+            acquired = maxWaitNanos > 0 && permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (waitTimer != null) {
+                waitTimer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        if (!acquired) {
+            throw reject(String.format("Plugin service %s is saturated (%s concurrent calls), rejecting call to %s", name, maxConcurrentCalls, methodName), null);
+        }
+    }
+
+    private OSGIServiceCallRejected reject(final String message, @Nullable final Throwable cause) {
+        if (rejectedMeter != null) {
+            rejectedMeter.mark(1);
+        }
+        logger.warn(message);
+        return cause == null ? new OSGIServiceCallRejected(message) : new OSGIServiceCallRejected(message, cause);
+    }
+
+    private long getTimeoutMillis(final String methodName) {
+        final Long methodTimeoutMillis = methodTimeoutsMillis.get(methodName);
+        return methodTimeoutMillis != null ? methodTimeoutMillis : defaultTimeoutMillis;
+    }
+
+    private ExecutorService getExecutor() {
+        ExecutorService currentExecutor = executor;
+        if (currentExecutor == null) {
+            synchronized (this) {
+                currentExecutor = executor;
+                if (currentExecutor == null) {
+                    // The number of threads is bounded by the permits. Idle threads go away, so there is nothing to shut down
+                    final AtomicInteger threadNumber = new AtomicInteger(1);
+                    currentExecutor = new ThreadPoolExecutor(0,
+                                                             Integer.MAX_VALUE,
+                                                             60, TimeUnit.SECONDS,
+                                                             new SynchronousQueue<>(),
+                                                             runnable -> {
+                                                                 final Thread thread = new Thread(runnable, "osgi-bulkhead-" + name + "-" + threadNumber.getAndIncrement());
+                                                                 thread.setDaemon(true);
+                                                                 return thread;
+                                                             });
+                    executor = currentExecutor;
+                }
+            }
+        }
+        return currentExecutor;
+    }
+
+    // Entries look like PaymentPluginApi.purchasePayment=30s, only the ones for that interface are kept
+    private static Map<String, Long> parseMethodTimeouts(final String serviceInterfaceName, @Nullable final Set<String> methodTimeouts) {
+        final Map<String, Long> result = new HashMap<>();
+        if (methodTimeouts == null) {
+            return result;
+        }
+
+        for (final String methodTimeout : methodTimeouts) {
+            final int equals = methodTimeout.indexOf('=');
+            final int dot = methodTimeout.lastIndexOf('.', equals);
+            if (equals < 0 || dot < 0) {
+                logger.warn("Ignoring invalid plugin method timeout {}", methodTimeout);
+                continue;
+            }
+            if (!serviceInterfaceName.equals(methodTimeout.substring(0, dot).trim())) {
+                continue;
+            }
+
+            try {
+                result.put(methodTimeout.substring(dot + 1, equals).trim(), new TimeSpan(methodTimeout.substring(equals + 1).trim()).getMillis());
+            } catch (final IllegalArgumentException e) {
+                logger.warn("Ignoring invalid plugin method timeout {}", methodTimeout, e);
+            }
+        }
+        return result;
+    }
+}
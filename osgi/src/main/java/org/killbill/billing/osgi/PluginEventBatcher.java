@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Observer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.notification.plugin.api.ExtBusEvent;
+import org.killbill.billing.osgi.api.OSGIKillbillEventBatching;
+import org.killbill.queue.retry.QueueRetryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//
+// Accumulates the events for an observer implementing OSGIKillbillEventBatching, and dispatches them as a List once
+// the batch is full or its oldest event has waited long enough. If the batch fails, its events are replayed one at a time,
+// and the ones still failing are handed over to the retry queue (all of them if the batch failed with a QueueRetryException).
+//
+// Buffered events are in memory only: the bus considers them handled, so they are lost if the node crashes.
+//
+class PluginEventBatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(PluginEventBatcher.class);
+
+    private final Observer observer;
+    private final String pluginKey;
+    private final KillbillEventObservable observable;
+    private final ScheduledExecutorService scheduler;
+    private final int maxBatchSize;
+    private final long maxBatchDelayMillis;
+
+    // Guards the current batch
+    private final Object batchLock = new Object();
+    // Guards the dispatch, to make sure batches are seen in order
+    private final Object dispatchLock = new Object();
+
+    private List<ExtBusEvent> batch;
+    // Incremented each time a batch is taken, to ignore stale scheduled flushes
+    private long batchGeneration = 0;
+
+    PluginEventBatcher(final Observer observer,
+                       final String pluginKey,
+                       final KillbillEventObservable observable,
+                       final ScheduledExecutorService scheduler) {
+        this.observer = observer;
+        this.pluginKey = pluginKey;
+        this.observable = observable;
+        this.scheduler = scheduler;
+
+        final OSGIKillbillEventBatching batching = (OSGIKillbillEventBatching) observer;
+        this.maxBatchSize = Math.max(1, batching.getMaxBatchSize());
+        this.maxBatchDelayMillis = Math.max(0, batching.getMaxBatchDelayMillis());
+        this.batch = new ArrayList<>(maxBatchSize);
+    }
+
+    void add(final ExtBusEvent event) {
+        final boolean full;
+        synchronized (batchLock) {
+            batch.add(event);
+            full = batch.size() >= maxBatchSize;
+            if (!full && batch.size() == 1) {
+                final long generation = batchGeneration;
+                scheduler.schedule(() -> flush(generation), maxBatchDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        if (full) {
+            flush(-1);
+        }
+    }
+
+    // Dispatch whatever is pending (e.g. when the plugin goes away)
+    void close() {
+        flush(-1);
+    }
+
+    private void flush(final long expectedGeneration) {
+        synchronized (dispatchLock) {
+            final List<ExtBusEvent> events;
+            synchronized (batchLock) {
+                if (batch.isEmpty() || (expectedGeneration >= 0 && expectedGeneration != batchGeneration)) {
+                    return;
+                }
+                events = batch;
+                batch = new ArrayList<>(maxBatchSize);
+                batchGeneration++;
+            }
+            dispatch(events);
+        }
+    }
+
+    private void dispatch(final List<ExtBusEvent> events) {
+        try {
+            observer.update(observable, Collections.unmodifiableList(events));
+            return;
+        } catch (final QueueRetryException e) {
+            // The plugin requested a retry of the whole batch: honor its schedule
+            for (final ExtBusEvent event : events) {
+                retry(event, e);
+            }
+            return;
+        } catch (final RuntimeException e) {
+            logger.warn("Plugin {} failed to handle a batch of {} events, replaying them one at a time", pluginKey, events.size(), e);
+        }
+
+        for (final ExtBusEvent event : events) {
+            try {
+                observer.update(observable, event);
+            } catch (final QueueRetryException e) {
+                retry(event, e);
+            } catch (final RuntimeException e) {
+                logger.warn("Plugin {} failed to handle event {}", pluginKey, event, e);
+                retry(event, null);
+            }
+        }
+    }
+
+    private void retry(final ExtBusEvent event, final QueueRetryException exception) {
+        try {
+            observable.retry(pluginKey, event, exception);
+        } catch (final RuntimeException e) {
+            logger.warn("Unable to schedule retry of event {} for plugin {}", event, pluginKey, e);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Observer;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.notification.plugin.api.ExtBusEvent;
+import org.killbill.billing.notification.plugin.api.ExtBusEventType;
+import org.killbill.billing.osgi.KillbillEventObservable.EventTypeAware;
+import org.killbill.billing.osgi.KillbillEventObservable.Subscriber;
+import org.killbill.billing.osgi.config.OSGIConfig;
+import org.killbill.billing.osgi.config.OSGIConfig.EventDispatchFullQueuePolicy;
+import org.killbill.billing.osgi.config.OSGIConfig.EventDispatchThreadType;
+import org.killbill.commons.metrics.api.Gauge;
+import org.killbill.commons.metrics.api.Meter;
+import org.killbill.commons.metrics.api.MetricRegistry;
+import org.killbill.commons.utils.Joiner;
+import org.killbill.queue.retry.QueueRetryException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+//
+// Dispatches bus events to the observers of a single plugin, on dedicated threads. Each plugin has its own lanes
+// (bounded queue and consumer thread): a slow plugin only holds up its own lanes, not the bus dispatch thread
+// nor the other plugins. Events for a given account always go to the same lane, so ordering per account is preserved,
+// except for events handed over to the retry queue (failure, full queue with the RETRY policy): these are dispatched
+// again later, after the events for that account which followed them.
+//
+class PluginEventDispatcher implements EventTypeAware {
+
+    private static final Logger logger = LoggerFactory.getLogger(PluginEventDispatcher.class);
+
+    private static final Joiner DOT_JOINER = Joiner.on(".");
+    private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+
+    private final String pluginKey;
+    private final KillbillEventObservable observable;
+    private final EventDispatchFullQueuePolicy fullQueuePolicy;
+    private final MetricRegistry metricRegistry;
+    private final String queueSizeGaugeName;
+    private final Meter droppedMeter;
+    private final Meter retriedMeter;
+    private final Meter errorsMeter;
+    private final Lane[] lanes;
+
+    // Copy-on-write, only modified under the observable lock
+    private volatile Subscriber[] subscribers = NO_SUBSCRIBERS;
+    private volatile boolean running = true;
+
+    PluginEventDispatcher(final String pluginKey,
+                          final KillbillEventObservable observable,
+                          final OSGIConfig osgiConfig,
+                          final MetricRegistry metricRegistry) {
+        this.pluginKey = pluginKey;
+        this.observable = observable;
+        this.fullQueuePolicy = osgiConfig.getEventDispatchFullQueuePolicy();
+        this.metricRegistry = metricRegistry;
+        this.queueSizeGaugeName = DOT_JOINER.join("killbill-service", "kb_plugin_event_queue_size", pluginKey);
+        this.droppedMeter = metricRegistry.meter(DOT_JOINER.join("killbill-service", "kb_plugin_event_dropped", pluginKey));
+        this.retriedMeter = metricRegistry.meter(DOT_JOINER.join("killbill-service", "kb_plugin_event_retried", pluginKey));
+        this.errorsMeter = metricRegistry.meter(DOT_JOINER.join("killbill-service", "kb_plugin_event_errors", pluginKey));
+
+        final int nbLanes = Math.max(1, osgiConfig.getEventDispatchLanes());
+        final int capacity = Math.max(1, osgiConfig.getEventDispatchQueueCapacity());
+        this.lanes = new Lane[nbLanes];
+        for (int i = 0; i < nbLanes; i++) {
+            lanes[i] = new Lane(capacity, "osgi-event-dispatcher-" + pluginKey + "-" + i, osgiConfig.getEventDispatchThreadType());
+        }
+
+        metricRegistry.gauge(queueSizeGaugeName, new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getQueueSize();
+            }
+        });
+    }
+
+    public String getPluginKey() {
+        return pluginKey;
+    }
+
+    void addSubscriber(final Subscriber subscriber) {
+        final Subscriber[] current = subscribers;
+        final Subscriber[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = subscriber;
+        subscribers = updated;
+    }
+
+    // Returns true if the observer was one of ours
+    boolean removeObserver(final Observer observer) {
+        final List<Subscriber> updated = new ArrayList<>(Arrays.asList(subscribers));
+        final boolean removed = updated.removeIf(subscriber -> subscriber.observer.equals(observer));
+        subscribers = updated.toArray(NO_SUBSCRIBERS);
+        return removed;
+    }
+
+    boolean hasSubscribers() {
+        return subscribers.length > 0;
+    }
+
+    @Override
+    public boolean accepts(final ExtBusEventType eventType) {
+        for (final Subscriber subscriber : subscribers) {
+            if (subscriber.accepts(eventType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean accepts(final ExtBusEvent event) {
+        for (final Subscriber subscriber : subscribers) {
+            if (subscriber.accepts(event)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void start() {
+        for (final Lane lane : lanes) {
+            lane.thread.start();
+        }
+    }
+
+    //
+    // Called on the bus dispatch thread
+    //
+    void dispatch(final ExtBusEvent event) {
+        final Lane lane = lanes[laneIndex(event)];
+        if (lane.queue.offer(event)) {
+            return;
+        }
+
+        switch (fullQueuePolicy) {
+            case DROP:
+                droppedMeter.mark(1);
+                logger.warn("Dropping event {} for plugin {}: dispatch queue is full", event, pluginKey);
+                break;
+            case RETRY:
+                retry(event, null);
+                break;
+            case BLOCK:
+            default:
+                enqueueBlocking(lane, event);
+                break;
+        }
+    }
+
+    //
+    // Called when the plugin is gone: pending events are handed over to the retry queue, so they are
+    // dispatched again once the plugin comes back (e.g. after a restart)
+    //
+    void stop() {
+        running = false;
+        for (final Lane lane : lanes) {
+            lane.thread.interrupt();
+        }
+
+        final List<ExtBusEvent> pending = new ArrayList<>();
+        for (final Lane lane : lanes) {
+            lane.queue.drainTo(pending);
+        }
+        for (final ExtBusEvent event : pending) {
+            retry(event, null);
+        }
+
+        metricRegistry.remove(queueSizeGaugeName);
+    }
+
+    int getQueueSize() {
+        int size = 0;
+        for (final Lane lane : lanes) {
+            size += lane.queue.size();
+        }
+        return size;
+    }
+
+    private void enqueueBlocking(final Lane lane, final ExtBusEvent event) {
+        try {
+            while (running) {
+                if (lane.queue.offer(event, 1, TimeUnit.SECONDS)) {
+                    return;
+                }
+            }
+            // Plugin was stopped while we were waiting
+            retry(event, null);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while dispatching event {} to plugin {}", event, pluginKey);
+            retry(event, null);
+        }
+    }
+
+    private void deliver(final ExtBusEvent event) {
+        final Subscriber[] local = subscribers;
+        // Same order as Observable#notifyObservers
+        for (int i = local.length - 1; i >= 0; i--) {
+            if (!local[i].accepts(event)) {
+                continue;
+            }
+            try {
+                local[i].deliver(observable, event);
+            } catch (final QueueRetryException e) {
+                // The plugin requested a retry: remaining observers for that plugin will see the event then
+                retry(event, e);
+                return;
+            } catch (final RuntimeException e) {
+                // As with synchronous dispatch, the failure goes back to the bus retry mechanism
+                errorsMeter.mark(1);
+                logger.warn("Plugin {} failed to handle event {}, scheduling a retry", pluginKey, event, e);
+                retry(event, null);
+                return;
+            }
+        }
+    }
+
+    private void retry(final ExtBusEvent event, final QueueRetryException exception) {
+        retriedMeter.mark(1);
+        try {
+            observable.retry(pluginKey, event, exception);
+        } catch (final RuntimeException e) {
+            logger.warn("Unable to schedule retry of event {} for plugin {}", event, pluginKey, e);
+        }
+    }
+
+    private int laneIndex(final ExtBusEvent event) {
+        if (lanes.length == 1) {
+            return 0;
+        }
+        final UUID accountId = event.getAccountId();
+        return accountId == null ? 0 : Math.floorMod(accountId.hashCode(), lanes.length);
+    }
+
+    private final class Lane implements Runnable {
+
+        private final BlockingQueue<ExtBusEvent> queue;
+        private final Thread thread;
+
+        private Lane(final int capacity, final String threadName, final EventDispatchThreadType threadType) {
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.thread = newThread(threadType, threadName, this);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                final ExtBusEvent event;
+                try {
+                    event = queue.take();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                deliver(event);
+            }
+        }
+    }
+
+    private static Thread newThread(final EventDispatchThreadType threadType, final String name, final Runnable runnable) {
+        if (threadType == EventDispatchThreadType.VIRTUAL) {
+            // Use reflection, to keep running on JVMs without virtual threads support
+            try {
+                final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                final Object namedBuilder = builderClass.getMethod("name", String.class).invoke(builder, name);
+                return (Thread) builderClass.getMethod("unstarted", Runnable.class).invoke(namedBuilder, runnable);
+            } catch (final Exception e) {
+                logger.warn("Virtual threads aren't available, using platform threads to dispatch events", e);
+            }
+        }
+
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
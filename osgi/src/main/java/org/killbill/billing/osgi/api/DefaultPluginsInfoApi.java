@@ -23,7 +23,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -66,7 +65,7 @@ public class DefaultPluginsInfoApi implements PluginsInfoApi {
 
             final BundleWithMetadata installedBundleOrNull = bundleRegistry.getBundle(pluginName);
 
-            final LinkedList<PluginConfig> pluginVersions = pluginFinder.getAllPlugins().get(pluginName);
+            final List<PluginConfig> pluginVersions = pluginFinder.getAllPlugins().get(pluginName);
             boolean isSelectedForStart = true; // The first one in the list is the one selected for start
             for (final PluginConfig curVersion : pluginVersions) {
                 final PluginInfo pluginInfo;
@@ -26,6 +26,7 @@ import org.skife.config.Config;
 import org.skife.config.Default;
 import org.skife.config.DefaultNull;
 import org.skife.config.Description;
+import org.skife.config.TimeSpan;
 
 public interface OSGIConfig extends KillbillPlatformConfig {
 
@@ -44,6 +45,11 @@ public interface OSGIConfig extends KillbillPlatformConfig {
     @Description("Bundles cache name")
     public String getOSGIBundleCacheName();
 
+    @Config("org.killbill.osgi.bundle.cache.warmStart")
+    @Default("false")
+    @Description("Whether to keep the bundles cache across restarts, only updating the bundles whose jar has changed")
+    public boolean isOSGIBundleCacheWarmStartEnabled();
+
     @Config("org.killbill.osgi.bundle.install.dir")
     @Default("/var/tmp/bundles")
     @Description("Bundles install directory")
@@ -276,4 +282,111 @@ public interface OSGIConfig extends KillbillPlatformConfig {
     @DefaultNull
     public Set<String> getMandatoryPlugins();
 
+    @Config("org.killbill.osgi.event.dispatch.async")
+    @Default("false")
+    @Description("Whether bus events should be dispatched to plugins asynchronously, using per-plugin queues")
+    public boolean isEventDispatchAsync();
+
+    @Config("org.killbill.osgi.event.dispatch.queue.capacity")
+    @Default("1000")
+    @Description("Maximum number of pending bus events per plugin (and per lane) when dispatching asynchronously")
+    public int getEventDispatchQueueCapacity();
+
+    @Config("org.killbill.osgi.event.dispatch.lanes")
+    @Default("1")
+    @Description("Number of lanes (consumer threads) per plugin. Events for a given account are always dispatched on the same lane")
+    public int getEventDispatchLanes();
+
+    @Config("org.killbill.osgi.event.dispatch.thread.type")
+    @Default("PLATFORM")
+    @Description("Type of threads used to dispatch bus events to plugins: PLATFORM or VIRTUAL (requires Java 21+)")
+    public EventDispatchThreadType getEventDispatchThreadType();
+
+    @Config("org.killbill.osgi.event.dispatch.full.queue.policy")
+    @Default("BLOCK")
+    @Description("What to do when a plugin queue is full: BLOCK the bus dispatch thread, DROP the event or RETRY it later via the retry notification queue. " +
+                 "Events retried (because of RETRY or of a plugin failure) are dispatched after the subsequent events for the same account, i.e. ordering per account isn't preserved for these")
+    public EventDispatchFullQueuePolicy getEventDispatchFullQueuePolicy();
+
+    @Config("org.killbill.osgi.event.dispatch.retry.delay")
+    @Default("1m")
+    @Description("Delay between retries of an event which could not be dispatched to a plugin")
+    public TimeSpan getEventDispatchRetryDelay();
+
+    @Config("org.killbill.osgi.event.dispatch.retry.max")
+    @Default("10")
+    @Description("Maximum number of retries of an event which could not be dispatched to a plugin")
+    public int getEventDispatchRetryMax();
+
+    @Config("org.killbill.osgi.plugin.bulkhead.enabled")
+    @Default("false")
+    @Description("Whether calls to plugin services should go through a bulkhead (per plugin and service interface)")
+    public boolean isPluginBulkheadEnabled();
+
+    @Config("org.killbill.osgi.plugin.bulkhead.maxConcurrentCalls")
+    @Default("100")
+    @Description("Maximum number of concurrent calls to a plugin service interface")
+    public int getPluginBulkheadMaxConcurrentCalls();
+
+    @Config("org.killbill.osgi.plugin.bulkhead.maxWait")
+    @Default("0s")
+    @Description("Maximum time a call waits for a slot when the plugin service is saturated, before being rejected")
+    public TimeSpan getPluginBulkheadMaxWait();
+
+    @Config("org.killbill.osgi.plugin.bulkhead.callTimeout")
+    @Default("0s")
+    @Description("Default timeout for calls to plugin services (0 to disable). Calls with a timeout run on a dedicated thread")
+    public TimeSpan getPluginBulkheadCallTimeout();
+
+    @Config("org.killbill.osgi.plugin.bulkhead.methodTimeouts")
+    @Description("Comma separated list of per-method timeouts, e.g. PaymentPluginApi.purchasePayment=30s")
+    @DefaultNull
+    public Set<String> getPluginBulkheadMethodTimeouts();
+
+    @Config("org.killbill.osgi.bundle.startup.parallelism")
+    @Default("1")
+    @Description("Number of threads used to install and start the bundles at startup (1 to install and start them one at a time)")
+    public int getBundleStartupParallelism();
+
+    @Config("org.killbill.osgi.plugin.restart.swap")
+    @Default("false")
+    @Description("Whether restarting a plugin with another version should start the new version side by side and swap the services, instead of stopping the current version first")
+    public boolean isPluginRestartSwapEnabled();
+
+    @Config("org.killbill.osgi.plugin.restart.swap.drainTimeout")
+    @Default("30s")
+    @Description("Maximum time to wait for the in-flight calls to the previous version of a plugin to complete, before stopping it")
+    public TimeSpan getPluginRestartSwapDrainTimeout();
+
+    @Config("org.killbill.osgi.logger.async")
+    @Default("false")
+    @Description("Whether core log entries should be forwarded to the OSGI LogService asynchronously, from a bounded queue")
+    public boolean isLoggerForwardingAsync();
+
+    @Config("org.killbill.osgi.logger.queue.capacity")
+    @Default("10000")
+    @Description("Maximum number of pending core log entries when forwarding them asynchronously")
+    public int getLoggerForwardingQueueCapacity();
+
+    @Config("org.killbill.osgi.logger.full.queue.policy")
+    @Default("DROP")
+    @Description("What to do when the log forwarding queue is full: DROP the new entry, DROP_OLDEST entry or forward it on the logging thread (CALLER_RUNS)")
+    public LoggerFullQueuePolicy getLoggerForwardingFullQueuePolicy();
+
+    public enum EventDispatchThreadType {
+        PLATFORM,
+        VIRTUAL
+    }
+
+    public enum EventDispatchFullQueuePolicy {
+        BLOCK,
+        DROP,
+        RETRY
+    }
+
+    public enum LoggerFullQueuePolicy {
+        DROP,
+        DROP_OLDEST,
+        CALLER_RUNS
+    }
 }
@@ -19,10 +19,13 @@
 
 package org.killbill.billing.osgi.http;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
 import jakarta.inject.Singleton;
 import jakarta.servlet.Servlet;
 
@@ -36,10 +39,10 @@ public class DefaultServletRouter implements OSGIServiceRegistration<Servlet> {
 
     private static final Logger logger = LoggerFactory.getLogger(DefaultServletRouter.class);
 
-    // Internal Servlet routing table: map of plugin prefixes to servlet instances.
-    // A plugin prefix can be /foo, /foo/bar, /foo/bar/baz, ... and is mounted on /plugins/<pluginPrefix>
-    private final Map<String, Servlet> pluginPathServlets = new HashMap<String, Servlet>();
-    private final Map<String, OSGIServiceDescriptor> pluginRegistrations = new HashMap<String, OSGIServiceDescriptor>();
+    // Internal Servlet routing table (map of plugin prefixes to servlet instances), plugin registrations
+    // and lookup structure. A plugin prefix can be /foo, /foo/bar, /foo/bar/baz, ... and is mounted on /plugins/<pluginPrefix>
+    // The state is immutable: changes (under the router lock) publish a new snapshot, so requests are routed without locking
+    private volatile RoutingState state = RoutingState.EMPTY;
 
     @Override
     public void registerService(final OSGIServiceDescriptor desc, final Servlet httpServlet) {
@@ -52,28 +55,21 @@ public class DefaultServletRouter implements OSGIServiceRegistration<Servlet> {
 
         logger.info("Registering OSGI servlet at " + pathPrefix);
         synchronized (this) {
-            registerServletInternal(pathPrefix, httpServlet);
-            registerServiceInternal(desc);
+            final Map<String, OSGIServiceDescriptor> registrations = new HashMap<String, OSGIServiceDescriptor>(state.registrations);
+            registrations.put(desc.getRegistrationName(), desc);
+            publishState(pathPrefix, state.withServlet(pathPrefix, httpServlet, registrations));
         }
     }
 
-    public void registerServiceFromPath(final String path, final Servlet httpServlet) {
+    public synchronized void registerServiceFromPath(final String path, final Servlet httpServlet) {
         final String pathPrefix = sanitizePathPrefix(path);
-        registerServletInternal(pathPrefix, httpServlet);
-    }
-
-    private void registerServletInternal(final String pathPrefix, final Servlet httpServlet) {
-        pluginPathServlets.put(pathPrefix, httpServlet);
-    }
-
-    private void registerServiceInternal(final OSGIServiceDescriptor desc) {
-        pluginRegistrations.put(desc.getRegistrationName(), desc);
+        publishState(pathPrefix, state.withServlet(pathPrefix, httpServlet, state.registrations));
     }
 
     @Override
     public void unregisterService(final String serviceName) {
         synchronized (this) {
-            final OSGIServiceDescriptor desc = pluginRegistrations.get(serviceName);
+            final OSGIServiceDescriptor desc = state.registrations.get(serviceName);
             if (desc != null) {
                 final String pathPrefix = getPathPrefixFromDescriptor(desc);
                 if (pathPrefix == null) {
@@ -82,35 +78,37 @@ public class DefaultServletRouter implements OSGIServiceRegistration<Servlet> {
                 }
 
                 logger.info("Unregistering OSGI servlet " + desc.getRegistrationName() + " at path " + pathPrefix);
-                synchronized (this) {
-                    unRegisterServletInternal(pathPrefix);
-                    unRegisterServiceInternal(desc);
-                }
+                final Map<String, OSGIServiceDescriptor> registrations = new HashMap<String, OSGIServiceDescriptor>(state.registrations);
+                registrations.remove(desc.getRegistrationName());
+                publishState(pathPrefix, state.withoutServlet(pathPrefix, registrations));
             }
         }
     }
 
-    public void unregisterServiceFromPath(final String path) {
+    public synchronized void unregisterServiceFromPath(final String path) {
         final String pathPrefix = sanitizePathPrefix(path);
-        unRegisterServletInternal(pathPrefix);
-    }
-
-    private Servlet unRegisterServletInternal(final String pathPrefix) {
-        return pluginPathServlets.remove(pathPrefix);
+        publishState(pathPrefix, state.withoutServlet(pathPrefix, state.registrations));
     }
 
-    private OSGIServiceDescriptor unRegisterServiceInternal(final OSGIServiceDescriptor desc) {
-        return pluginRegistrations.remove(desc.getRegistrationName());
+    // Called under the router lock
+    private void publishState(final String pathPrefix, final RoutingState newState) {
+        final ServletRoute previousRoute = state.routesByPrefix.get(pathPrefix);
+        state = newState;
+        if (previousRoute != null && previousRoute != newState.routesByPrefix.get(pathPrefix)) {
+            // Requests already dispatched to the previous servlet are left to complete
+            previousRoute.close();
+        }
     }
 
     @Override
     public Servlet getServiceForName(final String serviceName) {
-        final OSGIServiceDescriptor desc = pluginRegistrations.get(serviceName);
+        final RoutingState currentState = state;
+        final OSGIServiceDescriptor desc = currentState.registrations.get(serviceName);
         if (desc == null) {
             return null;
         }
-        final String registeredPath = getPathPrefixFromDescriptor(desc);
-        return pluginPathServlets.get(registeredPath);
+        final ServletRoute route = currentState.routesByPrefix.get(getPathPrefixFromDescriptor(desc));
+        return route == null ? null : route.getServlet();
     }
 
     private String getPathPrefixFromDescriptor(final OSGIServiceDescriptor desc) {
@@ -118,12 +116,19 @@ public class DefaultServletRouter implements OSGIServiceRegistration<Servlet> {
     }
 
     public Servlet getServiceForPath(final String path) {
-        return getServletForPathPrefix(path);
+        final ServletRoute route = getRouteForPath(path);
+        return route == null ? null : route.getServlet();
+    }
+
+    // Servlet and plugin prefix for the longest registered prefix matching the path, in a single lookup
+    @Nullable
+    public ServletRoute getRouteForPath(final String path) {
+        return state.routes.find(path);
     }
 
     @Override
     public Set<String> getAllServices() {
-        return pluginRegistrations.keySet();
+        return state.registrations.keySet();
     }
 
     @Override
@@ -131,20 +136,9 @@ public class DefaultServletRouter implements OSGIServiceRegistration<Servlet> {
         return Servlet.class;
     }
 
-    // TODO PIERRE Naive implementation - we should rather switch to e.g. heap tree
     public String getPluginPrefixForPath(final String pathPrefix) {
-        String bestMatch = null;
-        for (final String potentialMatch : pluginPathServlets.keySet()) {
-            if (pathPrefix.startsWith(potentialMatch) && (bestMatch == null || bestMatch.length() < potentialMatch.length())) {
-                bestMatch = potentialMatch;
-            }
-        }
-        return bestMatch;
-    }
-
-    private Servlet getServletForPathPrefix(final String pathPrefix) {
-        final String bestMatch = getPluginPrefixForPath(pathPrefix);
-        return bestMatch == null ? null : pluginPathServlets.get(bestMatch);
+        final ServletRoute route = getRouteForPath(pathPrefix);
+        return route == null ? null : route.getPluginPrefix();
     }
 
     private static String sanitizePathPrefix(final String inputPath) {
@@ -158,6 +152,183 @@ public class DefaultServletRouter implements OSGIServiceRegistration<Servlet> {
         } else {
             pathPrefix = inputPath;
         }
-        return pathPrefix;
+
+        // Drop trailing slashes: /foo/ and /foo are the same route, and the plugin prefix is stripped from the request path
+        int end = pathPrefix.length();
+        while (end > 1 && pathPrefix.charAt(end - 1) == '/') {
+            end--;
+        }
+        return pathPrefix.substring(0, end);
+    }
+
+    private static final class RoutingState {
+
+        private static final RoutingState EMPTY = new RoutingState(Collections.<String, ServletRoute>emptyMap(),
+                                                                   Collections.<String, OSGIServiceDescriptor>emptyMap());
+
+        private final Map<String, ServletRoute> routesByPrefix;
+        private final Map<String, OSGIServiceDescriptor> registrations;
+        private final RouteNode routes;
+
+        private RoutingState(final Map<String, ServletRoute> routesByPrefix, final Map<String, OSGIServiceDescriptor> registrations) {
+            this.routesByPrefix = Collections.unmodifiableMap(routesByPrefix);
+            this.registrations = Collections.unmodifiableMap(registrations);
+            this.routes = RouteNode.build(routesByPrefix);
+        }
+
+        private RoutingState withServlet(final String pathPrefix, final Servlet servlet, final Map<String, OSGIServiceDescriptor> newRegistrations) {
+            final Map<String, ServletRoute> newRoutesByPrefix = new HashMap<String, ServletRoute>(routesByPrefix);
+            final ServletRoute existingRoute = routesByPrefix.get(pathPrefix);
+            // Same servlet registered again at that prefix: keep its route, so that it isn't initialized twice
+            final ServletRoute route = existingRoute != null && existingRoute.getServlet() == servlet ? existingRoute : new ServletRoute(pathPrefix, servlet);
+            newRoutesByPrefix.put(pathPrefix, route);
+            return new RoutingState(newRoutesByPrefix, newRegistrations);
+        }
+
+        private RoutingState withoutServlet(final String pathPrefix, final Map<String, OSGIServiceDescriptor> newRegistrations) {
+            final Map<String, ServletRoute> newRoutesByPrefix = new HashMap<String, ServletRoute>(routesByPrefix);
+            newRoutesByPrefix.remove(pathPrefix);
+            return new RoutingState(newRoutesByPrefix, newRegistrations);
+        }
+    }
+
+    //
+    // A servlet mounted at a given prefix. Routes are kept across snapshots, so the initialization flag
+    // follows the servlet until it is unregistered (or replaced).
+    //
+    public static final class ServletRoute {
+
+        private final String pluginPrefix;
+        private final Servlet servlet;
+        private volatile boolean initialized = false;
+        // Only for servlets implementing OSGIKillbillAsyncServlet, created on first request
+        private volatile PluginServletExecutor executor;
+        // Guarded by this
+        private boolean closed = false;
+
+        private ServletRoute(final String pluginPrefix, final Servlet servlet) {
+            this.pluginPrefix = pluginPrefix;
+            this.servlet = servlet;
+        }
+
+        public String getPluginPrefix() {
+            return pluginPrefix;
+        }
+
+        public Servlet getServlet() {
+            return servlet;
+        }
+
+        public boolean isInitialized() {
+            return initialized;
+        }
+
+        void markInitialized() {
+            initialized = true;
+        }
+
+        PluginServletExecutor getExecutor() {
+            return executor;
+        }
+
+        // Returns false if the servlet was unregistered in the meantime
+        synchronized boolean setExecutor(final PluginServletExecutor executor) {
+            if (closed) {
+                return false;
+            }
+            this.executor = executor;
+            return true;
+        }
+
+        private void close() {
+            final PluginServletExecutor currentExecutor;
+            synchronized (this) {
+                closed = true;
+                currentExecutor = executor;
+                executor = null;
+            }
+            if (currentExecutor != null) {
+                currentExecutor.shutdown();
+            }
+        }
+    }
+
+    //
+    // Path segment trie: /foo/bar is stored under the foo node, as the bar child. Lookups walk down the segments
+    // of the request path and keep the deepest route seen, i.e. the longest matching prefix. Prefixes only match
+    // whole segments (/foo matches /foo and /foo/bar, but not /foobar).
+    //
+    private static final class RouteNode {
+
+        private static final RouteNode EMPTY = new RouteNode(null, Collections.<String, RouteNode>emptyMap());
+
+        // Null if no servlet is mounted at this node
+        private final ServletRoute route;
+        private final Map<String, RouteNode> children;
+
+        private RouteNode(@Nullable final ServletRoute route, final Map<String, RouteNode> children) {
+            this.route = route;
+            this.children = children;
+        }
+
+        private ServletRoute find(final String path) {
+            if (path == null) {
+                return null;
+            }
+
+            RouteNode node = this;
+            ServletRoute bestMatch = node.route;
+            int start = 0;
+            while (start < path.length()) {
+                if (path.charAt(start) == '/') {
+                    start++;
+                    continue;
+                }
+
+                final int slash = path.indexOf('/', start);
+                final int end = slash < 0 ? path.length() : slash;
+                node = node.children.get(path.substring(start, end));
+                if (node == null) {
+                    break;
+                }
+                if (node.route != null) {
+                    bestMatch = node.route;
+                }
+                start = end;
+            }
+            return bestMatch;
+        }
+
+        private static RouteNode build(final Map<String, ServletRoute> routesByPrefix) {
+            final Builder root = new Builder();
+            for (final Map.Entry<String, ServletRoute> entry : routesByPrefix.entrySet()) {
+                Builder node = root;
+                for (final String segment : entry.getKey().split("/")) {
+                    if (!segment.isEmpty()) {
+                        node = node.children.computeIfAbsent(segment, s -> new Builder());
+                    }
+                }
+                node.route = entry.getValue();
+            }
+            return root.build();
+        }
+
+        private static final class Builder {
+
+            private final Map<String, Builder> children = new HashMap<String, Builder>();
+            private ServletRoute route;
+
+            private RouteNode build() {
+                if (children.isEmpty()) {
+                    return new RouteNode(route, Collections.<String, RouteNode>emptyMap());
+                }
+
+                final Map<String, RouteNode> builtChildren = new HashMap<String, RouteNode>(children.size() * 2);
+                for (final Map.Entry<String, Builder> entry : children.entrySet()) {
+                    builtChildren.put(entry.getKey(), entry.getValue().build());
+                }
+                return new RouteNode(route, builtChildren);
+            }
+        }
     }
 }
@@ -20,33 +20,42 @@
 package org.killbill.billing.osgi.http;
 
 import java.io.IOException;
-import java.util.Vector;
 
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
+import jakarta.servlet.AsyncContext;
 import jakarta.servlet.Servlet;
 import jakarta.servlet.ServletConfig;
 import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletRequestWrapper;
 import jakarta.servlet.http.HttpServletResponse;
 
+import org.killbill.billing.osgi.api.OSGIKillbillAsyncServlet;
+import org.killbill.billing.osgi.http.DefaultServletRouter.ServletRoute;
+import org.killbill.commons.metrics.api.MetricRegistry;
 import org.killbill.commons.utils.annotation.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 @Singleton
 public class OSGIServlet extends HttpServlet {
 
     private static final long serialVersionUID = 1L;
 
-    @VisibleForTesting
-    final Vector<Servlet> initializedServlets = new Vector<>();
-    private final Object servletsMonitor = new Object();
+    private static final Logger logger = LoggerFactory.getLogger(OSGIServlet.class);
 
     @Inject
     @VisibleForTesting
     transient DefaultServletRouter servletRouter;
 
+    @Inject
+    @VisibleForTesting
+    transient MetricRegistry metricRegistry;
+
     @Override
     protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
         serviceViaPlugin(req, resp);
@@ -81,25 +90,149 @@ public class OSGIServlet extends HttpServlet {
         // requestPath is the full path minus the JAX-RS prefix (/plugins)
         final String requestPath = req.getServletPath() + req.getPathInfo();
 
-        final Servlet pluginServlet = getPluginServlet(requestPath);
+        final ServletRoute route = getPluginRoute(requestPath);
+
+        if (route != null) {
+            final Servlet pluginServlet = route.getServlet();
+            initializeServletIfNeeded(req, route);
+            // For wrapped services, that's the classloader of the proxy, i.e. the plugin one
+            final ClassLoader pluginClassLoader = pluginServlet.getClass().getClassLoader();
+            final OSGIServletRequestWrapper requestWrapper = new OSGIServletRequestWrapper(req, resp, route.getPluginPrefix(), pluginClassLoader);
 
-        if (pluginServlet != null) {
-            initializeServletIfNeeded(req, pluginServlet);
-            final OSGIServletRequestWrapper requestWrapper = new OSGIServletRequestWrapper(req, servletRouter.getPluginPrefixForPath(requestPath));
-            pluginServlet.service(requestWrapper, resp);
+            final PluginServletExecutor executor = req.isAsyncSupported() ? getExecutorIfNeeded(route, pluginClassLoader) : null;
+            if (executor != null) {
+                serviceViaPluginExecutor(pluginServlet, requestWrapper, resp, executor);
+            } else {
+                pluginServlet.service(requestWrapper, resp);
+            }
         } else {
             resp.sendError(404);
         }
     }
 
+    private void serviceViaPluginExecutor(final Servlet pluginServlet,
+                                          final OSGIServletRequestWrapper requestWrapper,
+                                          final HttpServletResponse resp,
+                                          final PluginServletExecutor executor) throws IOException {
+        final AsyncContext asyncContext = requestWrapper.startExecutorAsync();
+        // Same as synchronous processing: no timeout
+        asyncContext.setTimeout(0);
+
+        final boolean submitted = executor.submit(() -> {
+            try {
+                pluginServlet.service(requestWrapper, resp);
+            } catch (final Exception e) {
+                logger.warn("Plugin servlet {} failed to process request {}", requestWrapper.pluginPrefix, requestWrapper.getRequestURI(), e);
+                sendErrorIfPossible(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            } finally {
+                if (!requestWrapper.isAsyncStartedByPlugin()) {
+                    asyncContext.complete();
+                }
+            }
+        });
+
+        if (!submitted) {
+            logger.warn("Rejecting request {}: too many pending requests for plugin servlet {}", requestWrapper.getRequestURI(), requestWrapper.pluginPrefix);
+            sendErrorIfPossible(resp, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            asyncContext.complete();
+        }
+    }
+
+    private PluginServletExecutor getExecutorIfNeeded(final ServletRoute route, final ClassLoader pluginClassLoader) {
+        if (!(route.getServlet() instanceof OSGIKillbillAsyncServlet)) {
+            return null;
+        }
+
+        final PluginServletExecutor executor = route.getExecutor();
+        if (executor != null) {
+            return executor;
+        }
+
+        synchronized (route) {
+            if (route.getExecutor() != null) {
+                return route.getExecutor();
+            }
+
+            final OSGIKillbillAsyncServlet asyncServlet = (OSGIKillbillAsyncServlet) route.getServlet();
+            final PluginServletExecutor newExecutor = new PluginServletExecutor(route.getPluginPrefix(),
+                                                                                asyncServlet.getMaxConcurrentRequests(),
+                                                                                asyncServlet.getMaxQueuedRequests(),
+                                                                                pluginClassLoader,
+                                                                                metricRegistry);
+            if (!route.setExecutor(newExecutor)) {
+                // Servlet was unregistered in the meantime, process that last request synchronously
+                newExecutor.shutdown();
+                return null;
+            }
+            return newExecutor;
+        }
+    }
+
+    private static void sendErrorIfPossible(final HttpServletResponse resp, final int status) {
+        if (resp.isCommitted()) {
+            return;
+        }
+        try {
+            resp.sendError(status);
+        } catch (final IOException | IllegalStateException e) {
+            logger.debug("Unable to send error {}", status, e);
+        }
+    }
+
     // Request wrapper to hide the plugin prefix to OSGI servlets (the plugin prefix serves as a servlet path)
+    // Asynchronous processing started by the plugin goes through the wrapper, so the plugin keeps seeing that view
+    // of the request, and tasks started through the AsyncContext run with the plugin classloader
     private static final class OSGIServletRequestWrapper extends HttpServletRequestWrapper {
 
+        private final HttpServletResponse response;
         private final String pluginPrefix;
+        private final ClassLoader pluginClassLoader;
 
-        public OSGIServletRequestWrapper(final HttpServletRequest request, final String pluginPrefix) {
+        private volatile PluginAsyncContext asyncContext;
+        // Set if the request is processed on the plugin executor
+        private volatile boolean executorAsync = false;
+        private volatile boolean asyncStartedByPlugin = false;
+
+        public OSGIServletRequestWrapper(final HttpServletRequest request,
+                                         final HttpServletResponse response,
+                                         final String pluginPrefix,
+                                         final ClassLoader pluginClassLoader) {
             super(request);
+            this.response = response;
             this.pluginPrefix = pluginPrefix;
+            this.pluginClassLoader = pluginClassLoader;
+        }
+
+        @Override
+        public AsyncContext startAsync() {
+            return startAsync(this, response);
+        }
+
+        @Override
+        public AsyncContext startAsync(final ServletRequest servletRequest, final ServletResponse servletResponse) {
+            if (executorAsync) {
+                // Already started by us: the plugin now owns the completion of the request
+                asyncStartedByPlugin = true;
+                return asyncContext;
+            }
+            asyncContext = new PluginAsyncContext(super.startAsync(servletRequest, servletResponse), pluginClassLoader);
+            return asyncContext;
+        }
+
+        @Override
+        public AsyncContext getAsyncContext() {
+            final PluginAsyncContext current = asyncContext;
+            return current != null ? current : super.getAsyncContext();
+        }
+
+        private AsyncContext startExecutorAsync() {
+            final AsyncContext context = startAsync(this, response);
+            executorAsync = true;
+            return context;
+        }
+
+        private boolean isAsyncStartedByPlugin() {
+            return asyncStartedByPlugin;
         }
 
         @Override
@@ -114,24 +247,25 @@ public class OSGIServlet extends HttpServlet {
     }
 
     // Hack to bridge the gap between the web container and the OSGI servlets
-    private void initializeServletIfNeeded(final HttpServletRequest req, final Servlet pluginServlet) throws ServletException {
-        if (!initializedServlets.contains(pluginServlet)) {
-            synchronized (servletsMonitor) {
-                if (!initializedServlets.contains(pluginServlet)) {
+    private void initializeServletIfNeeded(final HttpServletRequest req, final ServletRoute route) throws ServletException {
+        if (!route.isInitialized()) {
+            // Only requests for that servlet wait for its initialization
+            synchronized (route) {
+                if (!route.isInitialized()) {
                     final ServletConfig servletConfig = (ServletConfig) req.getAttribute("killbill.osgi.servletConfig");
                     if (servletConfig != null) {
                         // TODO PIERRE The servlet will never be destroyed!
-                        pluginServlet.init(servletConfig);
-                        initializedServlets.add(pluginServlet);
+                        route.getServlet().init(servletConfig);
+                        route.markInitialized();
                     }
                 }
             }
         }
     }
 
-    private Servlet getPluginServlet(final String requestPath) {
+    private ServletRoute getPluginRoute(final String requestPath) {
         if (requestPath != null) {
-            return servletRouter.getServiceForPath(requestPath);
+            return servletRouter.getRouteForPath(requestPath);
         } else {
             return null;
         }
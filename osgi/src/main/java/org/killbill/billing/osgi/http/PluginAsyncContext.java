@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi.http;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+
+//
+// AsyncContext handed over to plugin servlets: tasks started through it run with the plugin classloader
+// as context classloader, like the rest of the plugin request processing
+//
+class PluginAsyncContext implements AsyncContext {
+
+    private final AsyncContext delegate;
+    private final ClassLoader pluginClassLoader;
+
+    PluginAsyncContext(final AsyncContext delegate, final ClassLoader pluginClassLoader) {
+        this.delegate = delegate;
+        this.pluginClassLoader = pluginClassLoader;
+    }
+
+    @Override
+    public void start(final Runnable run) {
+        delegate.start(() -> {
+            final Thread currentThread = Thread.currentThread();
+            final ClassLoader initialContextClassLoader = currentThread.getContextClassLoader();
+            currentThread.setContextClassLoader(pluginClassLoader);
+            try {
+                run.run();
+            } finally {
+                currentThread.setContextClassLoader(initialContextClassLoader);
+            }
+        });
+    }
+
+    @Override
+    public ServletRequest getRequest() {
+        return delegate.getRequest();
+    }
+
+    @Override
+    public ServletResponse getResponse() {
+        return delegate.getResponse();
+    }
+
+    @Override
+    public boolean hasOriginalRequestAndResponse() {
+        return delegate.hasOriginalRequestAndResponse();
+    }
+
+    @Override
+    public void dispatch() {
+        delegate.dispatch();
+    }
+
+    @Override
+    public void dispatch(final String path) {
+        delegate.dispatch(path);
+    }
+
+    @Override
+    public void dispatch(final ServletContext context, final String path) {
+        delegate.dispatch(context, path);
+    }
+
+    @Override
+    public void complete() {
+        delegate.complete();
+    }
+
+    @Override
+    public void addListener(final AsyncListener listener) {
+        delegate.addListener(listener);
+    }
+
+    @Override
+    public void addListener(final AsyncListener listener, final ServletRequest servletRequest, final ServletResponse servletResponse) {
+        delegate.addListener(listener, servletRequest, servletResponse);
+    }
+
+    @Override
+    public <T extends AsyncListener> T createListener(final Class<T> clazz) throws ServletException {
+        return delegate.createListener(clazz);
+    }
+
+    @Override
+    public void setTimeout(final long timeout) {
+        delegate.setTimeout(timeout);
+    }
+
+    @Override
+    public long getTimeout() {
+        return delegate.getTimeout();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi.http;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+import org.killbill.commons.metrics.api.Gauge;
+import org.killbill.commons.metrics.api.Meter;
+import org.killbill.commons.metrics.api.MetricRegistry;
+import org.killbill.commons.utils.Joiner;
+
+//
+// Bounded executor for the requests of a plugin servlet implementing OSGIKillbillAsyncServlet: slow plugin endpoints
+// hold up their own threads instead of the web container ones. Tasks run with the plugin classloader as context classloader.
+//
+class PluginServletExecutor {
+
+    private static final Joiner DOT_JOINER = Joiner.on(".");
+
+    private final ThreadPoolExecutor executor;
+    private final ClassLoader pluginClassLoader;
+    private final MetricRegistry metricRegistry;
+    private final String queueSizeGaugeName;
+    private final String activeGaugeName;
+    private final String rejectedMeterName;
+    private final Meter rejectedMeter;
+
+    PluginServletExecutor(final String pluginPrefix,
+                          final int maxConcurrentRequests,
+                          final int maxQueuedRequests,
+                          final ClassLoader pluginClassLoader,
+                          @Nullable final MetricRegistry metricRegistry) {
+        this.pluginClassLoader = pluginClassLoader;
+        this.metricRegistry = metricRegistry;
+
+        final String name = toMetricName(pluginPrefix);
+        final int nbThreads = Math.max(1, maxConcurrentRequests);
+        this.executor = new ThreadPoolExecutor(nbThreads,
+                                               nbThreads,
+                                               60, TimeUnit.SECONDS,
+                                               new ArrayBlockingQueue<>(Math.max(1, maxQueuedRequests)),
+                                               new PluginThreadFactory("osgi-servlet-" + name));
+        executor.allowCoreThreadTimeOut(true);
+
+        this.queueSizeGaugeName = DOT_JOINER.join("killbill-service", "kb_plugin_servlet_queue_size", name);
+        this.activeGaugeName = DOT_JOINER.join("killbill-service", "kb_plugin_servlet_active", name);
+        this.rejectedMeterName = DOT_JOINER.join("killbill-service", "kb_plugin_servlet_rejected", name);
+        if (metricRegistry != null) {
+            this.rejectedMeter = metricRegistry.meter(rejectedMeterName);
+            metricRegistry.gauge(queueSizeGaugeName, new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return executor.getQueue().size();
+                }
+            });
+            metricRegistry.gauge(activeGaugeName, new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return executor.getActiveCount();
+                }
+            });
+        } else {
+            this.rejectedMeter = null;
+        }
+    }
+
+    // Returns false if the executor is saturated (or shut down)
+    boolean submit(final Runnable task) {
+        try {
+            executor.execute(() -> {
+                final Thread currentThread = Thread.currentThread();
+                final ClassLoader initialContextClassLoader = currentThread.getContextClassLoader();
+                currentThread.setContextClassLoader(pluginClassLoader);
+                try {
+                    task.run();
+                } finally {
+                    currentThread.setContextClassLoader(initialContextClassLoader);
+                }
+            });
+            return true;
+        } catch (final RejectedExecutionException e) {
+            if (rejectedMeter != null) {
+                rejectedMeter.mark(1);
+            }
+            return false;
+        }
+    }
+
+    // Pending and in-flight requests are left to complete
+    void shutdown() {
+        executor.shutdown();
+        if (metricRegistry != null) {
+            metricRegistry.remove(queueSizeGaugeName);
+            metricRegistry.remove(activeGaugeName);
+            metricRegistry.remove(rejectedMeterName);
+        }
+    }
+
+    // /plugins/foo -> plugins.foo
+    static String toMetricName(final String pluginPrefix) {
+        int start = 0;
+        int end = pluginPrefix.length();
+        while (start < end && pluginPrefix.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && pluginPrefix.charAt(end - 1) == '/') {
+            end--;
+        }
+        return pluginPrefix.substring(start, end).replace('/', '.');
+    }
+
+    private static final class PluginThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+        private final String namePrefix;
+
+        private PluginThreadFactory(final String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(runnable, namePrefix + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
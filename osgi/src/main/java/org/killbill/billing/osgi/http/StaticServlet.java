@@ -22,6 +22,11 @@ package org.killbill.billing.osgi.http;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 import jakarta.servlet.RequestDispatcher;
 import jakarta.servlet.ServletException;
@@ -30,26 +35,54 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletRequestWrapper;
 import jakarta.servlet.http.HttpServletResponse;
 
+import org.killbill.commons.utils.cache.Cache;
+import org.killbill.commons.utils.cache.CacheBuilder;
 import org.osgi.service.http.HttpContext;
 
 // Simple servlet to serve OSGI resources
+//
+// Resources are resolved once per request URI, and their content is kept in memory (up to maxCacheBytes, least recently
+// used entries are evicted first), along with a strong ETag. Conditional (If-None-Match, If-Modified-Since) and single
+// range requests are supported. If the bundle ships precompressed variants (e.g. app.js.br or app.js.gz next to app.js),
+// these are served to the clients accepting them.
 public class StaticServlet extends HttpServlet {
 
+    private static final long DEFAULT_MAX_CACHE_BYTES = 32 * 1024 * 1024;
+    private static final int MAX_RESOLVED_RESOURCES = 4096;
+
+    // Negative cache entry
+    private static final ResolvedResource NOT_FOUND = new ResolvedResource(null, null, null, null);
+
     private final HttpContext httpContext;
+    private final long maxCacheBytes;
+    // Larger resources aren't cached, but streamed on each request
+    private final long maxEntryBytes;
+
+    // Request URI to resource
+    private final Cache<String, ResolvedResource> resolvedResources;
+    // Resource URL to content, in access order. Guarded by itself
+    private final LinkedHashMap<String, StaticResource> contentCache = new LinkedHashMap<>(16, 0.75f, true);
+    private long contentCacheBytes = 0;
 
     public StaticServlet(final HttpContext httpContext) {
+        this(httpContext, DEFAULT_MAX_CACHE_BYTES);
+    }
+
+    public StaticServlet(final HttpContext httpContext, final long maxCacheBytes) {
         this.httpContext = httpContext;
+        this.maxCacheBytes = maxCacheBytes;
+        this.maxEntryBytes = maxCacheBytes / 4;
+        this.resolvedResources = CacheBuilder.<String, ResolvedResource>newBuilder()
+                                             .maximumSize(MAX_RESOLVED_RESOURCES)
+                                             .build(this::resolveResource);
     }
 
     @Override
     protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
-        final URL url = findResourceURL(req);
-        if (url != null) {
-            try (final InputStream is = url.openStream()) {
-                is.transferTo(resp.getOutputStream());
-                resp.setStatus(200);
-                return;
-            }
+        final ResolvedResource resource = resolvedResources.get(req.getRequestURI());
+        if (resource != NOT_FOUND) {
+            serveResource(req, resp, resource);
+            return;
         }
 
         // If we can't find it, the container might
@@ -60,19 +93,232 @@ public class StaticServlet extends HttpServlet {
         rd.forward(wrapped, resp);
     }
 
+    private void serveResource(final HttpServletRequest req, final HttpServletResponse resp, final ResolvedResource resource) throws IOException {
+        final String acceptEncoding = req.getHeader("Accept-Encoding");
+        final URL url;
+        final String contentEncoding;
+        if (resource.brUrl != null && acceptsEncoding(acceptEncoding, "br")) {
+            url = resource.brUrl;
+            contentEncoding = "br";
+        } else if (resource.gzUrl != null && acceptsEncoding(acceptEncoding, "gzip")) {
+            url = resource.gzUrl;
+            contentEncoding = "gzip";
+        } else {
+            url = resource.url;
+            contentEncoding = null;
+        }
+
+        final String contentType = getContentType(resource.resourceName);
+        if (contentType != null) {
+            resp.setContentType(contentType);
+        }
+        if (contentEncoding != null) {
+            resp.setHeader("Content-Encoding", contentEncoding);
+        }
+        if (resource.brUrl != null || resource.gzUrl != null) {
+            resp.setHeader("Vary", "Accept-Encoding");
+        }
+
+        final StaticResource content = getContent(url);
+        if (content == null) {
+            streamResource(resp, url);
+            return;
+        }
+
+        resp.setHeader("ETag", content.etag);
+        if (content.lastModified > 0) {
+            resp.setDateHeader("Last-Modified", content.lastModified);
+        }
+        if (isNotModified(req, content)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        resp.setHeader("Accept-Ranges", "bytes");
+        final long[] range = getRange(req, content);
+        if (range == null) {
+            resp.setStatus(HttpServletResponse.SC_OK);
+            resp.setContentLength(content.bytes.length);
+            resp.getOutputStream().write(content.bytes);
+        } else if (range.length == 0) {
+            resp.setHeader("Content-Range", "bytes */" + content.bytes.length);
+            resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        } else {
+            final int start = (int) range[0];
+            final int length = (int) (range[1] - range[0] + 1);
+            resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            resp.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + content.bytes.length);
+            resp.setContentLength(length);
+            resp.getOutputStream().write(content.bytes, start, length);
+        }
+    }
+
+    // Resources too large to be cached
+    private void streamResource(final HttpServletResponse resp, final URL url) throws IOException {
+        final URLConnection connection = url.openConnection();
+        final long contentLength = connection.getContentLengthLong();
+        if (contentLength >= 0) {
+            resp.setContentLengthLong(contentLength);
+        }
+        if (connection.getLastModified() > 0) {
+            resp.setDateHeader("Last-Modified", connection.getLastModified());
+        }
+        try (final InputStream is = connection.getInputStream()) {
+            resp.setStatus(HttpServletResponse.SC_OK);
+            is.transferTo(resp.getOutputStream());
+        }
+    }
+
+    private boolean isNotModified(final HttpServletRequest req, final StaticResource content) {
+        final String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            if ("*".equals(ifNoneMatch.trim())) {
+                return true;
+            }
+            for (final String etag : ifNoneMatch.split(",")) {
+                // Weak comparison, as per RFC 7232
+                final String candidate = etag.trim();
+                if (content.etag.equals(candidate.startsWith("W/") ? candidate.substring(2) : candidate)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        if (content.lastModified <= 0) {
+            return false;
+        }
+        final long ifModifiedSince;
+        try {
+            ifModifiedSince = req.getDateHeader("If-Modified-Since");
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+        // HTTP dates have a one second precision
+        return ifModifiedSince >= 0 && content.lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    // Returns null to serve the full content, an empty array if the range isn't satisfiable, {first, last} otherwise
+    private long[] getRange(final HttpServletRequest req, final StaticResource content) {
+        final String rangeHeader = req.getHeader("Range");
+        if (rangeHeader == null || !rangeHeader.startsWith("bytes=")) {
+            return null;
+        }
+
+        // Range only applies if the client has the current representation
+        final String ifRange = req.getHeader("If-Range");
+        if (ifRange != null && !content.etag.equals(ifRange.trim())) {
+            return null;
+        }
+
+        final String rangeSpec = rangeHeader.substring("bytes=".length()).trim();
+        if (rangeSpec.indexOf(',') >= 0) {
+            // Multiple ranges aren't supported, serve the full content instead
+            return null;
+        }
+
+        final int dash = rangeSpec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        final long length = content.bytes.length;
+        final long first;
+        final long last;
+        try {
+            if (dash == 0) {
+                // Suffix range: last N bytes
+                final long suffixLength = Long.parseLong(rangeSpec.substring(1));
+                if (suffixLength <= 0) {
+                    return new long[0];
+                }
+                first = Math.max(0, length - suffixLength);
+                last = length - 1;
+            } else {
+                first = Long.parseLong(rangeSpec.substring(0, dash));
+                last = dash == rangeSpec.length() - 1 ? length - 1 : Math.min(length - 1, Long.parseLong(rangeSpec.substring(dash + 1)));
+            }
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+
+        if (first >= length || first > last) {
+            return new long[0];
+        }
+        return new long[]{first, last};
+    }
+
+    private String getContentType(final String resourceName) {
+        final String mimeType = httpContext.getMimeType(resourceName);
+        if (mimeType != null || getServletConfig() == null) {
+            return mimeType;
+        }
+        return getServletContext().getMimeType(resourceName);
+    }
+
+    private StaticResource getContent(final URL url) throws IOException {
+        final String key = url.toExternalForm();
+        synchronized (contentCache) {
+            final StaticResource cached = contentCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final URLConnection connection = url.openConnection();
+        final long contentLength = connection.getContentLengthLong();
+        if (contentLength > maxEntryBytes) {
+            return null;
+        }
+
+        final byte[] bytes;
+        try (final InputStream is = connection.getInputStream()) {
+            bytes = is.readAllBytes();
+        }
+        if (bytes.length > maxEntryBytes) {
+            return null;
+        }
+
+        final StaticResource content = new StaticResource(bytes, computeETag(bytes), connection.getLastModified());
+        synchronized (contentCache) {
+            final StaticResource previous = contentCache.put(key, content);
+            if (previous != null) {
+                contentCacheBytes -= previous.bytes.length;
+            }
+            contentCacheBytes += bytes.length;
+
+            final Iterator<StaticResource> iterator = contentCache.values().iterator();
+            while (contentCacheBytes > maxCacheBytes && iterator.hasNext()) {
+                contentCacheBytes -= iterator.next().bytes.length;
+                iterator.remove();
+            }
+        }
+        return content;
+    }
+
+    private ResolvedResource resolveResource(final String requestURI) {
+        final String resourceName = findResourceName(requestURI);
+        if (resourceName == null) {
+            return NOT_FOUND;
+        }
+        return new ResolvedResource(resourceName,
+                                    findResourceURL(resourceName),
+                                    findResourceURL(resourceName + ".gz"),
+                                    findResourceURL(resourceName + ".br"));
+    }
+
     // TODO PIERRE HUGE HACK
     // We don't really know at this point the resource path to look for
     // e.g. if the request is for /plugins/foo/bar/baz/qux.css, should
     // we look for /qux.css? /baz/qux.css? /bar/baz/qux.css? /foo/bar/baz/qux.css?
-    private URL findResourceURL(final HttpServletRequest request) {
-        final String url = request.getRequestURI();
+    private String findResourceName(final String url) {
         for (int i = 0; i < url.lastIndexOf('/'); i++) {
             final int idx = url.indexOf('/', i);
             if (idx > -1) {
                 final String resourceName = url.substring(idx);
                 final URL match = findResourceURL(resourceName);
                 if (match != null) {
-                    return match;
+                    return resourceName;
                 }
             }
         }
@@ -87,4 +333,75 @@ public class StaticServlet extends HttpServlet {
         }
         return url;
     }
+
+    private static boolean acceptsEncoding(final String acceptEncoding, final String encoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (final String token : acceptEncoding.split(",")) {
+            final String[] parts = token.trim().split(";");
+            if (!parts[0].trim().equalsIgnoreCase(encoding)) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                final String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (final NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static String computeETag(final byte[] bytes) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        final byte[] hash = digest.digest(bytes);
+        final StringBuilder etag = new StringBuilder("\"");
+        // 128 bits are plenty to tell versions apart
+        for (int i = 0; i < 16; i++) {
+            etag.append(Character.forDigit((hash[i] >> 4) & 0xF, 16))
+                .append(Character.forDigit(hash[i] & 0xF, 16));
+        }
+        return etag.append('"').toString();
+    }
+
+    private static final class ResolvedResource {
+
+        private final String resourceName;
+        private final URL url;
+        // Precompressed variants, if any
+        private final URL gzUrl;
+        private final URL brUrl;
+
+        private ResolvedResource(final String resourceName, final URL url, final URL gzUrl, final URL brUrl) {
+            this.resourceName = resourceName;
+            this.url = url;
+            this.gzUrl = gzUrl;
+            this.brUrl = brUrl;
+        }
+    }
+
+    private static final class StaticResource {
+
+        private final byte[] bytes;
+        private final String etag;
+        private final long lastModified;
+
+        private StaticResource(final byte[] bytes, final String etag, final long lastModified) {
+            this.bytes = bytes;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
 }
@@ -30,11 +30,13 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 import jakarta.inject.Inject;
@@ -56,19 +58,28 @@ public class PluginFinder {
     static final String DISABLED_FILE_NAME = "disabled.txt"; // See similar definition in KillbillActivatorBase
     static final String IDENTIFIERS_FILE_NAME = "plugin_identifiers.json";
 
+    // Changes made within that window of the previous scan might not be reflected in the modification times yet
+    private static final long RACY_WINDOW_MILLIS = 2000;
+
     private final Logger logger = LoggerFactory.getLogger(PluginFinder.class);
 
     private final OSGIConfig osgiConfig;
-    private final Map<String, LinkedList<PluginConfig>> allPlugins;
-    private final Map<String, PluginIdentifier> identifiers;
     private final ObjectMapper mapper;
+    // Guards the (re)loads
+    private final Object loadLock = new Object();
+    // Plugin directory name to the plugin versions found in that directory, guarded by loadLock
+    private final Map<String, PluginDirectory> pluginDirectories;
+
+    // Immutable, replaced on (re)load
+    private volatile PluginIndex index;
+    private String identifiersFingerprint;
 
     @Inject
     public PluginFinder(final OSGIConfig osgiConfig) {
         this.osgiConfig = osgiConfig;
         this.mapper = new ObjectMapper();
-        this.allPlugins = new HashMap<String, LinkedList<PluginConfig>>();
-        this.identifiers = new HashMap<String, PluginIdentifier>();
+        this.pluginDirectories = new HashMap<String, PluginDirectory>();
+        this.index = null;
     }
 
     public List<PluginJavaConfig> getLatestJavaPlugins() throws PluginConfigException, IOException {
@@ -79,12 +90,11 @@ public class PluginFinder {
         loadPluginsIfRequired(false);
 
         final List<PluginConfig> result = new LinkedList<PluginConfig>();
-        for (final Entry<String, LinkedList<PluginConfig>> entry : allPlugins.entrySet()) {
-            if (entry.getKey().equals(lookupName)) {
-                for (final PluginConfig cur : entry.getValue()) {
-                    if (version == null || cur.getVersion().equals(version)) {
-                        result.add(cur);
-                    }
+        final List<PluginConfig> versionsForPlugin = index.plugins.get(lookupName);
+        if (versionsForPlugin != null) {
+            for (final PluginConfig cur : versionsForPlugin) {
+                if (version == null || cur.getVersion().equals(version)) {
+                    result.add(cur);
                 }
             }
         }
@@ -92,12 +102,13 @@ public class PluginFinder {
     }
 
     public String getPluginVersionSelectedForStart(final String pluginName) {
-        final LinkedList<PluginConfig> pluginConfigs = allPlugins.get(pluginName);
+        final List<PluginConfig> pluginConfigs = getIndex().plugins.get(pluginName);
         return pluginConfigs != null && !pluginConfigs.isEmpty() ? pluginConfigs.get(0).getVersion() : null;
     }
 
-    public Map<String, LinkedList<PluginConfig>> getAllPlugins() {
-        return Map.copyOf(allPlugins);
+    // Unmodifiable, as are the lists of versions
+    public Map<String, List<PluginConfig>> getAllPlugins() {
+        return getIndex().plugins;
     }
 
     public void reloadPlugins() throws PluginConfigException, IOException {
@@ -105,14 +116,23 @@ public class PluginFinder {
     }
 
     public PluginIdentifier resolvePluginKey(final String pluginKey) {
-        return identifiers.get(pluginKey);
+        return getIndex().identifiers.get(pluginKey);
+    }
+
+    public String getPluginKey(final String pluginName, final PluginLanguage pluginLanguage) {
+        return getIndex().getPluginKey(pluginName, pluginLanguage);
+    }
+
+    private PluginIndex getIndex() {
+        final PluginIndex currentIndex = index;
+        return currentIndex != null ? currentIndex : PluginIndex.EMPTY;
     }
 
     private <T extends PluginConfig> List<T> getLatestPluginForLanguage(final PluginLanguage pluginLanguage) throws PluginConfigException, IOException {
         loadPluginsIfRequired(false);
 
         final List<T> result = new LinkedList<T>();
-        for (final LinkedList<PluginConfig> plugins : allPlugins.values()) {
+        for (final List<PluginConfig> plugins : index.plugins.values()) {
             @SuppressWarnings("unchecked") final T plugin = (T) plugins.get(0);
             if (pluginLanguage != plugin.getPluginLanguage()) {
                 continue;
@@ -123,63 +143,62 @@ public class PluginFinder {
         return result;
     }
 
-    private <T extends PluginConfig> void loadPluginsIfRequired(final boolean reloadPlugins) throws PluginConfigException, IOException {
-        synchronized (allPlugins) {
+    private void loadPluginsIfRequired(final boolean reloadPlugins) throws PluginConfigException, IOException {
+        if (!reloadPlugins && index != null) {
+            return;
+        }
 
-            if (!reloadPlugins && !allPlugins.isEmpty()) {
+        synchronized (loadLock) {
+            if (!reloadPlugins && index != null) {
                 return;
             }
 
-            allPlugins.clear();
-
-            readPluginIdentifiers();
+            final PluginIndex previousIndex = getIndex();
+            final Map<String, PluginIdentifier> identifiers = readPluginIdentifiers(previousIndex.identifiers);
+            // Plugin keys are part of the plugin configurations
+            final boolean identifiersChanged = !identifiers.equals(previousIndex.identifiers);
+            final PluginIndex newIndex = new PluginIndex(identifiers);
 
-            loadPluginsForLanguage(PluginLanguage.JAVA);
+            loadPluginsForLanguage(PluginLanguage.JAVA, newIndex, identifiersChanged);
 
-            // Order for each plugin  based on DefaultPluginConfig sort method:
-            // (order first based on SELECTED_VERSION_LINK_NAME and then decreasing version number)
-            //
-            for (final Entry<String, LinkedList<PluginConfig>> entry : allPlugins.entrySet()) {
-                final String pluginName = entry.getKey();
-                final LinkedList<PluginConfig> versionsForPlugin = entry.getValue();
+            final Map<String, List<PluginConfig>> plugins = new HashMap<String, List<PluginConfig>>();
+            for (final Entry<String, PluginDirectory> entry : pluginDirectories.entrySet()) {
                 // If all entries were disabled or the SELECTED_VERSION_LINK_NAME was disabled we end up with nothing, it is as if the plugin did not exist
-                if (versionsForPlugin.isEmpty()) {
-                    allPlugins.remove(pluginName);
-                    continue;
+                if (entry.getValue().versions != null) {
+                    plugins.put(entry.getKey(), entry.getValue().versions);
                 }
-                Collections.sort(versionsForPlugin);
-                // Make sure first entry is set with isSelectedForStart = true
-                final PluginConfig firstValue = versionsForPlugin.removeFirst();
-                if (firstValue.getPluginLanguage() != PluginLanguage.JAVA) {
-                    throw new UnsupportedOperationException("Non-Java plugins aren't supported anymore");
-                }
-                final PluginConfig newFirstValue = new DefaultPluginJavaConfig((DefaultPluginJavaConfig) firstValue, true);
-                versionsForPlugin.addFirst(newFirstValue);
             }
+            index = newIndex.withPlugins(plugins);
         }
     }
 
-    private void readPluginIdentifiers() {
+    private Map<String, PluginIdentifier> readPluginIdentifiers(final Map<String, PluginIdentifier> previousIdentifiers) {
 
         final String identifierFileName = osgiConfig.getRootInstallationDir() + "/plugins/" + IDENTIFIERS_FILE_NAME;
         final File identifierFile = new File(identifierFileName);
         if (!identifierFile.exists() || !identifierFile.isFile()) {
             logger.warn("File non existent: Skipping parsing of " + IDENTIFIERS_FILE_NAME);
-            return;
+            return previousIdentifiers;
         }
 
-        try {
-            identifiers.clear();
+        final String fingerprint = getFingerprint(identifierFile.length() + ":" + identifierFile.lastModified(), identifierFile.lastModified());
+        if (fingerprint != null && fingerprint.equals(identifiersFingerprint)) {
+            return previousIdentifiers;
+        }
 
+        try {
             if (identifierFile.length() == 0 || Files.readString(identifierFile.toPath()).isBlank()) {
                 logger.info("File {} is missing or empty. Initializing with an empty JSON object", identifierFile.getAbsolutePath());
 
                 mapper.writeValue(identifierFile, new HashMap<>());
             }
             final Map<String, PluginIdentifier> map = mapper.readValue(identifierFile, new TypeReference<>() {});
-            identifiers.putAll(map);
+            identifiersFingerprint = fingerprint;
+            return map;
         } catch (final IOException e) {
             logger.warn("Exception when parsing " + IDENTIFIERS_FILE_NAME + ":", e);
+            identifiersFingerprint = null;
+            return Collections.emptyMap();
         }
     }
 
@@ -191,18 +210,22 @@ public class PluginFinder {
         return null;
     }
 
-    private void loadPluginsForLanguage(final PluginLanguage pluginLanguage) throws PluginConfigException, IOException {
+    private void loadPluginsForLanguage(final PluginLanguage pluginLanguage, final PluginIndex newIndex, final boolean identifiersChanged) throws PluginConfigException, IOException {
         final String rootDirPath = osgiConfig.getRootInstallationDir() + "/plugins/" + pluginLanguage.toString().toLowerCase();
         final File rootDir = new File(rootDirPath);
         if (!rootDir.exists() || !rootDir.isDirectory()) {
             logger.warn("Configuration root dir {} is not a valid directory", rootDirPath);
+            pluginDirectories.clear();
             return;
         }
 
         final File[] files = rootDir.listFiles();
         if (files == null) {
+            pluginDirectories.clear();
             return;
         }
+
+        final Set<String> pluginNames = new HashSet<String>();
         for (final File curPlugin : files) {
             // Skip any non directory entry
             if (!curPlugin.isDirectory()) {
@@ -215,14 +238,18 @@ public class PluginFinder {
             if (filesInDir == null) {
                 continue;
             }
+            pluginNames.add(pluginName);
 
             final String versionToStart = resolveVersionToStartLink(curPlugin);
 
-            LinkedList<PluginConfig> curPluginVersionlist = allPlugins.get(pluginName);
-            if (curPluginVersionlist == null) {
-                curPluginVersionlist = new LinkedList<PluginConfig>();
-                allPlugins.put(pluginName, curPluginVersionlist);
+            // Only re-read the plugin directories which changed since the previous scan
+            final String fingerprint = getPluginDirectoryFingerprint(curPlugin, filesInDir, versionToStart);
+            final PluginDirectory previousPluginDirectory = pluginDirectories.get(pluginName);
+            if (!identifiersChanged && fingerprint != null && previousPluginDirectory != null && fingerprint.equals(previousPluginDirectory.fingerprint)) {
+                continue;
             }
+
+            final LinkedList<PluginConfig> curPluginVersionlist = new LinkedList<PluginConfig>();
             for (final File curVersion : filesInDir) {
                 // Skip any non directory entry
                 if (!curVersion.isDirectory()) {
@@ -238,7 +265,7 @@ public class PluginFinder {
 
                 final PluginConfig plugin;
                 try {
-                    plugin = extractPluginConfig(pluginLanguage, pluginName, version, curVersion, isVersionToStartLink);
+                    plugin = extractPluginConfig(pluginLanguage, pluginName, version, curVersion, isVersionToStartLink, newIndex);
                 } catch (final PluginConfigException e) {
                     logger.warn("Skipping plugin {}: {}", pluginName, e.getMessage());
                     continue;
@@ -249,19 +276,59 @@ public class PluginFinder {
                     logger.info("Adding plugin {} ", plugin.getPluginVersionnedName());
                 }
             }
+
+            final LinkedList<PluginConfig> sortedVersions = sortVersions(curPluginVersionlist);
+            // Shared by the successive indexes
+            pluginDirectories.put(pluginName, new PluginDirectory(fingerprint, sortedVersions == null ? null : Collections.unmodifiableList(sortedVersions)));
         }
+
+        // Plugins which have been removed
+        pluginDirectories.keySet().retainAll(pluginNames);
     }
 
-    private String findPluginKey(final String pluginName, final PluginLanguage pluginLanguage) {
-        for (final Entry<String, PluginIdentifier> entry : identifiers.entrySet()) {
-            if (entry.getValue().getPluginName().equals(pluginName) && entry.getValue().getLanguage().equalsIgnoreCase(pluginLanguage.name())) {
-                return entry.getKey();
-            }
+    //
+    // Order for each plugin  based on DefaultPluginConfig sort method:
+    // (order first based on SELECTED_VERSION_LINK_NAME and then decreasing version number)
+    //
+    private static LinkedList<PluginConfig> sortVersions(final LinkedList<PluginConfig> versionsForPlugin) {
+        if (versionsForPlugin.isEmpty()) {
+            return null;
         }
-        return null;
+        Collections.sort(versionsForPlugin);
+        // Make sure first entry is set with isSelectedForStart = true
+        final PluginConfig firstValue = versionsForPlugin.removeFirst();
+        if (firstValue.getPluginLanguage() != PluginLanguage.JAVA) {
+            throw new UnsupportedOperationException("Non-Java plugins aren't supported anymore");
+        }
+        final PluginConfig newFirstValue = new DefaultPluginJavaConfig((DefaultPluginJavaConfig) firstValue, true);
+        versionsForPlugin.addFirst(newFirstValue);
+        return versionsForPlugin;
+    }
+
+    // Everything the plugin configurations are built from: version directories, killbill.properties, disabled.txt and the SET_DEFAULT link
+    private String getPluginDirectoryFingerprint(final File pluginDir, final File[] filesInDir, @Nullable final String versionToStart) {
+        long lastModified = pluginDir.lastModified();
+        final StringBuilder fingerprint = new StringBuilder().append(lastModified).append('|').append(versionToStart);
+        for (final File curVersion : filesInDir) {
+            final File properties = new File(curVersion, osgiConfig.getOSGIKillbillPropertyName());
+            final File tmpDir = new File(curVersion, TMP_DIR_NAME);
+            final File disabledFile = new File(tmpDir, DISABLED_FILE_NAME);
+            fingerprint.append('|').append(curVersion.getName())
+                       .append(':').append(curVersion.lastModified())
+                       .append(':').append(properties.lastModified())
+                       .append(':').append(tmpDir.lastModified())
+                       .append(':').append(disabledFile.isFile());
+            lastModified = Math.max(lastModified, Math.max(curVersion.lastModified(), Math.max(properties.lastModified(), tmpDir.lastModified())));
+        }
+        return getFingerprint(fingerprint.toString(), lastModified);
+    }
+
+    // Don't trust modification times which are too recent, the entry will be re-read on the next scan
+    private static String getFingerprint(final String fingerprint, final long lastModified) {
+        return System.currentTimeMillis() - lastModified < RACY_WINDOW_MILLIS ? null : fingerprint;
     }
 
-    private PluginConfig extractPluginConfig(final PluginLanguage pluginLanguage, final String pluginName, final String pluginVersion, final File pluginVersionDir, final boolean isVersionToStartLink) throws PluginConfigException {
+    private PluginConfig extractPluginConfig(final PluginLanguage pluginLanguage, final String pluginName, final String pluginVersion, final File pluginVersionDir, final boolean isVersionToStartLink, final PluginIndex newIndex) throws PluginConfigException {
         final PluginConfig result;
         Properties props = null;
         try {
@@ -287,7 +354,7 @@ public class PluginFinder {
             throw new PluginConfigException("Failed to read property file for " + pluginName + "-" + pluginVersion, e);
         }
 
-        final String pluginKey = findPluginKey(pluginName, pluginLanguage);
+        final String pluginKey = newIndex.getPluginKey(pluginName, pluginLanguage);
         switch (pluginLanguage) {
             case JAVA:
                 result = new DefaultPluginJavaConfig(pluginKey, pluginName, pluginVersion, pluginVersionDir, (props == null) ? new Properties() : props, isVersionToStartLink, isPluginDisabled(pluginVersionDir));
@@ -318,4 +385,58 @@ public class PluginFinder {
             return props;
         }
     }
+
+    private static final class PluginDirectory {
+
+        // Null if the directory should be re-read on the next scan
+        private final String fingerprint;
+        // Sorted and unmodifiable, null if there is no enabled version
+        private final List<PluginConfig> versions;
+
+        private PluginDirectory(@Nullable final String fingerprint, @Nullable final List<PluginConfig> versions) {
+            this.fingerprint = fingerprint;
+            this.versions = versions;
+        }
+    }
+
+    private static final class PluginIndex {
+
+        private static final PluginIndex EMPTY = new PluginIndex(Collections.emptyMap());
+
+        private final Map<String, PluginIdentifier> identifiers;
+        // Language and plugin name to plugin key
+        private final Map<String, String> pluginKeys;
+        private final Map<String, List<PluginConfig>> plugins;
+
+        private PluginIndex(final Map<String, PluginIdentifier> identifiers) {
+            this.identifiers = Collections.unmodifiableMap(new HashMap<String, PluginIdentifier>(identifiers));
+
+            final Map<String, String> pluginKeys = new HashMap<String, String>();
+            for (final Entry<String, PluginIdentifier> entry : identifiers.entrySet()) {
+                if (entry.getValue().getPluginName() != null && entry.getValue().getLanguage() != null) {
+                    pluginKeys.putIfAbsent(getPluginKeyLookupName(entry.getValue().getPluginName(), entry.getValue().getLanguage()), entry.getKey());
+                }
+            }
+            this.pluginKeys = pluginKeys;
+            this.plugins = Collections.emptyMap();
+        }
+
+        private PluginIndex(final PluginIndex index, final Map<String, List<PluginConfig>> plugins) {
+            this.identifiers = index.identifiers;
+            this.pluginKeys = index.pluginKeys;
+            this.plugins = Collections.unmodifiableMap(plugins);
+        }
+
+        private PluginIndex withPlugins(final Map<String, List<PluginConfig>> plugins) {
+            return new PluginIndex(this, plugins);
+        }
+
+        private String getPluginKey(final String pluginName, final PluginLanguage pluginLanguage) {
+            return pluginKeys.get(getPluginKeyLookupName(pluginName, pluginLanguage.name()));
+        }
+
+        private static String getPluginKeyLookupName(final String pluginName, final String pluginLanguage) {
+            return pluginLanguage.toUpperCase() + "/" + pluginName;
+        }
+    }
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestBundleCacheManifest {
+
+    @Test(groups = "fast")
+    public void testChangedJarsAreDetected() throws Exception {
+        final File dir = Files.createTempDirectory("osgi-cache").toFile();
+        final File jarA = new File(dir, "a.jar");
+        final File jarB = new File(dir, "b.jar");
+        Files.write(jarA.toPath(), new byte[]{1, 2, 3});
+        Files.write(jarB.toPath(), new byte[]{1});
+
+        final File manifestFile = new File(dir, "osgi-cache.manifest");
+        final BundleCacheManifest manifest = new BundleCacheManifest(manifestFile);
+        manifest.load();
+        Assert.assertFalse(manifest.isUpToDate("file:a", jarA));
+        manifest.record("file:a", jarA);
+        manifest.record("file:b", jarB);
+        manifest.save();
+
+        // Next start
+        final BundleCacheManifest reloadedManifest = new BundleCacheManifest(manifestFile);
+        reloadedManifest.load();
+        Assert.assertTrue(reloadedManifest.isUpToDate("file:a", jarA));
+        Assert.assertTrue(reloadedManifest.isUpToDate("file:b", jarB));
+
+        Files.write(jarB.toPath(), new byte[]{1, 2});
+        Assert.assertFalse(reloadedManifest.isUpToDate("file:b", jarB));
+
+        reloadedManifest.retainAll(List.of("file:b"));
+        Assert.assertFalse(reloadedManifest.isUpToDate("file:a", jarA));
+    }
+}
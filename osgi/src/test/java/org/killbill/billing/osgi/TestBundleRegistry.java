@@ -0,0 +1,269 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.killbill.billing.osgi.BundleRegistry.BundleWithMetadata;
+import org.killbill.billing.osgi.BundleRegistry.ServiceRestoreHandler;
+import org.killbill.billing.osgi.api.config.PluginConfig;
+import org.killbill.billing.osgi.config.OSGIConfig;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
+import org.skife.config.TimeSpan;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestBundleRegistry {
+
+    @Test(groups = "fast")
+    public void testLookups() throws Exception {
+        final Bundle pluginBundle = createBundle(1L, "org.kill-bill.billing.plugin.java.foo");
+        final PluginConfig pluginConfig = Mockito.mock(PluginConfig.class);
+        Mockito.when(pluginConfig.getPluginName()).thenReturn("foo");
+        Mockito.when(pluginConfig.getVersion()).thenReturn("1.0");
+        final Bundle osgiBundle = createBundle(2L, "org.kill-bill.billing.osgi.bar");
+
+        final FileInstall fileInstall = Mockito.mock(FileInstall.class);
+        final Framework framework = Mockito.mock(Framework.class);
+        Mockito.when(fileInstall.installBundles(framework)).thenReturn(List.of(new BundleWithConfig(pluginBundle, pluginConfig),
+                                                                               new BundleWithConfig(osgiBundle, null)));
+
+        final BundleRegistry bundleRegistry = new BundleRegistry(fileInstall, Mockito.mock(OSGIConfig.class), Mockito.mock(KillbillEventObservable.class));
+        bundleRegistry.installBundles(framework);
+
+        Assert.assertEquals(bundleRegistry.getPluginName(pluginBundle), "foo");
+        Assert.assertEquals(bundleRegistry.getPluginName(osgiBundle), "org.kill-bill.billing.osgi.bar");
+        Assert.assertEquals(bundleRegistry.getBundle("foo").getBundle(), pluginBundle);
+
+        final DefaultOSGIServiceDescriptor desc = new DefaultOSGIServiceDescriptor("org.kill-bill.billing.plugin.java.foo", "foo", "foo-service");
+        bundleRegistry.registerService(desc, "PaymentPluginApi");
+        final BundleWithMetadata bundleWithMetadata = bundleRegistry.getBundle("foo");
+        Assert.assertEquals(bundleWithMetadata.getServiceNames().size(), 1);
+        Assert.assertEquals(bundleWithMetadata.getServiceNames().iterator().next().getRegistrationName(), "foo-service");
+        bundleRegistry.unregisterService(desc, "PaymentPluginApi");
+        Assert.assertTrue(bundleWithMetadata.getServiceNames().isEmpty());
+
+        // Removed from all indexes
+        Assert.assertEquals(bundleRegistry.stopAndUninstallNewBundle("foo", "1.0"), bundleWithMetadata);
+        Mockito.verify(pluginBundle).uninstall();
+        Assert.assertNull(bundleRegistry.getBundle("foo"));
+        Assert.assertEquals(bundleRegistry.getPluginName(pluginBundle), "org.kill-bill.billing.plugin.java.foo");
+        bundleRegistry.registerService(desc, "PaymentPluginApi");
+        Assert.assertTrue(bundleWithMetadata.getServiceNames().isEmpty());
+    }
+
+    @Test(groups = "fast")
+    public void testRestartSwapsVersions() throws Exception {
+        final Bundle previousBundle = createBundle(1L, "org.kill-bill.billing.plugin.java.foo");
+        Mockito.when(previousBundle.getState()).thenReturn(Bundle.ACTIVE);
+        final Bundle newBundle = createBundle(2L, "org.kill-bill.billing.plugin.java.foo");
+
+        final FileInstall fileInstall = Mockito.mock(FileInstall.class);
+        final Framework framework = Mockito.mock(Framework.class);
+        Mockito.when(fileInstall.installBundles(framework)).thenReturn(List.of(new BundleWithConfig(previousBundle, createPluginConfig("1.0"))));
+        Mockito.when(fileInstall.installNewBundle("foo", "2.0", framework)).thenReturn(new BundleWithConfig(newBundle, createPluginConfig("2.0")));
+        Mockito.when(fileInstall.startBundle(newBundle)).thenReturn(true);
+
+        final OSGIConfig osgiConfig = Mockito.mock(OSGIConfig.class);
+        Mockito.when(osgiConfig.isPluginRestartSwapEnabled()).thenReturn(true);
+        Mockito.when(osgiConfig.getPluginRestartSwapDrainTimeout()).thenReturn(new TimeSpan("10s"));
+
+        final KillbillEventObservable observable = Mockito.mock(KillbillEventObservable.class);
+        final BundleRegistry bundleRegistry = new BundleRegistry(fileInstall, osgiConfig, observable);
+        bundleRegistry.installBundles(framework);
+
+        // A call in the previous version, which completes shortly after the swap
+        final AtomicInteger inFlightCalls = bundleRegistry.getInFlightCalls(previousBundle);
+        inFlightCalls.incrementAndGet();
+        final Thread call = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (final InterruptedException ignored) {
+            }
+            inFlightCalls.decrementAndGet();
+        });
+        call.start();
+
+        // The previous version stops receiving bus events once the new one is started, without waiting for the drain
+        final AtomicInteger inFlightCallsOnUnsubscribe = new AtomicInteger(-1);
+        Mockito.doAnswer(invocation -> {
+            inFlightCallsOnUnsubscribe.set(inFlightCalls.get());
+            return null;
+        }).when(observable).deleteObservers(previousBundle);
+
+        final BundleWithMetadata bundleWithMetadata = bundleRegistry.restartBundle("foo", "2.0");
+        Assert.assertEquals(bundleWithMetadata.getBundle(), newBundle);
+        Assert.assertEquals(inFlightCalls.get(), 0);
+        Assert.assertEquals(inFlightCallsOnUnsubscribe.get(), 1);
+        final InOrder inOrder = Mockito.inOrder(fileInstall, observable, previousBundle);
+        inOrder.verify(fileInstall).startBundle(newBundle);
+        inOrder.verify(observable).deleteObservers(previousBundle);
+        inOrder.verify(previousBundle).stop();
+        inOrder.verify(previousBundle).uninstall();
+
+        Assert.assertEquals(bundleRegistry.getBundle("foo").getVersion(), "2.0");
+        Assert.assertEquals(bundleRegistry.getPluginName(newBundle), "foo");
+        Assert.assertNull(bundleRegistry.getInFlightCalls(previousBundle));
+
+        // The next version fails to start: the running version is kept, with its services
+        final ServiceRestoreHandler serviceRestoreHandler = Mockito.mock(ServiceRestoreHandler.class);
+        bundleRegistry.setServiceRestoreHandler(serviceRestoreHandler);
+        Mockito.when(newBundle.getState()).thenReturn(Bundle.ACTIVE);
+        final Bundle failedBundle = createBundle(3L, "org.kill-bill.billing.plugin.java.foo");
+        Mockito.when(fileInstall.installNewBundle("foo", "3.0", framework)).thenReturn(new BundleWithConfig(failedBundle, createPluginConfig("3.0")));
+        Mockito.when(fileInstall.startBundle(failedBundle)).thenReturn(false);
+
+        Assert.assertEquals(bundleRegistry.restartBundle("foo", "3.0"), bundleWithMetadata);
+        final InOrder failedInOrder = Mockito.inOrder(failedBundle, serviceRestoreHandler);
+        failedInOrder.verify(failedBundle).uninstall();
+        failedInOrder.verify(serviceRestoreHandler).restoreServices(newBundle);
+        Mockito.verify(newBundle, Mockito.never()).stop();
+        Mockito.verify(observable, Mockito.never()).deleteObservers(newBundle);
+
+        Assert.assertEquals(bundleRegistry.getBundle("foo").getVersion(), "2.0");
+        Assert.assertEquals(bundleRegistry.getPluginName(newBundle), "foo");
+        Assert.assertNotNull(bundleRegistry.getInFlightCalls(newBundle));
+        Assert.assertNull(bundleRegistry.getInFlightCalls(failedBundle));
+    }
+
+    @Test(groups = "fast")
+    public void testStartWaves() throws Exception {
+        final Bundle api = createBundle(1L, "org.kill-bill.billing.plugin.java.api");
+        final Bundle foo = createBundle(2L, "org.kill-bill.billing.plugin.java.foo");
+        final Bundle bar = createBundle(3L, "org.kill-bill.billing.plugin.java.bar");
+        final Bundle cycle1 = createBundle(4L, "org.kill-bill.billing.plugin.java.cycle1");
+        final Bundle cycle2 = createBundle(5L, "org.kill-bill.billing.plugin.java.cycle2");
+        final Bundle unresolved = createBundle(6L, "org.kill-bill.billing.plugin.java.unresolved");
+        // Not installed by FileInstall (e.g. the system bundle exporting org.killbill.billing.*)
+        final Bundle systemBundle = createBundle(0L, "org.apache.felix.framework");
+
+        final Framework framework = Mockito.mock(Framework.class);
+        final FrameworkWiring frameworkWiring = Mockito.mock(FrameworkWiring.class);
+        Mockito.when(framework.adapt(FrameworkWiring.class)).thenReturn(frameworkWiring);
+        // The wiring is only known once the bundles are resolved
+        final AtomicBoolean resolved = new AtomicBoolean(false);
+        Mockito.doAnswer(invocation -> {
+            resolved.set(true);
+            return true;
+        }).when(frameworkWiring).resolveBundles(Mockito.anyCollection());
+        mockImports(resolved, api, systemBundle);
+        mockImports(resolved, foo, api, systemBundle);
+        // Packages a bundle both exports and imports are wired to itself
+        mockImports(resolved, bar, foo, bar);
+        mockImports(resolved, cycle1, api, cycle2);
+        mockImports(resolved, cycle2, cycle1);
+
+        final FileInstall fileInstall = Mockito.mock(FileInstall.class);
+        // Importers installed before their exporters
+        Mockito.when(fileInstall.installBundles(framework)).thenReturn(List.of(new BundleWithConfig(bar, createPluginConfig("bar", "1.0")),
+                                                                               new BundleWithConfig(cycle2, createPluginConfig("cycle2", "1.0")),
+                                                                               new BundleWithConfig(foo, createPluginConfig("foo", "1.0")),
+                                                                               new BundleWithConfig(cycle1, createPluginConfig("cycle1", "1.0")),
+                                                                               new BundleWithConfig(unresolved, createPluginConfig("unresolved", "1.0")),
+                                                                               new BundleWithConfig(api, createPluginConfig("api", "1.0"))));
+        // Bundles started by each invokeAll call
+        final List<Set<Bundle>> waves = new ArrayList<>();
+        Mockito.when(fileInstall.invokeAll(Mockito.<List<Callable<Long>>>any(), Mockito.eq("osgi-bundle-start"))).thenAnswer(invocation -> {
+            waves.add(new HashSet<>());
+            final List<Long> results = new ArrayList<>();
+            for (final Callable<Long> task : invocation.<List<Callable<Long>>>getArgument(0)) {
+                results.add(task.call());
+            }
+            return results;
+        });
+        Mockito.when(fileInstall.startBundle(Mockito.any(Bundle.class))).thenAnswer(invocation -> {
+            final Bundle bundle = invocation.getArgument(0);
+            waves.get(waves.size() - 1).add(bundle);
+            return bundle != unresolved;
+        });
+
+        final OSGIConfig osgiConfig = Mockito.mock(OSGIConfig.class);
+        Mockito.when(osgiConfig.getBundleStartupParallelism()).thenReturn(4);
+
+        final BundleRegistry bundleRegistry = new BundleRegistry(fileInstall, osgiConfig, Mockito.mock(KillbillEventObservable.class));
+        bundleRegistry.installBundles(framework);
+        bundleRegistry.startBundles(List.of("api", "bar"));
+
+        // Each importer starts in a later wave than the bundles it imports from, the cycle is started last, all at once
+        Assert.assertEquals(waves, List.of(Set.of(api, unresolved), Set.of(foo), Set.of(bar), Set.of(cycle1, cycle2)));
+        Mockito.verify(frameworkWiring).resolveBundles(Set.of(api, foo, bar, cycle1, cycle2, unresolved));
+        Mockito.verify(fileInstall, Mockito.never()).startBundle(systemBundle);
+
+        Assert.assertNotNull(bundleRegistry.getBundle("bar").getStartDurationMillis());
+        Assert.assertNull(bundleRegistry.getBundle("unresolved"));
+
+        // Mandatory plugins which failed to start still fail the startup
+        waves.clear();
+        final BundleRegistry failingBundleRegistry = new BundleRegistry(fileInstall, osgiConfig, Mockito.mock(KillbillEventObservable.class));
+        failingBundleRegistry.installBundles(framework);
+        try {
+            failingBundleRegistry.startBundles(List.of("api", "unresolved"));
+            Assert.fail();
+        } catch (final Exception e) {
+            Assert.assertEquals(e.getMessage(), "Mandatory plugin unresolved not started");
+        }
+        Assert.assertEquals(waves.size(), 4);
+    }
+
+    // Import-Package wires of the bundle, once resolved (no wiring otherwise)
+    private void mockImports(final AtomicBoolean resolved, final Bundle bundle, final Bundle... providers) {
+        final List<BundleWire> wires = new ArrayList<>();
+        for (final Bundle provider : providers) {
+            final BundleWiring providerWiring = Mockito.mock(BundleWiring.class);
+            Mockito.when(providerWiring.getBundle()).thenReturn(provider);
+            final BundleWire wire = Mockito.mock(BundleWire.class);
+            Mockito.when(wire.getProviderWiring()).thenReturn(providerWiring);
+            wires.add(wire);
+        }
+        final BundleWiring wiring = Mockito.mock(BundleWiring.class);
+        Mockito.when(wiring.getRequiredWires(PackageNamespace.PACKAGE_NAMESPACE)).thenReturn(wires);
+        Mockito.when(bundle.adapt(BundleWiring.class)).thenAnswer(invocation -> resolved.get() ? wiring : null);
+    }
+
+    private PluginConfig createPluginConfig(final String version) {
+        return createPluginConfig("foo", version);
+    }
+
+    private PluginConfig createPluginConfig(final String pluginName, final String version) {
+        final PluginConfig pluginConfig = Mockito.mock(PluginConfig.class);
+        Mockito.when(pluginConfig.getPluginName()).thenReturn(pluginName);
+        Mockito.when(pluginConfig.getVersion()).thenReturn(version);
+        return pluginConfig;
+    }
+
+    private Bundle createBundle(final long bundleId, final String symbolicName) {
+        final Bundle bundle = Mockito.mock(Bundle.class);
+        Mockito.when(bundle.getBundleId()).thenReturn(bundleId);
+        Mockito.when(bundle.getSymbolicName()).thenReturn(symbolicName);
+        Mockito.when(bundle.getState()).thenReturn(Bundle.RESOLVED);
+        return bundle;
+    }
+}
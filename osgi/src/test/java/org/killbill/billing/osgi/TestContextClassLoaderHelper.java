@@ -0,0 +1,194 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi;
+
+import java.math.BigDecimal;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.commons.metrics.api.Meter;
+import org.killbill.commons.metrics.api.MetricRegistry;
+import org.killbill.commons.metrics.api.Timer;
+import org.killbill.commons.metrics.impl.NoOpMetricRegistry;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestContextClassLoaderHelper {
+
+    private static final Logger log = LoggerFactory.getLogger(TestContextClassLoaderHelper.class);
+
+    @Test(groups = "fast")
+    public void testWrappedService() {
+        final DummyPluginApi service = new DefaultDummyPluginApi();
+        final DummyPluginApi wrapped = ContextClassLoaderHelper.getWrappedServiceWithCorrectContextClassLoader(service, DummyPluginApi.class, "dummy", new NoOpMetricRegistry());
+
+        Assert.assertEquals(wrapped.add(1, 2), 3);
+        Assert.assertEquals(wrapped.echo("hello"), "hello");
+        Assert.assertNull(wrapped.echo(null));
+        wrapped.doNothing();
+
+        // Checked exceptions are propagated as-is
+        try {
+            wrapped.fail("boom");
+            Assert.fail();
+        } catch (final DummyPluginException e) {
+            Assert.assertEquals(e.getMessage(), "boom");
+        }
+
+        final ClassLoader initialContextClassLoader = Thread.currentThread().getContextClassLoader();
+        final ClassLoader otherClassLoader = new URLClassLoader(new URL[0], null);
+        Thread.currentThread().setContextClassLoader(otherClassLoader);
+        try {
+            // The plugin sees its own classloader, the caller gets its own back
+            Assert.assertEquals(wrapped.getContextClassLoader(), DefaultDummyPluginApi.class.getClassLoader());
+            Assert.assertEquals(Thread.currentThread().getContextClassLoader(), otherClassLoader);
+        } finally {
+            Thread.currentThread().setContextClassLoader(initialContextClassLoader);
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testMetrics() {
+        final Timer addTimer = Mockito.mock(Timer.class);
+        final Meter failErrors = Mockito.mock(Meter.class);
+        final MetricRegistry metricRegistry = Mockito.mock(MetricRegistry.class);
+        Mockito.when(metricRegistry.timer(Mockito.anyString())).thenReturn(Mockito.mock(Timer.class));
+        Mockito.when(metricRegistry.meter(Mockito.anyString())).thenReturn(Mockito.mock(Meter.class));
+        Mockito.when(metricRegistry.timer("killbill-service.kb_plugin_latency.dummy.DummyPluginApi.add")).thenReturn(addTimer);
+        Mockito.when(metricRegistry.meter("killbill-service.kb_plugin_errors.dummy.DummyPluginApi.fail")).thenReturn(failErrors);
+
+        final DummyPluginApi wrapped = ContextClassLoaderHelper.getWrappedServiceWithCorrectContextClassLoader(new DefaultDummyPluginApi(), DummyPluginApi.class, "dummy", metricRegistry);
+        // Metrics are only registered once the methods are called
+        Mockito.verifyNoInteractions(metricRegistry);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(wrapped.add(i, 1), i + 1);
+        }
+        Mockito.verify(addTimer, Mockito.times(3)).update(Mockito.anyLong(), Mockito.eq(TimeUnit.NANOSECONDS));
+
+        try {
+            wrapped.fail("boom");
+            Assert.fail();
+        } catch (final DummyPluginException e) {
+            Mockito.verify(failErrors).mark(1);
+        }
+
+        // A single lookup in the registry per metric, none for methods never called
+        Mockito.verify(metricRegistry).timer("killbill-service.kb_plugin_latency.dummy.DummyPluginApi.add");
+        Mockito.verify(metricRegistry).meter("killbill-service.kb_plugin_errors.dummy.DummyPluginApi.fail");
+        Mockito.verify(metricRegistry, Mockito.never()).timer("killbill-service.kb_plugin_latency.dummy.DummyPluginApi.echo");
+    }
+
+    // Logged only: the absolute numbers depend too much on the machine (and the JIT) to be asserted on
+    @Test(groups = "fast")
+    public void testProxyOverhead() throws Exception {
+        final DummyPaymentPluginApi service = new DefaultDummyPaymentPluginApi();
+        final DummyPaymentPluginApi wrapped = ContextClassLoaderHelper.getWrappedServiceWithCorrectContextClassLoader(service, DummyPaymentPluginApi.class, "dummy", new NoOpMetricRegistry());
+
+        final int nbCalls = 200000;
+        for (int round = 0; round < 3; round++) {
+            final long directNanos = timePurchasePayment(service, nbCalls);
+            final long proxyNanos = timePurchasePayment(wrapped, nbCalls);
+            log.info("purchasePayment: direct {} ns/call, proxied {} ns/call", directNanos / nbCalls, proxyNanos / nbCalls);
+        }
+    }
+
+    private static long timePurchasePayment(final DummyPaymentPluginApi pluginApi, final int nbCalls) throws DummyPluginException {
+        final UUID accountId = UUID.randomUUID();
+        final UUID paymentId = UUID.randomUUID();
+        final UUID transactionId = UUID.randomUUID();
+        final UUID paymentMethodId = UUID.randomUUID();
+        final List<String> properties = List.of("key=value");
+
+        long total = 0;
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < nbCalls; i++) {
+            total += pluginApi.purchasePayment(accountId, paymentId, transactionId, paymentMethodId, BigDecimal.TEN, "USD", properties, "tenant").length();
+        }
+        final long nanos = System.nanoTime() - startTime;
+        Assert.assertEquals(total, (long) nbCalls * "PROCESSED".length());
+        return nanos;
+    }
+
+    // Same shape as PaymentPluginApi#purchasePayment
+    public interface DummyPaymentPluginApi {
+
+        String purchasePayment(UUID kbAccountId, UUID kbPaymentId, UUID kbTransactionId, UUID kbPaymentMethodId, BigDecimal amount, String currency, List<String> properties, String context) throws DummyPluginException;
+    }
+
+    private static class DefaultDummyPaymentPluginApi implements DummyPaymentPluginApi {
+
+        @Override
+        public String purchasePayment(final UUID kbAccountId, final UUID kbPaymentId, final UUID kbTransactionId, final UUID kbPaymentMethodId, final BigDecimal amount, final String currency, final List<String> properties, final String context) {
+            return "PROCESSED";
+        }
+    }
+
+    public interface DummyPluginApi {
+
+        int add(int a, int b);
+
+        String echo(String value);
+
+        void doNothing();
+
+        void fail(String message) throws DummyPluginException;
+
+        ClassLoader getContextClassLoader();
+    }
+
+    public static class DummyPluginException extends Exception {
+
+        public DummyPluginException(final String message) {
+            super(message);
+        }
+    }
+
+    private static class DefaultDummyPluginApi implements DummyPluginApi {
+
+        @Override
+        public int add(final int a, final int b) {
+            return a + b;
+        }
+
+        @Override
+        public String echo(final String value) {
+            return value;
+        }
+
+        @Override
+        public void doNothing() {
+        }
+
+        @Override
+        public void fail(final String message) throws DummyPluginException {
+            throw new DummyPluginException(message);
+        }
+
+        @Override
+        public ClassLoader getContextClassLoader() {
+            return Thread.currentThread().getContextClassLoader();
+        }
+    }
+}
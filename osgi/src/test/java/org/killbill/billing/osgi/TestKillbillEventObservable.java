@@ -0,0 +1,329 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Observable;
+import java.util.Observer;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Period;
+import org.killbill.billing.notification.plugin.api.ExtBusEvent;
+import org.killbill.billing.notification.plugin.api.ExtBusEventType;
+import org.killbill.billing.osgi.api.OSGIKillbillEventBatching;
+import org.killbill.billing.osgi.api.OSGIKillbillEventFilter;
+import org.killbill.billing.osgi.config.OSGIConfig;
+import org.killbill.billing.osgi.config.OSGIConfig.EventDispatchFullQueuePolicy;
+import org.killbill.billing.osgi.config.OSGIConfig.EventDispatchThreadType;
+import org.killbill.commons.metrics.impl.NoOpMetricRegistry;
+import org.killbill.queue.retry.QueueRetryException;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestKillbillEventObservable {
+
+    @Test(groups = "fast")
+    public void testSynchronousDispatch() {
+        final KillbillEventObservable observable = new KillbillEventObservable(createOSGIConfig(false, 10, EventDispatchFullQueuePolicy.BLOCK), new NoOpMetricRegistry());
+
+        final List<Object> received = Collections.synchronizedList(new ArrayList<>());
+        final Observer observer = (o, arg) -> received.add(arg);
+        observable.addObserver(observer);
+        // Duplicates are ignored
+        observable.addObserver(observer);
+        Assert.assertEquals(observable.countObservers(), 1);
+
+        final ExtBusEvent event = createEvent(UUID.randomUUID());
+        observable.setChangedAndNotifyObservers(event);
+        Assert.assertEquals(received, List.of(event));
+
+        observable.deleteObserver(observer);
+        Assert.assertEquals(observable.countObservers(), 0);
+        observable.setChangedAndNotifyObservers(event);
+        Assert.assertEquals(received.size(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testFilteredDispatch() {
+        final KillbillEventObservable observable = new KillbillEventObservable(createOSGIConfig(false, 10, EventDispatchFullQueuePolicy.BLOCK), new NoOpMetricRegistry());
+
+        final UUID tenantId = UUID.randomUUID();
+        final List<Object> received = new ArrayList<>();
+        observable.addObserver(new FilteredObserver(received, Set.of(ExtBusEventType.ACCOUNT_CREATION), Set.of(tenantId)));
+
+        final List<Object> allReceived = new ArrayList<>();
+        observable.addObserver((o, arg) -> allReceived.add(arg));
+
+        final ExtBusEvent accountCreation = createEvent(UUID.randomUUID(), ExtBusEventType.ACCOUNT_CREATION, tenantId);
+        final ExtBusEvent accountCreationOtherTenant = createEvent(UUID.randomUUID(), ExtBusEventType.ACCOUNT_CREATION, UUID.randomUUID());
+        final ExtBusEvent invoiceCreation = createEvent(UUID.randomUUID(), ExtBusEventType.INVOICE_CREATION, tenantId);
+        observable.setChangedAndNotifyObservers(accountCreation);
+        observable.setChangedAndNotifyObservers(accountCreationOtherTenant);
+        observable.setChangedAndNotifyObservers(invoiceCreation);
+
+        Assert.assertEquals(received, List.of(accountCreation));
+        Assert.assertEquals(allReceived, List.of(accountCreation, accountCreationOtherTenant, invoiceCreation));
+
+        // Non bus events are for everybody
+        final Object frameworkEvent = new Object();
+        observable.setChangedAndNotifyObservers(frameworkEvent);
+        Assert.assertEquals(received, List.of(accountCreation, frameworkEvent));
+    }
+
+    @Test(groups = "fast")
+    public void testBatchedDispatch() throws Exception {
+        final KillbillEventObservable observable = new KillbillEventObservable(createOSGIConfig(false, 10, EventDispatchFullQueuePolicy.BLOCK), new NoOpMetricRegistry());
+
+        final List<Object> received = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch latch = new CountDownLatch(2);
+        observable.addObserver(new BatchObserver(3, 100) {
+            @Override
+            public void update(final Observable o, final Object arg) {
+                received.add(arg);
+                latch.countDown();
+            }
+        });
+
+        final List<ExtBusEvent> sent = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final ExtBusEvent event = createEvent(UUID.randomUUID());
+            sent.add(event);
+            observable.setChangedAndNotifyObservers(event);
+        }
+
+        // First batch is full, second one is dispatched after the delay
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(received, List.of(sent.subList(0, 3), sent.subList(3, 4)));
+
+        observable.deleteObservers();
+    }
+
+    @Test(groups = "fast")
+    public void testFailedBatchIsReplayedOneAtATime() {
+        final KillbillEventObservable observable = new KillbillEventObservable(createOSGIConfig(false, 10, EventDispatchFullQueuePolicy.BLOCK), new NoOpMetricRegistry());
+
+        final List<Object> received = new ArrayList<>();
+        observable.addObserver(new BatchObserver(2, 60000) {
+            @Override
+            public void update(final Observable o, final Object arg) {
+                if (arg instanceof List) {
+                    throw new IllegalStateException("Batch failure");
+                }
+                received.add(arg);
+            }
+        });
+
+        final ExtBusEvent event1 = createEvent(UUID.randomUUID());
+        final ExtBusEvent event2 = createEvent(UUID.randomUUID());
+        observable.setChangedAndNotifyObservers(event1);
+        Assert.assertEquals(received.size(), 0);
+        observable.setChangedAndNotifyObservers(event2);
+        Assert.assertEquals(received, List.of(event1, event2));
+
+        observable.deleteObservers();
+    }
+
+    @Test(groups = "fast")
+    public void testBatchRetryRequestIsHonored() {
+        final KillbillEventObservable observable = new KillbillEventObservable(createOSGIConfig(false, 10, EventDispatchFullQueuePolicy.BLOCK), new NoOpMetricRegistry());
+
+        final QueueRetryException retryException = new QueueRetryException(List.of(Period.minutes(5)));
+        final List<Object> retried = new ArrayList<>();
+        observable.setRetryHandler((pluginKey, event, exception) -> {
+            Assert.assertSame(exception, retryException);
+            retried.add(event);
+        });
+
+        final List<Object> received = new ArrayList<>();
+        observable.addObserver(new BatchObserver(2, 60000) {
+            @Override
+            public void update(final Observable o, final Object arg) {
+                if (arg instanceof List) {
+                    throw retryException;
+                }
+                received.add(arg);
+            }
+        });
+
+        final ExtBusEvent event1 = createEvent(UUID.randomUUID());
+        final ExtBusEvent event2 = createEvent(UUID.randomUUID());
+        observable.setChangedAndNotifyObservers(event1);
+        observable.setChangedAndNotifyObservers(event2);
+
+        // Not replayed right away
+        Assert.assertEquals(received.size(), 0);
+        Assert.assertEquals(retried, List.of(event1, event2));
+
+        observable.deleteObservers();
+    }
+
+    @Test(groups = "fast")
+    public void testAsynchronousDispatchPreservesOrdering() throws Exception {
+        final KillbillEventObservable observable = new KillbillEventObservable(createOSGIConfig(true, 100, EventDispatchFullQueuePolicy.BLOCK), new NoOpMetricRegistry());
+
+        final int nbEvents = 50;
+        final CountDownLatch latch = new CountDownLatch(nbEvents);
+        final List<Object> received = Collections.synchronizedList(new ArrayList<>());
+        observable.addObserver((o, arg) -> {
+            received.add(arg);
+            latch.countDown();
+        });
+
+        final UUID accountId = UUID.randomUUID();
+        final List<ExtBusEvent> sent = new ArrayList<>();
+        for (int i = 0; i < nbEvents; i++) {
+            final ExtBusEvent event = createEvent(accountId);
+            sent.add(event);
+            observable.setChangedAndNotifyObservers(event);
+        }
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(received, sent);
+
+        observable.deleteObservers();
+    }
+
+    @Test(groups = "fast")
+    public void testAsynchronousDispatchFailureIsRetried() throws Exception {
+        final KillbillEventObservable observable = new KillbillEventObservable(createOSGIConfig(true, 10, EventDispatchFullQueuePolicy.BLOCK), new NoOpMetricRegistry());
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<Object> retried = Collections.synchronizedList(new ArrayList<>());
+        observable.setRetryHandler((pluginKey, event, exception) -> {
+            retried.add(event);
+            latch.countDown();
+        });
+        observable.addObserver((o, arg) -> {
+            throw new IllegalStateException("Plugin failure");
+        });
+
+        final ExtBusEvent event = createEvent(UUID.randomUUID());
+        observable.setChangedAndNotifyObservers(event);
+
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(retried, List.of(event));
+
+        observable.deleteObservers();
+    }
+
+    @Test(groups = "fast")
+    public void testSlowPluginDoesNotBlockOthers() throws Exception {
+        final KillbillEventObservable observable = new KillbillEventObservable(createOSGIConfig(true, 1, EventDispatchFullQueuePolicy.DROP), new NoOpMetricRegistry());
+
+        final CountDownLatch slowPluginBlocked = new CountDownLatch(1);
+        observable.addObserver((o, arg) -> {
+            try {
+                slowPluginBlocked.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        final int nbEvents = 10;
+        final CountDownLatch fastPluginLatch = new CountDownLatch(nbEvents);
+        observable.addObserver((o, arg) -> fastPluginLatch.countDown());
+
+        for (int i = 0; i < nbEvents; i++) {
+            observable.setChangedAndNotifyObservers(createEvent(UUID.randomUUID()));
+            // Let the fast plugin drain its (single element) queue
+            Thread.sleep(10);
+        }
+
+        Assert.assertTrue(fastPluginLatch.await(10, TimeUnit.SECONDS));
+
+        slowPluginBlocked.countDown();
+        observable.deleteObservers();
+    }
+
+    private ExtBusEvent createEvent(final UUID accountId) {
+        return createEvent(accountId, ExtBusEventType.ACCOUNT_CHANGE, UUID.randomUUID());
+    }
+
+    private ExtBusEvent createEvent(final UUID accountId, final ExtBusEventType eventType, final UUID tenantId) {
+        final ExtBusEvent event = Mockito.mock(ExtBusEvent.class);
+        Mockito.when(event.getAccountId()).thenReturn(accountId);
+        Mockito.when(event.getEventType()).thenReturn(eventType);
+        Mockito.when(event.getTenantId()).thenReturn(tenantId);
+        return event;
+    }
+
+    private OSGIConfig createOSGIConfig(final boolean async, final int capacity, final EventDispatchFullQueuePolicy policy) {
+        final OSGIConfig osgiConfig = Mockito.mock(OSGIConfig.class);
+        Mockito.when(osgiConfig.isEventDispatchAsync()).thenReturn(async);
+        Mockito.when(osgiConfig.getEventDispatchQueueCapacity()).thenReturn(capacity);
+        Mockito.when(osgiConfig.getEventDispatchLanes()).thenReturn(1);
+        Mockito.when(osgiConfig.getEventDispatchThreadType()).thenReturn(EventDispatchThreadType.PLATFORM);
+        Mockito.when(osgiConfig.getEventDispatchFullQueuePolicy()).thenReturn(policy);
+        return osgiConfig;
+    }
+
+    private abstract static class BatchObserver implements Observer, OSGIKillbillEventBatching {
+
+        private final int maxBatchSize;
+        private final long maxBatchDelayMillis;
+
+        private BatchObserver(final int maxBatchSize, final long maxBatchDelayMillis) {
+            this.maxBatchSize = maxBatchSize;
+            this.maxBatchDelayMillis = maxBatchDelayMillis;
+        }
+
+        @Override
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        @Override
+        public long getMaxBatchDelayMillis() {
+            return maxBatchDelayMillis;
+        }
+    }
+
+    private static final class FilteredObserver implements Observer, OSGIKillbillEventFilter {
+
+        private final List<Object> received;
+        private final Set<ExtBusEventType> eventTypes;
+        private final Set<UUID> tenantIds;
+
+        private FilteredObserver(final List<Object> received, final Set<ExtBusEventType> eventTypes, final Set<UUID> tenantIds) {
+            this.received = received;
+            this.eventTypes = eventTypes;
+            this.tenantIds = tenantIds;
+        }
+
+        @Override
+        public Set<ExtBusEventType> getEventTypes() {
+            return eventTypes;
+        }
+
+        @Override
+        public Set<UUID> getTenantIds() {
+            return tenantIds;
+        }
+
+        @Override
+        public void update(final Observable o, final Object arg) {
+            received.add(arg);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi;
+
+import java.util.UUID;
+
+import org.killbill.billing.ObjectType;
+import org.killbill.billing.notification.plugin.api.ExtBusEvent;
+import org.killbill.billing.notification.plugin.api.ExtBusEventType;
+import org.killbill.billing.osgi.KillbillEventRetriableBusHandler.OSGIBusEvent;
+import org.killbill.queue.QueueObjectMapper;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class TestKillbillEventRetriableBusHandler {
+
+    private final ObjectMapper objectMapper = QueueObjectMapper.get();
+
+    @Test(groups = "fast")
+    public void testOSGIBusEventSerialization() throws Exception {
+        final TestExtBusEvent extBusEvent = new TestExtBusEvent(UUID.randomUUID(), ObjectType.ACCOUNT, ExtBusEventType.ACCOUNT_CREATION, UUID.randomUUID(), UUID.randomUUID(), "{}");
+
+        final OSGIBusEvent event = new OSGIBusEvent(extBusEvent, TestExtBusEvent.class);
+        final String json = objectMapper.writeValueAsString(event);
+        Assert.assertTrue(json.startsWith("{\"extBusEventClass\":"), json);
+        Assert.assertFalse(json.contains("targetPluginKey"), json);
+        Assert.assertEquals(objectMapper.readValue(json, OSGIBusEvent.class), event);
+
+        final OSGIBusEvent targetedEvent = new OSGIBusEvent(extBusEvent, TestExtBusEvent.class, "plugin");
+        Assert.assertEquals(objectMapper.readValue(objectMapper.writeValueAsString(targetedEvent), OSGIBusEvent.class), targetedEvent);
+    }
+
+    @Test(groups = "fast")
+    public void testOSGIBusEventLegacyLayout() throws Exception {
+        final TestExtBusEvent extBusEvent = new TestExtBusEvent(UUID.randomUUID(), ObjectType.INVOICE, ExtBusEventType.INVOICE_CREATION, UUID.randomUUID(), UUID.randomUUID(), null);
+
+        // Rows written by previous versions have the event before its class
+        final String json = "{\"extBusEvent\":" + objectMapper.writeValueAsString(extBusEvent) +
+                            ",\"extBusEventClass\":\"" + TestExtBusEvent.class.getName() + "\"" +
+                            ",\"targetPluginKey\":null}";
+        Assert.assertEquals(objectMapper.readValue(json, OSGIBusEvent.class), new OSGIBusEvent(extBusEvent, TestExtBusEvent.class));
+    }
+
+    public static class TestExtBusEvent implements ExtBusEvent {
+
+        private final UUID objectId;
+        private final ObjectType objectType;
+        private final ExtBusEventType eventType;
+        private final UUID accountId;
+        private final UUID tenantId;
+        private final String metaData;
+
+        @JsonCreator
+        public TestExtBusEvent(@JsonProperty("objectId") final UUID objectId,
+                               @JsonProperty("objectType") final ObjectType objectType,
+                               @JsonProperty("eventType") final ExtBusEventType eventType,
+                               @JsonProperty("accountId") final UUID accountId,
+                               @JsonProperty("tenantId") final UUID tenantId,
+                               @JsonProperty("metaData") final String metaData) {
+            this.objectId = objectId;
+            this.objectType = objectType;
+            this.eventType = eventType;
+            this.accountId = accountId;
+            this.tenantId = tenantId;
+            this.metaData = metaData;
+        }
+
+        @Override
+        public ExtBusEventType getEventType() {
+            return eventType;
+        }
+
+        @Override
+        public ObjectType getObjectType() {
+            return objectType;
+        }
+
+        @Override
+        public UUID getObjectId() {
+            return objectId;
+        }
+
+        @Override
+        public UUID getAccountId() {
+            return accountId;
+        }
+
+        @Override
+        public UUID getTenantId() {
+            return tenantId;
+        }
+
+        @Override
+        public String getMetaData() {
+            return metaData;
+        }
+
+        @Override
+        public UUID getUserToken() {
+            return null;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            final TestExtBusEvent that = (TestExtBusEvent) o;
+            return objectId.equals(that.objectId) && eventType == that.eventType;
+        }
+
+        @Override
+        public int hashCode() {
+            return objectId.hashCode();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi;
+
+import java.util.Map;
+
+import org.killbill.billing.osgi.config.OSGIConfig;
+import org.killbill.billing.osgi.config.OSGIConfig.LoggerFullQueuePolicy;
+import org.killbill.commons.metrics.api.Meter;
+import org.killbill.commons.metrics.api.MetricRegistry;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.LogService;
+import org.osgi.util.tracker.ServiceTracker;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class TestOSGIAppender {
+
+    @Test(groups = "fast")
+    public void testAsyncForwarding() {
+        final LogService logService = Mockito.mock(LogService.class);
+        @SuppressWarnings("unchecked")
+        final ServiceTracker<LogService, LogService> logTracker = Mockito.mock(ServiceTracker.class);
+        Mockito.when(logTracker.getService()).thenReturn(logService);
+
+        final OSGIConfig osgiConfig = Mockito.mock(OSGIConfig.class);
+        Mockito.when(osgiConfig.isLoggerForwardingAsync()).thenReturn(true);
+        Mockito.when(osgiConfig.getLoggerForwardingQueueCapacity()).thenReturn(100);
+        Mockito.when(osgiConfig.getLoggerForwardingFullQueuePolicy()).thenReturn(LoggerFullQueuePolicy.DROP);
+        final MetricRegistry metricRegistry = Mockito.mock(MetricRegistry.class);
+        Mockito.when(metricRegistry.meter(Mockito.anyString())).thenReturn(Mockito.mock(Meter.class));
+
+        final LoggerContext loggerContext = new LoggerContext();
+        final OSGIAppender osgiAppender = new OSGIAppender(logTracker, Mockito.mock(Bundle.class), osgiConfig, metricRegistry);
+        osgiAppender.setContext(loggerContext);
+        osgiAppender.start();
+
+        final LoggingEvent event = new LoggingEvent("fqcn", loggerContext.getLogger("org.killbill.billing.payment.core.PaymentProcessor"), Level.INFO, "Payment {} created", null, new Object[]{"1"});
+        event.setMDCPropertyMap(Map.of("kb.tenantRecordId", "1"));
+        osgiAppender.doAppend(event);
+
+        // The logger name and MDC are passed as properties instead of being concatenated to the message
+        Mockito.verify(logService, Mockito.timeout(5000)).log(ArgumentMatchers.<ServiceReference>argThat(sr -> "org.killbill.billing.payment.core.PaymentProcessor".equals(sr.getProperty(OSGIAppender.LOGGER_NAME_KEY)) &&
+                                                                                                                  Map.of("kb.tenantRecordId", "1").equals(sr.getProperty(OSGIAppender.MDC_KEY))),
+                                                              Mockito.eq(LogService.LOG_INFO),
+                                                              Mockito.eq("Payment 1 created"),
+                                                              Mockito.isNull());
+
+        osgiAppender.stop();
+        Assert.assertEquals(osgiAppender.getQueueSize(), 0);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.billing.osgi.api.OSGIServiceCallRejected;
+import org.killbill.billing.osgi.config.OSGIConfig;
+import org.killbill.commons.metrics.api.MetricRegistry;
+import org.killbill.commons.metrics.impl.NoOpMetricRegistry;
+import org.mockito.Mockito;
+import org.skife.config.TimeSpan;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestPluginBulkhead {
+
+    @Test(groups = "fast")
+    public void testSaturatedBulkheadRejectsCalls() throws Throwable {
+        final PluginBulkhead bulkhead = new PluginBulkhead("plugin", "Api", 1, 0, 0, Map.of(), new NoOpMetricRegistry());
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread caller = new Thread(() -> {
+            try {
+                bulkhead.execute("slow", () -> {
+                    started.countDown();
+                    release.await();
+                    return null;
+                });
+            } catch (final Throwable e) {
+                throw new RuntimeException(e);
+            }
+        });
+        caller.start();
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(bulkhead.getActiveCalls(), 1);
+
+        try {
+            bulkhead.execute("fast", () -> "never");
+            Assert.fail();
+        } catch (final OSGIServiceCallRejected e) {
+            Assert.assertTrue(e.getMessage().contains("saturated"));
+        }
+
+        release.countDown();
+        caller.join(10000);
+        Assert.assertEquals(bulkhead.getActiveCalls(), 0);
+        Assert.assertEquals(bulkhead.execute("fast", () -> "ok"), "ok");
+    }
+
+    @Test(groups = "fast")
+    public void testMethodTimeout() throws Throwable {
+        final OSGIConfig osgiConfig = Mockito.mock(OSGIConfig.class);
+        Mockito.when(osgiConfig.getPluginBulkheadMaxConcurrentCalls()).thenReturn(10);
+        Mockito.when(osgiConfig.getPluginBulkheadMaxWait()).thenReturn(new TimeSpan("0s"));
+        Mockito.when(osgiConfig.getPluginBulkheadCallTimeout()).thenReturn(new TimeSpan("0s"));
+        Mockito.when(osgiConfig.getPluginBulkheadMethodTimeouts()).thenReturn(Set.of("Runnable.run=100ms", "Other.run=1ms", "invalid"));
+        final PluginBulkhead bulkhead = PluginBulkhead.create("plugin", Runnable.class, osgiConfig, new NoOpMetricRegistry());
+
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        try {
+            bulkhead.execute("run", () -> {
+                try {
+                    Thread.sleep(60000);
+                } catch (final InterruptedException e) {
+                    interrupted.countDown();
+                }
+                return null;
+            });
+            Assert.fail();
+        } catch (final OSGIServiceCallRejected e) {
+            Assert.assertTrue(e.getMessage().contains("timed out"));
+        }
+        Assert.assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+
+        // Exceptions from the plugin are propagated as-is, with or without timeout
+        try {
+            bulkhead.execute("run", () -> {
+                throw new IllegalStateException("boom");
+            });
+            Assert.fail();
+        } catch (final IllegalStateException e) {
+            Assert.assertEquals(e.getMessage(), "boom");
+        }
+        try {
+            bulkhead.execute("other", () -> {
+                throw new IllegalStateException("boom");
+            });
+            Assert.fail();
+        } catch (final IllegalStateException e) {
+            Assert.assertEquals(e.getMessage(), "boom");
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testMetricsAreRemovedOnShutdown() {
+        final MetricRegistry metricRegistry = Mockito.mock(MetricRegistry.class);
+        final PluginBulkhead bulkhead = new PluginBulkhead("plugin", "Api", 1, 0, 0, Map.of(), metricRegistry);
+        Mockito.verify(metricRegistry).gauge(Mockito.eq("killbill-service.kb_plugin_bulkhead_active.plugin.Api"), Mockito.any());
+
+        bulkhead.shutdown();
+        Mockito.verify(metricRegistry, Mockito.times(2)).remove("killbill-service.kb_plugin_bulkhead_active.plugin.Api");
+        Mockito.verify(metricRegistry).remove("killbill-service.kb_plugin_bulkhead_wait.plugin.Api");
+        Mockito.verify(metricRegistry).remove("killbill-service.kb_plugin_bulkhead_rejected.plugin.Api");
+        Mockito.verify(metricRegistry).remove("killbill-service.kb_plugin_bulkhead_timeouts.plugin.Api");
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi.http;
+
+import jakarta.servlet.Servlet;
+
+import org.killbill.billing.osgi.http.DefaultServletRouter.ServletRoute;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestDefaultServletRouter {
+
+    @Test(groups = "fast")
+    public void testLongestPrefixMatch() {
+        final DefaultServletRouter router = new DefaultServletRouter();
+        final Servlet fooServlet = Mockito.mock(Servlet.class);
+        final Servlet fooBarServlet = Mockito.mock(Servlet.class);
+        router.registerServiceFromPath("foo", fooServlet);
+        router.registerServiceFromPath("/foo/bar", fooBarServlet);
+
+        assertRoute(router.getRouteForPath("/foo"), "/foo", fooServlet);
+        assertRoute(router.getRouteForPath("/foo/"), "/foo", fooServlet);
+        assertRoute(router.getRouteForPath("/foo/baz"), "/foo", fooServlet);
+        assertRoute(router.getRouteForPath("/foo/bar"), "/foo/bar", fooBarServlet);
+        assertRoute(router.getRouteForPath("/foo/bar/baz/qux"), "/foo/bar", fooBarServlet);
+
+        // Prefixes only match whole path segments
+        Assert.assertNull(router.getRouteForPath("/foobar"));
+        Assert.assertNull(router.getRouteForPath("/bar/foo"));
+        Assert.assertNull(router.getRouteForPath("/"));
+        Assert.assertNull(router.getServiceForPath("/bar"));
+        Assert.assertNull(router.getPluginPrefixForPath("/bar"));
+
+        Assert.assertEquals(router.getServiceForPath("/foo/bar/baz"), fooBarServlet);
+        Assert.assertEquals(router.getPluginPrefixForPath("/foo/bar/baz"), "/foo/bar");
+
+        router.unregisterServiceFromPath("/foo/bar");
+        assertRoute(router.getRouteForPath("/foo/bar/baz"), "/foo", fooServlet);
+
+        router.unregisterServiceFromPath("/foo");
+        Assert.assertNull(router.getRouteForPath("/foo/bar/baz"));
+    }
+
+    @Test(groups = "fast")
+    public void testTrailingSlashIsNormalized() {
+        final DefaultServletRouter router = new DefaultServletRouter();
+        final Servlet fooServlet = Mockito.mock(Servlet.class);
+        router.registerServiceFromPath("/foo/", fooServlet);
+
+        // The plugin prefix is a prefix of the request path
+        assertRoute(router.getRouteForPath("/foo"), "/foo", fooServlet);
+        assertRoute(router.getRouteForPath("/foo/"), "/foo", fooServlet);
+        assertRoute(router.getRouteForPath("/foo/bar"), "/foo", fooServlet);
+
+        router.unregisterServiceFromPath("/foo");
+        Assert.assertNull(router.getRouteForPath("/foo"));
+    }
+
+    @Test(groups = "fast")
+    public void testManyRoutes() {
+        final DefaultServletRouter router = new DefaultServletRouter();
+        final int nbRoutes = 64;
+        final Servlet[] servlets = new Servlet[nbRoutes];
+        for (int i = 0; i < nbRoutes; i++) {
+            servlets[i] = Mockito.mock(Servlet.class);
+            // Mix of top-level and nested plugin prefixes
+            router.registerServiceFromPath(i % 2 == 0 ? "/plugin-" + i : "/plugin-" + (i - 1) + "/nested", servlets[i]);
+        }
+
+        for (int i = 0; i < nbRoutes; i++) {
+            final String prefix = i % 2 == 0 ? "/plugin-" + i : "/plugin-" + (i - 1) + "/nested";
+            assertRoute(router.getRouteForPath(prefix + "/some/resource"), prefix, servlets[i]);
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testInitializationFlagFollowsRegistration() {
+        final DefaultServletRouter router = new DefaultServletRouter();
+        final Servlet fooServlet = Mockito.mock(Servlet.class);
+        router.registerServiceFromPath("/foo", fooServlet);
+
+        final ServletRoute fooRoute = router.getRouteForPath("/foo/bar");
+        Assert.assertFalse(fooRoute.isInitialized());
+        fooRoute.markInitialized();
+
+        // Unrelated changes keep the route
+        router.registerServiceFromPath("/bar", Mockito.mock(Servlet.class));
+        Assert.assertSame(router.getRouteForPath("/foo/bar"), fooRoute);
+        Assert.assertTrue(router.getRouteForPath("/foo/bar").isInitialized());
+
+        // Same servlet registered again at the same prefix: not initialized again, and the route stays open
+        router.registerServiceFromPath("/foo/", fooServlet);
+        Assert.assertSame(router.getRouteForPath("/foo/bar"), fooRoute);
+        Assert.assertTrue(fooRoute.isInitialized());
+        Assert.assertTrue(fooRoute.setExecutor(null));
+
+        // Another servlet at the same prefix replaces the route
+        router.registerServiceFromPath("/foo", Mockito.mock(Servlet.class));
+        Assert.assertFalse(router.getRouteForPath("/foo/bar").isInitialized());
+        Assert.assertFalse(fooRoute.setExecutor(null));
+
+        // New registration, new servlet to initialize
+        router.unregisterServiceFromPath("/foo");
+        router.registerServiceFromPath("/foo", fooServlet);
+        Assert.assertFalse(router.getRouteForPath("/foo/bar").isInitialized());
+    }
+
+    private void assertRoute(final ServletRoute route, final String pluginPrefix, final Servlet servlet) {
+        Assert.assertNotNull(route);
+        Assert.assertEquals(route.getPluginPrefix(), pluginPrefix);
+        Assert.assertEquals(route.getServlet(), servlet);
+    }
+}
@@ -20,8 +20,12 @@
 package org.killbill.billing.osgi.http;
 
 import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import jakarta.servlet.AsyncContext;
 import jakarta.servlet.Servlet;
 import jakarta.servlet.ServletConfig;
 import jakarta.servlet.ServletException;
@@ -32,6 +36,7 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
 import org.killbill.billing.osgi.ContextClassLoaderHelper;
+import org.killbill.billing.osgi.api.OSGIKillbillAsyncServlet;
 import org.killbill.commons.metrics.api.MetricRegistry;
 import org.killbill.commons.metrics.impl.NoOpMetricRegistry;
 import org.mockito.Mockito;
@@ -52,7 +57,13 @@ public class TestOSGIServlet {
 
     public void testNoDuplicateServlets(final boolean withWrapping) throws Exception {
         final AtomicLong paymentRetriesPluginInvocationCount = new AtomicLong(0);
+        final AtomicLong paymentRetriesPluginInitCount = new AtomicLong(0);
         final Servlet paymentRetriesPluginServlet = new HttpServlet() {
+            @Override
+            public void init() throws ServletException {
+                paymentRetriesPluginInitCount.incrementAndGet();
+            }
+
             @Override
             public void service(final ServletRequest req, final ServletResponse res) throws ServletException, IOException {
                 paymentRetriesPluginInvocationCount.incrementAndGet();
@@ -61,7 +72,13 @@ public class TestOSGIServlet {
         Assert.assertEquals(paymentRetriesPluginInvocationCount.get(), 0);
 
         final AtomicLong anotherPluginInvocationCount = new AtomicLong(0);
+        final AtomicLong anotherPluginInitCount = new AtomicLong(0);
         final Servlet anotherPluginServlet = new HttpServlet() {
+            @Override
+            public void init() throws ServletException {
+                anotherPluginInitCount.incrementAndGet();
+            }
+
             @Override
             public void service(final ServletRequest req, final ServletResponse res) throws ServletException, IOException {
                 anotherPluginInvocationCount.incrementAndGet();
@@ -79,7 +96,7 @@ public class TestOSGIServlet {
             osgiServlet.servletRouter.registerServiceFromPath("/payment-retries-plugin", paymentRetriesPluginServlet);
             osgiServlet.servletRouter.registerServiceFromPath("/another-plugin", anotherPluginServlet);
         }
-        Assert.assertEquals(osgiServlet.initializedServlets.size(), 0);
+        Assert.assertEquals(paymentRetriesPluginInitCount.get() + anotherPluginInitCount.get(), 0);
 
         final HttpServletRequest paymentRetriesReq = Mockito.mock(HttpServletRequest.class);
         Mockito.when(paymentRetriesReq.getAttribute("killbill.osgi.servletConfig")).thenReturn(Mockito.mock(ServletConfig.class));
@@ -96,21 +113,77 @@ public class TestOSGIServlet {
         osgiServlet.doGet(paymentRetriesReq, resp);
         Assert.assertEquals(paymentRetriesPluginInvocationCount.get(), 1);
         Assert.assertEquals(anotherPluginInvocationCount.get(), 0);
-        Assert.assertEquals(osgiServlet.initializedServlets.size(), 1);
+        Assert.assertEquals(paymentRetriesPluginInitCount.get(), 1);
+        Assert.assertEquals(anotherPluginInitCount.get(), 0);
 
         osgiServlet.doGet(paymentRetriesReq, resp);
         Assert.assertEquals(paymentRetriesPluginInvocationCount.get(), 2);
         Assert.assertEquals(anotherPluginInvocationCount.get(), 0);
-        Assert.assertEquals(osgiServlet.initializedServlets.size(), 1);
+        Assert.assertEquals(paymentRetriesPluginInitCount.get(), 1);
+        Assert.assertEquals(anotherPluginInitCount.get(), 0);
 
         osgiServlet.doGet(anotherPluginReq, resp);
         Assert.assertEquals(paymentRetriesPluginInvocationCount.get(), 2);
         Assert.assertEquals(anotherPluginInvocationCount.get(), 1);
-        Assert.assertEquals(osgiServlet.initializedServlets.size(), 2);
+        Assert.assertEquals(paymentRetriesPluginInitCount.get(), 1);
+        Assert.assertEquals(anotherPluginInitCount.get(), 1);
 
         osgiServlet.doGet(anotherPluginReq, resp);
         Assert.assertEquals(paymentRetriesPluginInvocationCount.get(), 2);
         Assert.assertEquals(anotherPluginInvocationCount.get(), 2);
-        Assert.assertEquals(osgiServlet.initializedServlets.size(), 2);
+        Assert.assertEquals(paymentRetriesPluginInitCount.get(), 1);
+        Assert.assertEquals(anotherPluginInitCount.get(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testAsyncServletRunsOnPluginExecutor() throws Exception {
+        final CountDownLatch completed = new CountDownLatch(1);
+        final AtomicReference<String> pluginThreadName = new AtomicReference<>();
+        final AtomicReference<String> pathInfo = new AtomicReference<>();
+        final Servlet asyncPluginServlet = new AsyncPluginServlet() {
+            @Override
+            public void service(final ServletRequest req, final ServletResponse res) {
+                pluginThreadName.set(Thread.currentThread().getName());
+                pathInfo.set(((HttpServletRequest) req).getPathInfo());
+            }
+        };
+
+        final OSGIServlet osgiServlet = new OSGIServlet();
+        osgiServlet.servletRouter = new DefaultServletRouter();
+        osgiServlet.metricRegistry = new NoOpMetricRegistry();
+        osgiServlet.servletRouter.registerServiceFromPath("/async-plugin", asyncPluginServlet);
+
+        final AsyncContext asyncContext = Mockito.mock(AsyncContext.class);
+        Mockito.doAnswer(invocation -> {
+            completed.countDown();
+            return null;
+        }).when(asyncContext).complete();
+
+        final HttpServletRequest req = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(req.getServletPath()).thenReturn("");
+        Mockito.when(req.getPathInfo()).thenReturn("/async-plugin/report");
+        Mockito.when(req.isAsyncSupported()).thenReturn(true);
+        Mockito.when(req.startAsync(Mockito.any(ServletRequest.class), Mockito.any(ServletResponse.class))).thenReturn(asyncContext);
+
+        osgiServlet.doGet(req, Mockito.mock(HttpServletResponse.class));
+
+        Assert.assertTrue(completed.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(pluginThreadName.get().startsWith("osgi-servlet-async-plugin"));
+        Assert.assertEquals(pathInfo.get(), "/report");
+
+        osgiServlet.servletRouter.unregisterServiceFromPath("/async-plugin");
+    }
+
+    private abstract static class AsyncPluginServlet extends HttpServlet implements OSGIKillbillAsyncServlet {
+
+        @Override
+        public int getMaxConcurrentRequests() {
+            return 2;
+        }
+
+        @Override
+        public int getMaxQueuedRequests() {
+            return 10;
+        }
     }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi.http;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.killbill.commons.metrics.api.Meter;
+import org.killbill.commons.metrics.api.MetricRegistry;
+import org.mockito.Mockito;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestPluginServletExecutor {
+
+    @Test(groups = "fast")
+    public void testMetrics() throws Exception {
+        final Meter rejectedMeter = Mockito.mock(Meter.class);
+        final MetricRegistry metricRegistry = Mockito.mock(MetricRegistry.class);
+        Mockito.when(metricRegistry.meter("killbill-service.kb_plugin_servlet_rejected.plugins.foo")).thenReturn(rejectedMeter);
+
+        final PluginServletExecutor executor = new PluginServletExecutor("/plugins/foo/", 1, 1, TestPluginServletExecutor.class.getClassLoader(), metricRegistry);
+        Mockito.verify(metricRegistry).gauge(Mockito.eq("killbill-service.kb_plugin_servlet_queue_size.plugins.foo"), Mockito.any());
+        Mockito.verify(metricRegistry).gauge(Mockito.eq("killbill-service.kb_plugin_servlet_active.plugins.foo"), Mockito.any());
+
+        // One request running, one queued: the next one is rejected
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Runnable blockingTask = () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        try {
+            Assert.assertTrue(executor.submit(blockingTask));
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            Assert.assertTrue(executor.submit(blockingTask));
+            Assert.assertFalse(executor.submit(blockingTask));
+            Mockito.verify(rejectedMeter).mark(1);
+        } finally {
+            release.countDown();
+        }
+
+        // All the metrics of the plugin go away with it
+        executor.shutdown();
+        Mockito.verify(metricRegistry).remove("killbill-service.kb_plugin_servlet_queue_size.plugins.foo");
+        Mockito.verify(metricRegistry).remove("killbill-service.kb_plugin_servlet_active.plugins.foo");
+        Mockito.verify(metricRegistry).remove("killbill-service.kb_plugin_servlet_rejected.plugins.foo");
+    }
+
+    @Test(groups = "fast")
+    public void testMetricNames() {
+        Assert.assertEquals(PluginServletExecutor.toMetricName("/foo"), "foo");
+        Assert.assertEquals(PluginServletExecutor.toMetricName("foo"), "foo");
+        Assert.assertEquals(PluginServletExecutor.toMetricName("//plugins/foo/bar/"), "plugins.foo.bar");
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.osgi.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.osgi.service.http.HttpContext;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class TestStaticServlet {
+
+    private static final String CONTENT = "body { color: red; }";
+
+    private HttpContext httpContext;
+    private StaticServlet staticServlet;
+
+    @BeforeMethod(groups = "fast")
+    public void setUp() throws Exception {
+        final Path resourcesDir = Files.createTempDirectory("static-servlet");
+        resourcesDir.toFile().deleteOnExit();
+        final Path cssFile = Files.writeString(resourcesDir.resolve("app.css"), CONTENT);
+        final Path gzFile = Files.write(resourcesDir.resolve("app.css.gz"), new byte[]{1, 2, 3});
+        cssFile.toFile().deleteOnExit();
+        gzFile.toFile().deleteOnExit();
+
+        httpContext = Mockito.mock(HttpContext.class);
+        Mockito.when(httpContext.getResource("/app.css")).thenReturn(cssFile.toUri().toURL());
+        Mockito.when(httpContext.getResource("/app.css.gz")).thenReturn(gzFile.toUri().toURL());
+        Mockito.when(httpContext.getMimeType("/app.css")).thenReturn("text/css");
+        staticServlet = new StaticServlet(httpContext);
+    }
+
+    @Test(groups = "fast")
+    public void testETagAndConditionalRequest() throws Exception {
+        final CapturedResponse first = get(null, null);
+        Assert.assertEquals(first.body(), CONTENT);
+        Mockito.verify(first.resp).setStatus(HttpServletResponse.SC_OK);
+        Mockito.verify(first.resp).setContentType("text/css");
+        Mockito.verify(first.resp).setContentLength(CONTENT.length());
+        final ArgumentCaptor<String> etagCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(first.resp).setHeader(Mockito.eq("ETag"), etagCaptor.capture());
+        final String etag = etagCaptor.getValue();
+        Assert.assertTrue(etag.startsWith("\"") && etag.endsWith("\""));
+
+        final CapturedResponse second = get(etag, null);
+        Mockito.verify(second.resp).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        Assert.assertEquals(second.body(), "");
+
+        // Resolved once
+        Mockito.verify(httpContext, Mockito.times(1)).getResource("/app.css.gz");
+    }
+
+    @Test(groups = "fast")
+    public void testRange() throws Exception {
+        final CapturedResponse partial = get(null, "bytes=0-3");
+        Mockito.verify(partial.resp).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        Mockito.verify(partial.resp).setHeader("Content-Range", "bytes 0-3/" + CONTENT.length());
+        Assert.assertEquals(partial.body(), CONTENT.substring(0, 4));
+
+        final CapturedResponse suffix = get(null, "bytes=-2");
+        Assert.assertEquals(suffix.body(), CONTENT.substring(CONTENT.length() - 2));
+
+        final CapturedResponse unsatisfiable = get(null, "bytes=1000-");
+        Mockito.verify(unsatisfiable.resp).sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+    }
+
+    @Test(groups = "fast")
+    public void testPrecompressedVariant() throws Exception {
+        final HttpServletRequest req = createRequest(null, null);
+        Mockito.when(req.getHeader("Accept-Encoding")).thenReturn("br;q=0, gzip, deflate");
+        final CapturedResponse gzipped = execute(req);
+
+        Mockito.verify(gzipped.resp).setHeader("Content-Encoding", "gzip");
+        Mockito.verify(gzipped.resp).setHeader("Vary", "Accept-Encoding");
+        Assert.assertEquals(gzipped.out.toByteArray(), new byte[]{1, 2, 3});
+
+        final CapturedResponse identity = get(null, null);
+        Mockito.verify(identity.resp, Mockito.never()).setHeader(Mockito.eq("Content-Encoding"), Mockito.anyString());
+        Assert.assertEquals(identity.body(), CONTENT);
+    }
+
+    private CapturedResponse get(final String ifNoneMatch, final String range) throws Exception {
+        return execute(createRequest(ifNoneMatch, range));
+    }
+
+    private HttpServletRequest createRequest(final String ifNoneMatch, final String range) {
+        final HttpServletRequest req = Mockito.mock(HttpServletRequest.class);
+        Mockito.when(req.getRequestURI()).thenReturn("/plugins/foo/app.css");
+        Mockito.when(req.getHeader("If-None-Match")).thenReturn(ifNoneMatch);
+        Mockito.when(req.getHeader("Range")).thenReturn(range);
+        Mockito.when(req.getDateHeader("If-Modified-Since")).thenReturn(-1L);
+        return req;
+    }
+
+    private CapturedResponse execute(final HttpServletRequest req) throws Exception {
+        final CapturedResponse captured = new CapturedResponse();
+        staticServlet.doGet(req, captured.resp);
+        return captured;
+    }
+
+    private static final class CapturedResponse {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final HttpServletResponse resp = Mockito.mock(HttpServletResponse.class);
+
+        private CapturedResponse() throws IOException {
+            Mockito.when(resp.getOutputStream()).thenReturn(new ServletOutputStream() {
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setWriteListener(final WriteListener writeListener) {
+                }
+
+                @Override
+                public void write(final int b) {
+                    out.write(b);
+                }
+            });
+        }
+
+        private String body() {
+            return out.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
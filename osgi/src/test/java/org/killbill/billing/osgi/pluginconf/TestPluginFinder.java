@@ -26,13 +26,20 @@ import java.util.Set;
 
 import javax.annotation.Nullable;
 
+import org.killbill.billing.osgi.api.config.PluginConfig;
 import org.killbill.billing.osgi.api.config.PluginJavaConfig;
+import org.killbill.billing.osgi.api.config.PluginLanguage;
 import org.killbill.billing.osgi.config.OSGIConfig;
 import org.killbill.commons.utils.io.Files;
+import org.skife.config.TimeSpan;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
 
 public class TestPluginFinder {
 
@@ -153,6 +160,67 @@ public class TestPluginFinder {
 
     }
 
+    @Test(groups = "fast")
+    public void testReloadAndLookups() throws IOException, InterruptedException, PluginConfigException {
+
+        java.nio.file.Files.writeString(new File(plugins, PluginFinder.IDENTIFIERS_FILE_NAME).toPath(),
+                                        "{\"foo\":{\"plugin_name\":\"FOO\",\"language\":\"java\"}}");
+        final File plugin = createNewJavaPlugin("FOO", new String[]{"1.0"}, null);
+        createNewJavaPlugin("BAR", new String[]{"0.1"}, null);
+
+        assertEquals(pluginFinder.getVersionsForPlugin("FOO", null).size(), 1);
+        assertEquals(pluginFinder.getVersionsForPlugin("FOO", null).get(0).getPluginKey(), "foo");
+        assertEquals(pluginFinder.getPluginKey("FOO", PluginLanguage.JAVA), "foo");
+        assertEquals(pluginFinder.resolvePluginKey("foo").getPluginName(), "FOO");
+        assertNull(pluginFinder.getPluginKey("BAR", PluginLanguage.JAVA));
+
+        // New version
+        final File version = new File(plugin, "2.0");
+        version.mkdir();
+        new File(version, "FOO.jar").createNewFile();
+        // Disabled plugin
+        addDisabledFile(new File(pluginsJava, "BAR"), "0.1");
+
+        // Modification times within the racy window aren't trusted: make them old enough to be
+        setLastModifiedInThePast(plugins);
+        pluginFinder.reloadPlugins();
+        assertEquals(pluginFinder.getVersionsForPlugin("FOO", null).size(), 2);
+        assertEquals(pluginFinder.getVersionsForPlugin("FOO", "1.0").size(), 1);
+        assertEquals(pluginFinder.getPluginVersionSelectedForStart("FOO"), "2.0");
+        assertEquals(pluginFinder.getVersionsForPlugin("BAR", null).size(), 0);
+        assertEquals(pluginFinder.getAllPlugins().keySet(), Set.of("FOO"));
+        // The index is shared: callers can't modify it
+        try {
+            pluginFinder.getAllPlugins().get("FOO").clear();
+            fail();
+        } catch (final UnsupportedOperationException ignored) {
+        }
+        assertEquals(pluginFinder.getAllPlugins().get("FOO").size(), 2);
+
+        // Unchanged plugin directory, not parsed again
+        final PluginConfig fooConfig = pluginFinder.getVersionsForPlugin("FOO", "2.0").get(0);
+        pluginFinder.reloadPlugins();
+        assertSame(pluginFinder.getVersionsForPlugin("FOO", "2.0").get(0), fooConfig);
+
+        // Changed plugin directory, parsed again
+        final File newVersion = new File(plugin, "3.0");
+        newVersion.mkdir();
+        new File(newVersion, "FOO.jar").createNewFile();
+        pluginFinder.reloadPlugins();
+        assertEquals(pluginFinder.getVersionsForPlugin("FOO", null).size(), 3);
+        assertNotSame(pluginFinder.getVersionsForPlugin("FOO", "2.0").get(0), fooConfig);
+    }
+
+    private void setLastModifiedInThePast(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                setLastModifiedInThePast(child);
+            }
+        }
+        file.setLastModified(System.currentTimeMillis() - 60000);
+    }
+
     private void addDisabledFile(final File plugin, final String version) throws IOException {
         final File versionFile = new File(plugin, version);
 
@@ -215,6 +283,93 @@ public class TestPluginFinder {
             public Set<String> getMandatoryPlugins() {
                 return null;
             }
+            @Override
+            public boolean isEventDispatchAsync() {
+                return false;
+            }
+            @Override
+            public int getEventDispatchQueueCapacity() {
+                return 1000;
+            }
+            @Override
+            public int getEventDispatchLanes() {
+                return 1;
+            }
+            @Override
+            public EventDispatchThreadType getEventDispatchThreadType() {
+                return EventDispatchThreadType.PLATFORM;
+            }
+            @Override
+            public EventDispatchFullQueuePolicy getEventDispatchFullQueuePolicy() {
+                return EventDispatchFullQueuePolicy.BLOCK;
+            }
+            @Override
+            public TimeSpan getEventDispatchRetryDelay() {
+                return new TimeSpan("1m");
+            }
+            @Override
+            public int getEventDispatchRetryMax() {
+                return 10;
+            }
+            @Override
+            public boolean isPluginBulkheadEnabled() {
+                return false;
+            }
+
+            @Override
+            public int getPluginBulkheadMaxConcurrentCalls() {
+                return 100;
+            }
+
+            @Override
+            public TimeSpan getPluginBulkheadMaxWait() {
+                return new TimeSpan("0s");
+            }
+
+            @Override
+            public TimeSpan getPluginBulkheadCallTimeout() {
+                return new TimeSpan("0s");
+            }
+
+            @Override
+            public Set<String> getPluginBulkheadMethodTimeouts() {
+                return null;
+            }
+
+            @Override
+            public int getBundleStartupParallelism() {
+                return 1;
+            }
+
+            @Override
+            public boolean isOSGIBundleCacheWarmStartEnabled() {
+                return false;
+            }
+
+            @Override
+            public boolean isPluginRestartSwapEnabled() {
+                return false;
+            }
+
+            @Override
+            public TimeSpan getPluginRestartSwapDrainTimeout() {
+                return new TimeSpan("30s");
+            }
+
+            @Override
+            public boolean isLoggerForwardingAsync() {
+                return false;
+            }
+
+            @Override
+            public int getLoggerForwardingQueueCapacity() {
+                return 10000;
+            }
+
+            @Override
+            public LoggerFullQueuePolicy getLoggerForwardingFullQueuePolicy() {
+                return LoggerFullQueuePolicy.DROP;
+            }
 
         };
     }
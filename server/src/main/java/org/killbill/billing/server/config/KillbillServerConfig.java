@@ -22,6 +22,7 @@ package org.killbill.billing.server.config;
 import org.killbill.billing.platform.api.KillbillPlatformConfig;
 import org.skife.config.Config;
 import org.skife.config.Default;
+import org.skife.config.DefaultNull;
 import org.skife.config.Description;
 import org.skife.config.TimeSpan;
 
@@ -76,4 +77,9 @@ public interface KillbillServerConfig extends KillbillPlatformConfig {
     @Default("true")
     @Description("Whether queue healthcheck is enabled")
     public boolean isQueueHealthCheckEnabled();
+
+    @Config(KILL_BILL_NAMESPACE + "server.bootTrace.file")
+    @DefaultNull
+    @Description("File to write the trace of the boot sequence to (Chrome trace event format)")
+    public String getBootTraceFile();
 }
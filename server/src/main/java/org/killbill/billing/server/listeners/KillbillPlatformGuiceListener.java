@@ -19,9 +19,11 @@
 
 package org.killbill.billing.server.listeners;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import jakarta.servlet.ServletContext;
 import jakarta.servlet.ServletContextEvent;
@@ -31,6 +33,7 @@ import org.killbill.billing.lifecycle.api.Lifecycle;
 import org.killbill.billing.platform.api.KillbillConfigSource;
 import org.killbill.billing.platform.config.DefaultKillbillConfigSource;
 import org.killbill.billing.platform.glue.KillBillPlatformModuleBase;
+import org.killbill.billing.platform.trace.BootTrace;
 import org.killbill.billing.server.config.KillbillServerConfig;
 import org.killbill.billing.server.healthchecks.KillbillHealthcheck;
 import org.killbill.billing.server.healthchecks.KillbillPluginsHealthcheck;
@@ -40,6 +43,7 @@ import org.killbill.billing.server.modules.KillbillPlatformModule;
 import org.killbill.bus.api.PersistentBus;
 import org.killbill.commons.embeddeddb.EmbeddedDB;
 import org.killbill.commons.health.api.HealthCheckRegistry;
+import org.killbill.commons.metrics.api.Gauge;
 import org.killbill.commons.metrics.api.MetricRegistry;
 import org.killbill.commons.metrics.modules.StatsModule;
 import org.killbill.commons.metrics.servlets.HealthCheckServlet;
@@ -89,20 +93,33 @@ public class KillbillPlatformGuiceListener extends GuiceServletContextListener {
 
     @Override
     public void contextInitialized(final ServletContextEvent event) {
+        BootTrace.reset();
         try {
-            initializeConfig();
-        } catch (final Exception e) {
-            throw new RuntimeException(e);
-        }
+            try (final BootTrace.Span ignored = BootTrace.start(BootTrace.CATEGORY_PHASE, "initializeConfig")) {
+                initializeConfig();
+            } catch (final Exception e) {
+                throw new RuntimeException(e);
+            }
 
-        // Will call super.contextInitialized(event)
-        initializeGuice(event);
+            // Will call super.contextInitialized(event)
+            try (final BootTrace.Span ignored = BootTrace.start(BootTrace.CATEGORY_PHASE, "initializeGuice")) {
+                initializeGuice(event);
+            }
 
-        initializeMetrics(event);
+            try (final BootTrace.Span ignored = BootTrace.start(BootTrace.CATEGORY_PHASE, "initializeMetrics")) {
+                initializeMetrics(event);
+            }
 
-        registerEhcacheMBeans();
+            registerEhcacheMBeans();
 
-        startLifecycle();
+            try (final BootTrace.Span ignored = BootTrace.start(BootTrace.CATEGORY_PHASE, "startLifecycle")) {
+                startLifecycle();
+            }
+        } finally {
+            // Stop recording even if the boot failed, spans opened afterwards would otherwise accumulate forever
+            BootTrace.stop();
+        }
+        exportBootTrace();
 
         // The host will be put in rotation in KillbillGuiceFilter, once Jersey is fully initialized
     }
@@ -197,6 +214,44 @@ public class KillbillPlatformGuiceListener extends GuiceServletContextListener {
         }
     }
 
+    // Exposes the duration of the boot phases as gauges and, if configured, writes the full trace
+    protected void exportBootTrace() {
+        final MetricRegistry metricRegistry = injector.getInstance(MetricRegistry.class);
+
+        long totalMillis = 0;
+        for (final BootTrace.Span span : BootTrace.getSpans()) {
+            if (!BootTrace.CATEGORY_PHASE.equals(span.getCategory())) {
+                continue;
+            }
+            final long durationMillis = TimeUnit.NANOSECONDS.toMillis(span.getDurationNanos());
+            totalMillis += durationMillis;
+            metricRegistry.gauge("killbill-server.kb_boot_duration_ms." + span.getName(), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return durationMillis;
+                }
+            });
+        }
+
+        final long bootMillis = totalMillis;
+        metricRegistry.gauge("killbill-server.kb_boot_duration_ms.total", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return bootMillis;
+            }
+        });
+        logger.info("Boot sequence took {} ms", bootMillis);
+
+        if (config.getBootTraceFile() != null) {
+            try {
+                new ObjectMapper().writeValue(new File(config.getBootTraceFile()), BootTrace.toChromeTrace());
+                logger.info("Boot trace written to {}", config.getBootTraceFile());
+            } catch (final IOException e) {
+                logger.warn("Unable to write the boot trace to {}", config.getBootTraceFile(), e);
+            }
+        }
+    }
+
     protected void registerEhcacheMBeans() {
         // Ehcache 3.x does not have any MBean integration for now.
         // See https://groups.google.com/d/msg/ehcache-users/UFRXilVykyE/ENEFyvpxAgAJ
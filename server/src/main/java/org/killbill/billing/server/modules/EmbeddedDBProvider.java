@@ -34,6 +34,7 @@ import java.util.List;
 import jakarta.inject.Inject;
 import jakarta.inject.Provider;
 
+import org.killbill.billing.platform.trace.BootTrace;
 import org.killbill.billing.server.dao.EmbeddedDBFactory;
 import org.killbill.commons.embeddeddb.EmbeddedDB;
 import org.killbill.commons.embeddeddb.EmbeddedDB.DBEngine;
@@ -59,7 +60,7 @@ public class EmbeddedDBProvider implements Provider<EmbeddedDB> {
         final EmbeddedDB embeddedDB = EmbeddedDBFactory.get(config);
 
         if (DBEngine.H2.equals(embeddedDB.getDBEngine())) {
-            try {
+            try (final BootTrace.Span ignored = BootTrace.start(BootTrace.CATEGORY_EMBEDDED_DB, config.getJdbcUrl())) {
                 // Standalone mode?
                 initializeEmbeddedDB(embeddedDB);
             } catch (final IOException e) {
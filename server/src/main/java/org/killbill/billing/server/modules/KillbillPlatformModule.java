@@ -40,6 +40,7 @@ import org.killbill.billing.platform.glue.KillBillPlatformModuleBase;
 import org.killbill.billing.platform.glue.NotificationQueueModule;
 import org.killbill.billing.platform.glue.ReferenceableDataSourceSpyProvider;
 import org.killbill.billing.platform.jndi.JNDIManager;
+import org.killbill.billing.platform.trace.BootTrace;
 import org.killbill.billing.server.config.KillbillServerConfig;
 import org.killbill.billing.server.metrics.KillbillPluginsMetricRegistry;
 import org.killbill.clock.Clock;
@@ -67,6 +68,8 @@ import com.fasterxml.jackson.datatype.joda.JodaModule;
 import com.google.inject.Injector;
 import com.google.inject.Provides;
 import com.google.inject.TypeLiteral;
+import com.google.inject.matcher.Matchers;
+import com.google.inject.spi.ProvisionListener;
 
 import com.google.inject.name.Names;
 
@@ -90,17 +93,40 @@ public class KillbillPlatformModule extends KillBillPlatformModuleBase {
 
     @Override
     protected void configure() {
-        configureJackson();
-        configureClock();
-        configureDao();
-        configureConfig();
-        configureEmbeddedDBs();
-        configureLifecycle();
-        configureBuses();
-        configureNotificationQ();
-        configureOSGI();
-        configureJNDI();
-        configureMetrics();
+        configureBootTrace();
+        trace("configureJackson", this::configureJackson);
+        trace("configureClock", this::configureClock);
+        trace("configureDao", this::configureDao);
+        trace("configureConfig", this::configureConfig);
+        trace("configureEmbeddedDBs", this::configureEmbeddedDBs);
+        trace("configureLifecycle", this::configureLifecycle);
+        trace("configureBuses", this::configureBuses);
+        trace("configureNotificationQ", this::configureNotificationQ);
+        trace("configureOSGI", this::configureOSGI);
+        trace("configureJNDI", this::configureJNDI);
+        trace("configureMetrics", this::configureMetrics);
+    }
+
+    protected void trace(final String name, final Runnable configuration) {
+        try (final BootTrace.Span ignored = BootTrace.start(BootTrace.CATEGORY_GUICE, getClass().getSimpleName() + "." + name)) {
+            configuration.run();
+        }
+    }
+
+    protected void configureBootTrace() {
+        // Eager singletons are provisioned while the injector is being created
+        bindListener(Matchers.any(), new ProvisionListener() {
+            @Override
+            public <T> void onProvision(final ProvisionInvocation<T> provision) {
+                if (!BootTrace.isRecording()) {
+                    provision.provision();
+                    return;
+                }
+                try (final BootTrace.Span ignored = BootTrace.start(BootTrace.CATEGORY_GUICE, "provision:" + provision.getBinding().getKey())) {
+                    provision.provision();
+                }
+            }
+        });
     }
 
     protected void configureJackson() {
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.platform.index;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+//
+// Generates the ServiceFinder index of the module being compiled: the interfaces extending KillbillService (or the
+// interface given by the killbill.serviceIndex.interface option). It is registered as a processor: modules defining
+// services enable it by depending on this artifact with the provided scope, so that it isn't inherited by their users.
+// The previous index is merged on incremental compilations.
+//
+@SupportedAnnotationTypes("*")
+@SupportedOptions(ServiceIndexProcessor.INTERFACE_OPTION)
+public class ServiceIndexProcessor extends AbstractProcessor {
+
+    // Read by ServiceFinder, one per jar
+    public static final String SERVICES_INDEX = "META-INF/killbill/services.idx";
+
+    public static final String INTERFACE_OPTION = "killbill.serviceIndex.interface";
+
+    private static final String DEFAULT_INTERFACE = "org.killbill.billing.platform.api.KillbillService";
+
+    // Sorted for reproducible builds
+    private final Set<String> services = new TreeSet<String>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        final String interfaceName = processingEnv.getOptions().getOrDefault(INTERFACE_OPTION, DEFAULT_INTERFACE);
+        final TypeElement interfaceElement = processingEnv.getElementUtils().getTypeElement(interfaceName);
+        if (interfaceElement == null) {
+            // Not on the compile classpath: nothing to index
+            return false;
+        }
+
+        final TypeMirror interfaceType = processingEnv.getTypeUtils().erasure(interfaceElement.asType());
+        if (roundEnv.processingOver()) {
+            writeIndex(interfaceElement, interfaceType);
+        } else {
+            for (final Element element : roundEnv.getRootElements()) {
+                collectServices(element, interfaceElement, interfaceType);
+            }
+        }
+
+        // Don't claim any annotation
+        return false;
+    }
+
+    private void collectServices(final Element element, final TypeElement interfaceElement, final TypeMirror interfaceType) {
+        if (!element.getKind().isClass() && !element.getKind().isInterface()) {
+            return;
+        }
+
+        final TypeElement typeElement = (TypeElement) element;
+        if (isService(typeElement, interfaceElement, interfaceType)) {
+            services.add(processingEnv.getElementUtils().getBinaryName(typeElement).toString());
+        }
+
+        for (final Element enclosedElement : typeElement.getEnclosedElements()) {
+            collectServices(enclosedElement, interfaceElement, interfaceType);
+        }
+    }
+
+    private boolean isService(final TypeElement typeElement, final TypeElement interfaceElement, final TypeMirror interfaceType) {
+        return typeElement.getKind() == ElementKind.INTERFACE &&
+               !typeElement.equals(interfaceElement) &&
+               processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(typeElement.asType()), interfaceType);
+    }
+
+    private void writeIndex(final TypeElement interfaceElement, final TypeMirror interfaceType) {
+        // Incremental compilations only see the modified sources: keep the services of the previous index which still exist
+        final Set<String> allServices = new TreeSet<String>(services);
+        for (final String previousService : readPreviousIndex()) {
+            final TypeElement typeElement = processingEnv.getElementUtils().getTypeElement(previousService.replace('$', '.'));
+            if (typeElement != null &&
+                processingEnv.getElementUtils().getBinaryName(typeElement).contentEquals(previousService) &&
+                isService(typeElement, interfaceElement, interfaceType)) {
+                allServices.add(previousService);
+            }
+        }
+        if (allServices.isEmpty()) {
+            return;
+        }
+
+        try {
+            final FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICES_INDEX);
+            try (final Writer writer = index.openWriter()) {
+                for (final String service : allServices) {
+                    writer.write(service);
+                    writer.write('\n');
+                }
+            }
+        } catch (final IOException e) {
+            processingEnv.getMessager().printMessage(Kind.ERROR, "Unable to write " + SERVICES_INDEX + ": " + e.getMessage());
+        }
+    }
+
+    private Set<String> readPreviousIndex() {
+        final Set<String> previousServices = new TreeSet<String>();
+        try {
+            final FileObject index = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", SERVICES_INDEX);
+            try (final BufferedReader reader = new BufferedReader(index.openReader(true))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final String service = line.trim();
+                    if (!service.isEmpty() && !service.startsWith("#")) {
+                        previousServices.add(service);
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            // No previous index (e.g. clean build)
+        }
+        return previousServices;
+    }
+}
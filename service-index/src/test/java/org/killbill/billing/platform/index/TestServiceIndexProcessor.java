@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020-2026 Equinix, Inc
+ * Copyright 2014-2026 The Billing Project, LLC
+ *
+ * The Billing Project licenses this file to you under the Apache License, version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License.  You may obtain a copy of the License at:
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.  See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.killbill.billing.platform.index;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.google.testing.compile.Compilation;
+import com.google.testing.compile.Compiler;
+import com.google.testing.compile.JavaFileObjects;
+
+public class TestServiceIndexProcessor {
+
+    // killbill-platform-api depends on this module
+    private static final JavaFileObject KILLBILL_SERVICE = JavaFileObjects.forSourceString("org.killbill.billing.platform.api.KillbillService",
+                                                                                           "package org.killbill.billing.platform.api;\n" +
+                                                                                           "public interface KillbillService {}\n");
+
+    @Test(groups = "fast")
+    public void testIndexGeneration() throws IOException {
+        final Compilation compilation = Compiler.javac()
+                                                .withProcessors(new ServiceIndexProcessor())
+                                                .compile(KILLBILL_SERVICE,
+                                                         JavaFileObjects.forSourceString("test.FooService",
+                                                                                         "package test;\n" +
+                                                                                         "public interface FooService extends org.killbill.billing.platform.api.KillbillService {\n" +
+                                                                                         "    interface NestedService extends FooService {}\n" +
+                                                                                         "}\n"),
+                                                         JavaFileObjects.forSourceString("test.DefaultFooService",
+                                                                                         "package test;\n" +
+                                                                                         "public abstract class DefaultFooService implements FooService, Runnable {}\n"));
+        Assert.assertEquals(compilation.status(), Compilation.Status.SUCCESS);
+
+        final Optional<JavaFileObject> index = compilation.generatedFile(StandardLocation.CLASS_OUTPUT, ServiceIndexProcessor.SERVICES_INDEX);
+        Assert.assertTrue(index.isPresent());
+        // Interfaces only, sorted, using binary names
+        Assert.assertEquals(index.get().getCharContent(true).toString(), "test.FooService\ntest.FooService$NestedService\n");
+    }
+
+    @Test(groups = "fast")
+    public void testInterfaceOption() throws IOException {
+        final Compilation compilation = Compiler.javac()
+                                                .withProcessors(new ServiceIndexProcessor())
+                                                .withOptions("-A" + ServiceIndexProcessor.INTERFACE_OPTION + "=java.lang.Runnable")
+                                                .compile(JavaFileObjects.forSourceString("test.Task",
+                                                                                         "package test;\n" +
+                                                                                         "public interface Task extends Runnable {}\n"));
+        Assert.assertEquals(compilation.status(), Compilation.Status.SUCCESS);
+
+        final Optional<JavaFileObject> index = compilation.generatedFile(StandardLocation.CLASS_OUTPUT, ServiceIndexProcessor.SERVICES_INDEX);
+        Assert.assertTrue(index.isPresent());
+        Assert.assertEquals(index.get().getCharContent(true).toString(), "test.Task\n");
+    }
+
+    @Test(groups = "fast")
+    public void testNoIndexWithoutServices() {
+        final Compilation compilation = Compiler.javac()
+                                                .withProcessors(new ServiceIndexProcessor())
+                                                .compile(KILLBILL_SERVICE,
+                                                         JavaFileObjects.forSourceString("test.Foo",
+                                                                                         "package test;\n" +
+                                                                                         "public class Foo {}\n"));
+        Assert.assertEquals(compilation.status(), Compilation.Status.SUCCESS);
+        Assert.assertFalse(compilation.generatedFile(StandardLocation.CLASS_OUTPUT, ServiceIndexProcessor.SERVICES_INDEX).isPresent());
+    }
+}